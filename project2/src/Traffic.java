@@ -1,14 +1,18 @@
 import java.util.Random;
 
 import brain.PassingCarBrain;
+import brain.RolloutPlanner;
 import brain.SimpleCarBrain;
+import brain.SimpleCarKernel;
 import brain.SmartCarBrain;
+import brain.SmartCarPlanner;
 import core.Car;
 import core.Goal;
 import core.Road;
 import core.World;
 import processing.core.PApplet;
 import processing.core.PVector;
+import processing.event.MouseEvent;
 
 /**
  * Traffic simulator main program.
@@ -24,6 +28,7 @@ public class Traffic extends PApplet {
 	private World world_; // the world containing the cars and roads
 
 	private boolean paused_, step_; // animation/simulation controls
+	private boolean redraw_; // view changed while paused
 
 	public void draw () {
 		if ( !paused_ || step_ ) {
@@ -36,7 +41,12 @@ public class Traffic extends PApplet {
 			world_.update();
 
 			step_ = false;
+		} else if ( redraw_ ) {
+			// camera moved while paused - redraw without advancing the simulation
+			background(50);
+			world_.render();
 		}
+		redraw_ = false;
 	}
 
 	public void keyPressed () {
@@ -54,7 +64,39 @@ public class Traffic extends PApplet {
 			world_.setDebug(World.DEBUG_GRAPH,!world_.getDebug(World.DEBUG_GRAPH));
 		} else if ( key == 'c' ) {
 			world_.setDebug(World.DEBUG_CAR,!world_.getDebug(World.DEBUG_CAR));
+		} else if ( key == 'i' ) {
+			world_.setDebug(World.DEBUG_PLANNER,!world_.getDebug(World.DEBUG_PLANNER));
+
+		} else if ( key == '+' || key == '=' ) {
+			world_.getCamera().zoom(1.25f,width / 2,height / 2);
+		} else if ( key == '-' ) {
+			world_.getCamera().zoom(1 / 1.25f,width / 2,height / 2);
+		} else if ( key == 'h' ) { // home - back to the initial view
+			world_.getCamera().setCenter(new PVector(width / 2,height / 2));
+			world_.getCamera().setZoom(1);
+		} else if ( key == CODED ) {
+			if ( keyCode == LEFT ) {
+				world_.getCamera().pan(-width / 10,0);
+			} else if ( keyCode == RIGHT ) {
+				world_.getCamera().pan(width / 10,0);
+			} else if ( keyCode == UP ) {
+				world_.getCamera().pan(0,-height / 10);
+			} else if ( keyCode == DOWN ) {
+				world_.getCamera().pan(0,height / 10);
+			}
 		}
+		redraw_ = true;
+	}
+
+	public void mouseDragged () {
+		world_.getCamera().pan(pmouseX - mouseX,pmouseY - mouseY);
+		redraw_ = true;
+	}
+
+	public void mouseWheel ( MouseEvent event ) {
+		world_.getCamera().zoom((event.getCount() < 0 ? 1.1f : 1 / 1.1f),mouseX,
+		                        mouseY);
+		redraw_ = true;
 	}
 
 	/**
@@ -96,6 +138,9 @@ public class Traffic extends PApplet {
 		step_ = false;
 
 		world_ = new World(this);
+		world_.addUpdatePhase(new SimpleCarKernel()); // steer simple cars in bulk
+		world_.addUpdatePhase(new SmartCarPlanner()); // plan for smart cars in
+		                                              // parallel
 
 		Random random = new Random();
 
@@ -107,6 +152,9 @@ public class Traffic extends PApplet {
 		{
 			SmartCarBrain brain = new SmartCarBrain();
 			brain.setGoal(new Goal(road.getEnd(2),15));
+			// when stranded without a plan, try out lanes 100 ticks ahead (1ms of
+			// rollouts per choice)
+			brain.setRolloutPlanner(new RolloutPlanner(100,1000000,random));
 			Car car =
 			    new Car(world_,color(255,255,0),10,20,1,road.getAlong(road.getStart(2),10),
 			            new PVector(0,0),4f,.05f,1f,40,PApplet.radians(135),brain);
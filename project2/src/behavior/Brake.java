@@ -34,7 +34,9 @@ public class Brake extends Behavior {
 		PVector steering = PVector.mult(car.getVelocity(),-1);
 		steering.setMag(car.getMaxBrake());
 
-		world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		}
 
 		return steering;
 	}
@@ -7,23 +7,41 @@ import core.World;
 import processing.core.PVector;
 
 /**
- * Change lanes.
+ * Change lanes. The behavior holds no per-car state, so a single instance can
+ * be shared by all cars.
  */
 public class ChangeLanes extends Behavior {
 
-	private int lane_; // lane to change to
-
 	/**
 	 * Create a behavior to change lanes.
 	 * 
 	 * @param c
 	 *          color to display steering vector (for debug mode)
-	 * @param lane
-	 *          the lane to change to
 	 */
-	public ChangeLanes ( int c, int lane ) {
+	public ChangeLanes ( int c ) {
 		super(c);
-		lane_ = lane;
+	}
+
+	/**
+	 * Get the lane changing steering force for the specified car, changing into
+	 * the adjacent lane indicated by the car's turn signal.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @return the steering force for the specified car (zero if the car isn't
+	 *         signaling)
+	 */
+	public PVector getSteeringForce ( Car car, World world ) {
+		switch ( car.getSignal() ) {
+		case LEFT:
+			return getSteeringForce(car,car.getLane() - 1,world);
+		case RIGHT:
+			return getSteeringForce(car,car.getLane() + 1,world);
+		default:
+			return new PVector(0,0);
+		}
 	}
 
 	/**
@@ -31,27 +49,52 @@ public class ChangeLanes extends Behavior {
 	 * 
 	 * @param car
 	 *          the car
+	 * @param lane
+	 *          the lane to change to
+	 * @param world
+	 *          the world containing the car
+	 * @return the steering force for the specified car
+	 */
+	public PVector getSteeringForce ( Car car, int lane, World world ) {
+		return getSteeringForce(car,lane,car.getMaxSpeed(),world);
+	}
+
+	/**
+	 * Get the lane changing steering force for the specified car, driving at
+	 * the specified speed rather than the car's max speed.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param lane
+	 *          the lane to change to
+	 * @param speed
+	 *          the speed to drive at
 	 * @param world
 	 *          the world containing the car
 	 * @return the steering force for the specified car
 	 */
-	public PVector getSteeringForce ( Car car, World world ) {
+	public PVector getSteeringForce ( Car car, int lane, float speed,
+	                                  World world ) {
 		// target is along the center line of the desired lane but at no steeper an
 		// angle than the desired lane-changing angle
 
 		Road road = car.getRoad();
 		PVector target =
-		    road.getLaneChangeTarget(car.getCenter(),lane_,Car.LANE_CHANGE_ANGLE);
+		    road.getLaneChangeTarget(car.getCenter(),lane,Car.LANE_CHANGE_ANGLE);
 
-		world.debugPoint(World.DEBUG_BEHAVIOR,target,color_,4);
+		if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			world.debugPoint(World.DEBUG_BEHAVIOR,target,color_,4);
+		}
 
 		// seek the target
 		PVector desired = PVector.sub(target,car.getCenter());
-		desired.setMag(car.getMaxSpeed());
+		desired.setMag(speed);
 		PVector steering = PVector.sub(desired,car.getVelocity());
 		steering.limit(car.getMaxAccel());
 
-		world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		}
 
 		return steering;
 	}
@@ -6,24 +6,38 @@ import core.World;
 import processing.core.PVector;
 
 /**
- * Brakes as needed to avoid running into the specified car.
+ * Brakes as needed to avoid running into the car ahead. The behavior holds no
+ * per-car state, so a single instance can be shared by all cars.
  */
 public class Follow extends Behavior {
 
-	private Car ahead_;
-
 	/**
-	 * Create a behavior to brake as needed to avoid running into the specified
-	 * car.
+	 * Create a behavior to brake as needed to avoid running into the car ahead.
 	 * 
-	 * @param ahead
-	 *          car ahead to avoid
 	 * @param c
 	 *          color to display steering vector (for debug mode)
 	 */
-	public Follow ( Car ahead, int c ) {
+	public Follow ( int c ) {
 		super(c);
-		ahead_ = ahead;
+	}
+
+	/**
+	 * Get the follow steering force for the specified car, following the next
+	 * car in its lane.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @return the steering force for the specified car (zero if there is no car
+	 *         ahead)
+	 */
+	public PVector getSteeringForce ( Car car, World world ) {
+		Car ahead = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
+		if ( ahead == null ) {
+			return new PVector(0,0);
+		}
+		return getSteeringForce(car,ahead,world);
 	}
 
 	/**
@@ -31,22 +45,24 @@ public class Follow extends Behavior {
 	 * 
 	 * @param car
 	 *          the car
+	 * @param ahead
+	 *          car ahead to avoid
 	 * @param world
 	 *          the world containing the car
 	 * @return the steering force for the specified car
 	 */
-	public PVector getSteeringForce ( Car car, World world ) {
+	public PVector getSteeringForce ( Car car, Car ahead, World world ) {
 		PVector steering = new PVector(0,0);
 
 		// brake to avoid car ahead
 
 		// compute how long it takes this car to slow down, and how far ahead
 		// the next car will be if that happens
-		float braketime = car.getBrakingTime(ahead_.getSpeed());
-		PVector aheadpos = ahead_.getRearBumper(braketime);
+		float braketime = car.getBrakingTime(ahead.getSpeed());
+		PVector aheadpos = ahead.getRearBumper(braketime);
 
 		// car will need to start braking brakedist before aheadpos
-		float brakedist = car.getBrakingDist(ahead_.getSpeed()) + World.SPACING;
+		float brakedist = car.getBrakingDist(ahead.getSpeed()) + World.SPACING;
 		float aheaddist = PVector.dist(car.getFrontBumper(),aheadpos);
 
 		if ( aheaddist <= brakedist ) {
@@ -54,7 +70,9 @@ public class Follow extends Behavior {
 			steering.setMag(car.getMaxBrake());
 		}
 
-		world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		}
 
 		return steering;
 	}
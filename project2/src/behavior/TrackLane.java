@@ -30,6 +30,22 @@ public class TrackLane extends Behavior {
 	 * @return the steering force for the specified car
 	 */
 	public PVector getSteeringForce ( Car car, World world ) {
+		return getSteeringForce(car,car.getMaxSpeed(),world);
+	}
+
+	/**
+	 * Get the track lane steering force for the specified car, driving at the
+	 * specified speed rather than the car's max speed.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param speed
+	 *          the speed to drive at
+	 * @param world
+	 *          the world containing the car
+	 * @return the steering force for the specified car
+	 */
+	public PVector getSteeringForce ( Car car, float speed, World world ) {
 		// target is along the center line of the current lane of the road but at no
 		// steeper an angle than the desired lane-changing angle
 
@@ -55,15 +71,19 @@ public class TrackLane extends Behavior {
 		PVector target = PVector
 		    .add(p0,PVector.mult(p,Math.max(car.getMaxSpeed(),Math.max(t1,t2))));
 
-		world.debugPoint(World.DEBUG_BEHAVIOR,target,color_,4);
+		if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			world.debugPoint(World.DEBUG_BEHAVIOR,target,color_,4);
+		}
 
 		// seek the target
 		PVector desired = PVector.sub(target,car.getCenter());
-		desired.setMag(car.getMaxSpeed());
+		desired.setMag(speed);
 		PVector steering = PVector.sub(desired,car.getVelocity());
 		steering.limit(car.getMaxAccel());
 
-		world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),steering,40,color_,2);
+		}
 
 		return steering;
 	}
@@ -0,0 +1,88 @@
+package brain;
+
+import behavior.ChangeLanes;
+import behavior.Follow;
+import behavior.TrackLane;
+import core.Arbiter;
+import core.Behavior;
+import core.Brain;
+import core.Car;
+import core.Signal;
+import core.World;
+import processing.core.PVector;
+
+/**
+ * A car which heads for one lane and then stays in it, braking as needed for
+ * the car ahead - e.g. the car being planned for in a RolloutPlanner rollout.
+ */
+public class ManeuverBrain implements Brain {
+
+	private static final Follow FOLLOW = new Follow(World.color(255,0,0));
+	private static final ChangeLanes CHANGE_LANES =
+	    new ChangeLanes(World.color(255,0,255));
+	private static final TrackLane TRACK = new TrackLane(World.color(255,0,225));
+
+	// indexes of behaviors in arbiter_
+	private static final int FOLLOWING = 0, CHANGING_LANES = 1;
+
+	private int lane_; // lane to drive in
+	private Car ahead_; // next car in the lane this tick (null if none)
+	private Arbiter arbiter_; // behaviors, highest priority first
+
+	/**
+	 * Create a brain.
+	 * 
+	 * @param lane
+	 *          lane to drive in
+	 */
+	public ManeuverBrain ( int lane ) {
+		lane_ = lane;
+
+		// slow down if there's a slow car ahead; otherwise head for the lane;
+		// otherwise drive forward in the current lane
+		arbiter_ = new Arbiter();
+		arbiter_.add(new Behavior(FOLLOW.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return FOLLOW.getSteeringForce(car,ahead_,world);
+			}
+		},(car,world) -> ahead_ != null);
+		arbiter_.add(new Behavior(CHANGE_LANES.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return CHANGE_LANES.getSteeringForce(car,lane_,world);
+			}
+		},(car,world) -> car.getLane() != lane_);
+		arbiter_.add(TRACK);
+	}
+
+	/**
+	 * Get the lane the car drives in.
+	 * 
+	 * @return the lane
+	 */
+	public int getLane () {
+		return lane_;
+	}
+
+	@Override
+	public Brain fork () {
+		return new ManeuverBrain(lane_);
+	}
+
+	@Override
+	public PVector getNetSteeringForce ( Car car, World world ) {
+		car.setBraking(false);
+		car.setSignal(Signal.NONE);
+		ahead_ = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
+
+		PVector steering = new PVector(0,0);
+		int decided = arbiter_.arbitrate(car,world,steering);
+		if ( decided == FOLLOWING ) {
+			car.setBraking(true);
+		} else if ( decided == CHANGING_LANES ) {
+			car.setSignal(lane_ < car.getLane() ? Signal.LEFT : Signal.RIGHT);
+		}
+		return steering;
+	}
+}
@@ -1,11 +1,16 @@
 package brain;
 
+import java.util.Random;
+
 import behavior.ChangeLanes;
 import behavior.Follow;
 import behavior.TrackLane;
+import core.Arbiter;
 import core.Behavior;
 import core.Brain;
+import core.CachingBrain;
 import core.Car;
+import core.Perception;
 import core.Signal;
 import core.World;
 import processing.core.PVector;
@@ -15,91 +20,141 @@ import processing.core.PVector;
  * lanes when it encounters a slower car (and braking if necessary to avoid
  * collisions).
  */
-public class PassingCarBrain implements Brain {
+public class PassingCarBrain extends CachingBrain {
+
+	// behaviors are stateless, so they are shared by all passing cars
+	private static final Follow FOLLOW = new Follow(World.color(255,0,0));
+	private static final ChangeLanes CHANGE_LANES =
+	    new ChangeLanes(World.color(255,0,255));
+	private static final TrackLane TRACK = new TrackLane(World.color(255,0,225));
 
-	protected Behavior lanechange_; // if not null, current in the process of
-	                                // changing lanes
 	protected int target_; // target lane for current lane change; -1 = none
+	                       // (not currently changing lanes)
+
+	// index of the follow behavior in arbiter_ (after changing lanes)
+	private static final int FOLLOWING = 1;
+
+	private Car ahead_; // next car in the lane, as of the last perception
+	private Random random_; // coin flipped to choose which way to pass
+
+	private Arbiter arbiter_; // behaviors, highest priority first
 
 	public PassingCarBrain () {
-		lanechange_ = null;
+		this(new Random());
+	}
+
+	/**
+	 * Create a brain which chooses which way to pass with the specified random
+	 * number generator.
+	 * 
+	 * @param random
+	 *          the random number generator
+	 */
+	public PassingCarBrain ( Random random ) {
 		target_ = -1;
+		random_ = random;
+
+		// finish a lane change in progress; otherwise slow down if there's a slow
+		// car ahead; otherwise drive forward in the current lane
+		arbiter_ = new Arbiter();
+		arbiter_.add(new Behavior(CHANGE_LANES.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return CHANGE_LANES.getSteeringForce(car,target_,world);
+			}
+		},(car,world) -> target_ != -1);
+		arbiter_.add(new Behavior(FOLLOW.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return FOLLOW.getSteeringForce(car,ahead_,world);
+			}
+		},(car,world) -> ahead_ != null);
+		arbiter_.add(TRACK);
 	}
 
+	/**
+	 * Set the random number generator used to choose which way to pass.
+	 * 
+	 * @param random
+	 *          the random number generator
+	 */
+	public void setRandom ( Random random ) {
+		random_ = random;
+	}
+
+	/**
+	 * Get a passing brain partway through the same lane change (if any). The
+	 * copy flips its own coin, unseeded unless given one with setRandom().
+	 */
 	@Override
-	public PVector getNetSteeringForce ( Car car, World world ) {
-		car.setBraking(false);
+	public Brain fork () {
+		PassingCarBrain copy = new PassingCarBrain();
+		copy.target_ = target_;
+		return copy;
+	}
 
-		// deal with lane changing - if car isn't in the lane yet, make sure the
-		// lane is still open (based on neighborhood, so the car may have blind
-		// spots)
-		if ( lanechange_ != null && car.getLane() != target_ ) {
-			for ( Car neighbor : world.getNeighbors(car) ) {
-				if ( neighbor.getLane() == target_ ) {
-					// car in the way of lane change - abandon lane change
-					lanechange_ = null;
-					target_ = -1;
-					car.setSignal(Signal.NONE);
-					break;
-				}
-			}
+	@Override
+	protected void perceive ( Car car, World world, Perception perception ) {
+		ahead_ = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
+
+		// lane changes depend on the neighborhood and are over in a few ticks, so
+		// only cruising (not changing lanes, and not close enough to the car
+		// ahead to brake or start a lane change) is worth caching
+		if ( target_ != -1 ) {
+			perception.setNotReusable();
+			return;
 		}
-		// deal with lane changing - actually steer
-		if ( lanechange_ != null ) {
-			PVector steer = lanechange_.getSteeringForce(car,world);
-			if ( car.getLane() != target_ ) { // changing lanes
-				return steer;
-			} else { // lane change complete
-				car.setSignal(Signal.NONE);
-				lanechange_ = null;
-				target_ = -1;
-			}
+		perceiveLane(car,perception);
+		perceiveAhead(car,ahead_,perception);
+	}
+
+	@Override
+	protected PVector decide ( Car car, World world ) {
+		car.setBraking(false);
+
+		// deal with lane changing - the lane change is over once the car is in the
+		// target lane; if it isn't there yet, make sure the lane is still open
+		// (based on neighborhood, so the car may have blind spots)
+		if ( target_ != -1
+		    && (car.getLane() == target_ || world.hasNeighborInLane(car,target_)) ) {
+			// lane change complete, or car in the way - abandon lane change
+			target_ = -1;
+			car.setSignal(Signal.NONE);
 		}
 
-		// not currently changing lanes - if there's a slow car in front, brake but
-		// also initiate a lane change for the next time step
-		Car ahead = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
-		if ( ahead != null ) {
-			PVector follow = (new Follow(ahead,world.getApplet().color(255,0,0)))
-			    .getSteeringForce(car,world);
-			if ( follow.mag() > 0 ) {
-				// flip a coin to decide which lane to change to - left or right
-				int carlane = car.getRoad().getLane(car.getCenter());
-				Signal dir = (Math.random() < .5 ? Signal.LEFT : Signal.RIGHT);
-				// handle lanes on the edge of the road
-				if ( carlane == 0 ) {
-					dir = Signal.RIGHT;
-				} else if ( carlane == car.getRoad().getNumLanes() - 1 ) {
-					dir = Signal.LEFT;
-				}
-				int target = (dir == Signal.LEFT ? carlane - 1 : carlane + 1);
-				// is the lane open? based on neighborhood - the car may have blind
-				// spots!
-				for ( Car neighbor : world.getNeighbors(car) ) {
-					if ( neighbor.getLane() == target ) {
-						// car in the way of lane change; abandon lane change
-						dir = Signal.NONE;
-						target = -1;
-						lanechange_ = null;
-						break;
-					}
-				}
-				// set up lane change if that's still the intent
-				if ( dir != Signal.NONE ) {
-					car.setSignal(dir);
-					lanechange_ =
-					    new ChangeLanes(world.getApplet().color(255,0,255),target);
-					target_ = target;
-				}
-				// brake to avoid the current imminent collision
-				car.setBraking(true);
-				return follow;
+		PVector steering = new PVector(0,0);
+		int decided = arbiter_.arbitrate(car,world,steering);
+
+		// if there's a slow car in front, brake but also initiate a lane change
+		// for the next time step
+		if ( decided == FOLLOWING ) {
+			// flip a coin to decide which lane to change to - left or right
+			int carlane = car.getRoad().getLane(car.getCenter());
+			Signal dir = (random_.nextFloat() < .5 ? Signal.LEFT : Signal.RIGHT);
+			// handle lanes on the edge of the road
+			if ( carlane == 0 ) {
+				dir = Signal.RIGHT;
+			} else if ( carlane == car.getRoad().getNumLanes() - 1 ) {
+				dir = Signal.LEFT;
+			}
+			int target = (dir == Signal.LEFT ? carlane - 1 : carlane + 1);
+			// is the lane open? based on neighborhood - the car may have blind
+			// spots!
+			if ( world.hasNeighborInLane(car,target) ) {
+				// car in the way of lane change; abandon lane change
+				dir = Signal.NONE;
+				target = -1;
+			}
+			// set up lane change if that's still the intent
+			if ( dir != Signal.NONE ) {
+				car.setSignal(dir);
+				target_ = target;
 			}
+			// brake to avoid the current imminent collision
+			car.setBraking(true);
 		}
 
-		// not changing lanes or braking - drive forward in the current lane
-		Behavior track = new TrackLane(world.getApplet().color(255,0,225));
-		return track.getSteeringForce(car,world);
+		return steering;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,212 @@
+package brain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import core.Car;
+
+/**
+ * Decides which of the smart cars asking for a new plan get one this step, so
+ * that planning work is spread evenly over the steps rather than bunching up.
+ * 
+ * Each car is given a slot - one of every period ticks, handed out round-robin
+ * as cars are first seen - and routine replans (to refresh an old plan which
+ * still holds; see SmartCarBrain) only become due in the car's slot. Urgent
+ * replans (no plan, or the plan no longer holds - e.g. a lane change it
+ * counted on is blocked) are taken whenever they are asked for, and so are
+ * replans to improve on an incomplete plan, since an anytime search only
+ * improves its plan a budget's worth at a time.
+ * 
+ * At most maxplans plans are made per step: urgent ones first, then
+ * improvements, then due routine ones, oldest plan first within each. An
+ * improvement which doesn't fit is simply asked for again next step; a
+ * routine replan which doesn't fit stays due until it does, ahead of any with
+ * newer plans. Since a plan is refreshed once it is SmartCarBrain.REFRESH_AGE
+ * old, every plan is then at most about REFRESH_AGE + period ticks old, as
+ * long as maxplans covers the urgent replans and improvements plus one slot's
+ * worth of cars per step.
+ */
+public class PlanScheduler {
+
+	/**
+	 * Default number of ticks between a car's slots.
+	 */
+	public static final int PERIOD = 10;
+
+	/**
+	 * Default limit on plans per step.
+	 */
+	public static final int MAX_PLANS = 32;
+
+	/**
+	 * A request for a new plan.
+	 */
+	private static class Request implements Comparable<Request> {
+		Car car_;
+		int need_; // SmartCarBrain.ROUTINE_REPLAN, IMPROVE_REPLAN, or
+		           // URGENT_REPLAN
+		int age_; // age of the car's current plan
+		int order_; // order the request was made in
+
+		Request ( Car car, int need, int age, int order ) {
+			car_ = car;
+			need_ = need;
+			age_ = age;
+			order_ = order;
+		}
+
+		// most needed first, then oldest plan first, then in order of request
+		@Override
+		public int compareTo ( Request other ) {
+			if ( need_ != other.need_ ) {
+				return other.need_ - need_;
+			}
+			if ( age_ != other.age_ ) {
+				return other.age_ - age_;
+			}
+			return order_ - other.order_;
+		}
+	}
+
+	private int period_; // ticks between a car's slots
+	private int maxplans_; // limit on plans per step
+	private Map<Car,Integer> slots_; // each car's slot (0 to period_-1)
+	private int nextslot_; // slot to give the next new car
+	private Set<Car> due_; // cars whose routine replans are due but not made
+	private List<Request> requests_; // requests for the current step
+	private int deferred_; // requests turned down in the last step
+
+	/**
+	 * Create a scheduler with the default period and limit on plans per step.
+	 */
+	public PlanScheduler () {
+		this(PERIOD,MAX_PLANS);
+	}
+
+	/**
+	 * Create a scheduler.
+	 * 
+	 * @param period
+	 *          number of ticks between a car's slots (> 0)
+	 * @param maxplans
+	 *          limit on the number of plans made per step (> 0)
+	 */
+	public PlanScheduler ( int period, int maxplans ) {
+		if ( period <= 0 ) {
+			throw new IllegalArgumentException("period must be > 0; got " + period);
+		}
+		if ( maxplans <= 0 ) {
+			throw new IllegalArgumentException("maxplans must be > 0; got "
+			    + maxplans);
+		}
+		period_ = period;
+		maxplans_ = maxplans;
+		slots_ = new WeakHashMap<Car,Integer>();
+		nextslot_ = 0;
+		due_ = Collections.newSetFromMap(new WeakHashMap<Car,Boolean>());
+		requests_ = new ArrayList<Request>();
+		deferred_ = 0;
+	}
+
+	/**
+	 * Get the number of requests turned down in the last step (urgent,
+	 * improvement, or due routine requests over the limit - routine requests
+	 * outside the car's slot aren't counted).
+	 * 
+	 * @return number of requests turned down
+	 */
+	public int getDeferred () {
+		return deferred_;
+	}
+
+	/**
+	 * Get the limit on the number of plans made per step.
+	 * 
+	 * @return limit on plans per step
+	 */
+	public int getMaxPlans () {
+		return maxplans_;
+	}
+
+	/**
+	 * Get the number of ticks between a car's slots.
+	 * 
+	 * @return number of ticks
+	 */
+	public int getPeriod () {
+		return period_;
+	}
+
+	/**
+	 * Ask for a new plan for the specified car in the current step.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param need
+	 *          how much the plan is needed (SmartCarBrain.ROUTINE_REPLAN,
+	 *          IMPROVE_REPLAN, or URGENT_REPLAN)
+	 * @param age
+	 *          age of the car's current plan (ticks)
+	 */
+	void request ( Car car, int need, int age ) {
+		getSlot(car); // (so slots are handed out in the order cars are seen)
+		requests_.add(new Request(car,need,age,requests_.size()));
+	}
+
+	/**
+	 * Choose which of the cars asking for a new plan in the current step get
+	 * one, and start over for the next step.
+	 * 
+	 * @param tick
+	 *          the current tick
+	 * @return the cars to plan for, in the order they were asked for
+	 */
+	List<Car> schedule ( int tick ) {
+		List<Request> candidates = new ArrayList<Request>(requests_.size());
+		for ( Request request : requests_ ) {
+			if ( request.need_ != SmartCarBrain.ROUTINE_REPLAN
+			    || tick % period_ == getSlot(request.car_)
+			    || due_.contains(request.car_) ) {
+				candidates.add(request);
+			}
+		}
+		Collections.sort(candidates);
+
+		// due routine replans which don't fit stay due; anything else which isn't
+		// asked for again is dropped
+		due_.clear();
+		List<Request> chosen = new ArrayList<Request>(maxplans_);
+		for ( Request request : candidates ) {
+			if ( chosen.size() < maxplans_ ) {
+				chosen.add(request);
+			} else if ( request.need_ == SmartCarBrain.ROUTINE_REPLAN ) {
+				due_.add(request.car_);
+			}
+		}
+		deferred_ = candidates.size() - chosen.size();
+		requests_.clear();
+
+		// (in order of request, so the same cars win the same conflicts over
+		// reservations every run)
+		chosen.sort((a,b) -> a.order_ - b.order_);
+		List<Car> cars = new ArrayList<Car>(chosen.size());
+		for ( Request request : chosen ) {
+			cars.add(request.car_);
+		}
+		return cars;
+	}
+
+	private int getSlot ( Car car ) {
+		Integer slot = slots_.get(car);
+		if ( slot == null ) {
+			slot = nextslot_;
+			nextslot_ = (nextslot_ + 1) % period_;
+			slots_.put(car,slot);
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,287 @@
+package brain;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+
+import core.Car;
+import core.Goal;
+import core.Road;
+import core.World;
+import pathfinding.HeuristicTable;
+import pathfinding.RoadGraphNode;
+import processing.core.PVector;
+
+/**
+ * Monte Carlo planning for a car: each candidate maneuver (staying in the
+ * current lane, or changing to the lane on either side) is tried out in many
+ * short rollouts, and the one with the best average arrival time at the goal
+ * wins. Unlike the pathfinding graphs, which assume the other cars keep their
+ * current velocities, the rollouts drive the other cars with copies of their
+ * own brains - so passing cars change lanes, and pick which way to pass at
+ * random, which is why each maneuver needs many rollouts. Each rollout gives
+ * the passing cars in its fork a Random of its own, seeded from the planner's,
+ * so the rollouts don't contend for one generator and a planner created with a
+ * seed makes the same choices every run.
+ * 
+ * Each rollout runs in its own fork of the car's neighborhood (see
+ * World.fork()). The neighborhood is forked from the world once per plan, and
+ * each rollout forks that again; the forks share the roads, and copy only the
+ * cars (which all move every tick, so there is nothing to gain from copying
+ * them any later). Rollouts run in parallel, in rounds of one rollout per
+ * maneuver per processor, until the planning budget is used up.
+ * 
+ * A rollout ends when the car reaches the goal, collides with another car (the
+ * arrival time is then penalized by COLLISION_PENALTY), or the horizon is
+ * reached (the arrival time is then estimated by a lower bound on the time for
+ * the rest of the way, as for PathfinderGraph.getTimeToGoal()).
+ */
+public class RolloutPlanner {
+
+	/**
+	 * Added to the arrival time of a rollout in which the car collides with
+	 * another car.
+	 */
+	public static final float COLLISION_PENALTY = 1000;
+
+	/**
+	 * A candidate maneuver, and how it has done in the rollouts so far.
+	 */
+	public static class Maneuver {
+		private int lane_; // lane to drive in
+		private int rollouts_; // rollouts tried
+		private double total_; // sum of the rollouts' arrival times
+
+		Maneuver ( int lane ) {
+			lane_ = lane;
+			rollouts_ = 0;
+			total_ = 0;
+		}
+
+		/**
+		 * Get the average arrival time at the goal over the rollouts tried.
+		 * 
+		 * @return average arrival time (ticks from the start of the plan), or
+		 *         POSITIVE_INFINITY if no rollouts have been tried
+		 */
+		public float getExpectedArrival () {
+			return (rollouts_ == 0 ? Float.POSITIVE_INFINITY
+			    : (float) (total_ / rollouts_));
+		}
+
+		/**
+		 * Get the lane the car drives in.
+		 * 
+		 * @return the lane
+		 */
+		public int getLane () {
+			return lane_;
+		}
+
+		/**
+		 * Get the number of rollouts tried.
+		 * 
+		 * @return number of rollouts
+		 */
+		public int getRollouts () {
+			return rollouts_;
+		}
+	}
+
+	/**
+	 * One rollout of one maneuver. (run as a ForkJoinTask with
+	 * ForkJoinTask.adapt())
+	 */
+	private class Rollout implements Callable<Float> {
+		World base_; // the neighborhood
+		Car car_; // the car's copy in base_
+		Maneuver maneuver_;
+		Goal goal_;
+		HeuristicTable heuristic_;
+		long seed_; // seed for the passing cars' coin flips
+
+		Rollout ( World base, Car car, Maneuver maneuver, Goal goal,
+		          HeuristicTable heuristic, long seed ) {
+			base_ = base;
+			car_ = car;
+			maneuver_ = maneuver;
+			goal_ = goal;
+			heuristic_ = heuristic;
+			seed_ = seed;
+		}
+
+		@Override
+		public Float call () {
+			World world = base_.fork(car_,Float.POSITIVE_INFINITY,
+			                         new ManeuverBrain(maneuver_.getLane()));
+			Car car = world.getCars().iterator().next();
+			Random random = new Random(seed_);
+			for ( Car other : world.getCars() ) {
+				if ( other.getBrain() instanceof PassingCarBrain ) {
+					((PassingCarBrain) other.getBrain()).setRandom(random);
+				}
+			}
+			for ( int t = 1 ; t <= horizon_ ; t++ ) {
+				world.update();
+				if ( goal_.matches(car.getFrontBumper()) ) {
+					return (float) t;
+				}
+				if ( isColliding(world,car) ) {
+					return t + COLLISION_PENALTY;
+				}
+			}
+
+			// not there yet - allow the least time the rest of the way could take
+			Road road = car.getRoad();
+			RoadGraphNode node =
+			    new RoadGraphNode(road,road.getOnCenterStripe(car.getFrontBumper()),
+			                      0);
+			float dist = PVector.dist(node.getPosition(),goal_.getPoint())
+			    - goal_.getRadius();
+			dist = Math.max(dist,heuristic_.getDistanceToGoal(node));
+			return horizon_ + Math.max(dist,0) / car.getMaxSpeed();
+		}
+	}
+
+	private int horizon_; // ticks simulated per rollout
+	private long budget_; // time to spend per plan (ns)
+	private int rollouts_; // rollouts tried for the last plan
+	private Random random_; // seeds each rollout's Random
+
+	/**
+	 * Create a planner.
+	 * 
+	 * @param horizon
+	 *          number of ticks to simulate in each rollout (> 0)
+	 * @param budget
+	 *          time to spend on each plan, in nanoseconds (>= 0); at least one
+	 *          round of rollouts is always run
+	 */
+	public RolloutPlanner ( int horizon, long budget ) {
+		this(horizon,budget,new Random());
+	}
+
+	/**
+	 * Create a planner whose rollouts are seeded from the specified random
+	 * number generator.
+	 * 
+	 * @param horizon
+	 *          number of ticks to simulate in each rollout (> 0)
+	 * @param budget
+	 *          time to spend on each plan, in nanoseconds (>= 0); at least one
+	 *          round of rollouts is always run
+	 * @param random
+	 *          random number generator to seed the rollouts from
+	 */
+	public RolloutPlanner ( int horizon, long budget, Random random ) {
+		if ( horizon <= 0 ) {
+			throw new IllegalArgumentException("horizon must be > 0; got "
+			    + horizon);
+		}
+		if ( budget < 0 ) {
+			throw new IllegalArgumentException("budget must be >= 0; got "
+			    + budget);
+		}
+		horizon_ = horizon;
+		budget_ = budget;
+		random_ = random;
+	}
+
+	/**
+	 * Get the number of rollouts tried for the last plan.
+	 * 
+	 * @return number of rollouts
+	 */
+	public int getRollouts () {
+		return rollouts_;
+	}
+
+	/**
+	 * Choose the maneuver with the best expected arrival time at the goal. Runs
+	 * on the current ForkJoinPool, or the common pool if not called from a pool
+	 * thread. The world must not be updated while the plan is being made.
+	 * 
+	 * @param car
+	 *          the car to plan for
+	 * @param world
+	 *          the world containing the car
+	 * @param goal
+	 *          the car's goal
+	 * @return the best maneuver
+	 */
+	public Maneuver plan ( Car car, World world, Goal goal ) {
+		long deadline = System.nanoTime() + budget_;
+		rollouts_ = 0;
+
+		// anything that can reach the car within the horizon
+		World base = world.fork(car,2 * car.getMaxSpeed() * horizon_,
+		                        new ManeuverBrain(car.getLane()));
+		Car copy = base.getCars().iterator().next();
+		HeuristicTable heuristic = HeuristicTable.get(world,goal);
+
+		List<Maneuver> maneuvers = new ArrayList<Maneuver>(3);
+		int lane = car.getLane();
+		for ( int target = lane - 1 ; target <= lane + 1 ; target++ ) {
+			if ( target >= 0 && target < car.getRoad().getNumLanes() ) {
+				maneuvers.add(new Maneuver(target));
+			}
+		}
+
+		int batch = Runtime.getRuntime().availableProcessors();
+		List<Rollout> rollouts =
+		    new ArrayList<Rollout>(batch * maneuvers.size());
+		List<ForkJoinTask<Float>> tasks =
+		    new ArrayList<ForkJoinTask<Float>>(batch * maneuvers.size());
+		do {
+			rollouts.clear();
+			tasks.clear();
+			for ( Maneuver maneuver : maneuvers ) {
+				for ( int i = 0 ; i < batch ; i++ ) {
+					Rollout rollout = new Rollout(base,copy,maneuver,goal,heuristic,
+					                              random_.nextLong());
+					rollouts.add(rollout);
+					tasks.add(ForkJoinTask.adapt(rollout));
+				}
+			}
+			ForkJoinTask.invokeAll(tasks);
+			for ( int i = 0 ; i < rollouts.size() ; i++ ) {
+				Maneuver maneuver = rollouts.get(i).maneuver_;
+				maneuver.rollouts_++;
+				maneuver.total_ += tasks.get(i).join();
+			}
+			rollouts_ += rollouts.size();
+		} while ( System.nanoTime() < deadline );
+
+		Maneuver best = null;
+		for ( Maneuver maneuver : maneuvers ) {
+			if ( best == null
+			    || maneuver.getExpectedArrival() < best.getExpectedArrival() ) {
+				best = maneuver;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Determine if the specified car overlaps another car in its lane.
+	 */
+	private static boolean isColliding ( World world, Car car ) {
+		Road road = car.getRoad();
+		int lane = car.getLane();
+		float front = road.getDistanceAlong(car.getFrontBumper()),
+		    rear = road.getDistanceAlong(car.getRearBumper());
+		for ( Car other : world.getCars() ) {
+			if ( other == car || other.getRoad() != road
+			    || other.getLane() != lane ) {
+				continue;
+			}
+			if ( road.getDistanceAlong(other.getRearBumper()) < front
+			    && rear < road.getDistanceAlong(other.getFrontBumper()) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -2,9 +2,12 @@ package brain;
 
 import behavior.Follow;
 import behavior.TrackLane;
+import core.Arbiter;
 import core.Behavior;
 import core.Brain;
+import core.CachingBrain;
 import core.Car;
+import core.Perception;
 import core.Signal;
 import core.World;
 import processing.core.PVector;
@@ -13,27 +16,100 @@ import processing.core.PVector;
  * A simple car which just tries to drive forward as fast as it can in its
  * current lane, but does brake as needed to avoid collisions.
  */
-public class SimpleCarBrain implements Brain {
+public class SimpleCarBrain extends CachingBrain {
 
+	// debug colors, shared with SimpleCarKernel
+	static final int FOLLOW_COLOR = World.color(255,0,0),
+	    TRACK_COLOR = World.color(255,0,225);
+
+	// behaviors are stateless, so they are shared by all simple cars
+	private static final Follow FOLLOW = new Follow(FOLLOW_COLOR);
+	private static final TrackLane TRACK = new TrackLane(TRACK_COLOR);
+
+	// index of the follow behavior in arbiter_
+	private static final int FOLLOWING = 0;
+
+	private Car ahead_; // next car in the lane, as of the last perception
+
+	private Arbiter arbiter_; // behaviors, highest priority first
+
+	// steering force computed by SimpleCarKernel, and the step it is for
+	private PVector batchsteering_ = new PVector(0,0);
+	private int batchtick_ = -1;
+
+	/**
+	 * Get the net steering force for the specified car. If a SimpleCarKernel has
+	 * already computed the force for this step, that is used; otherwise the
+	 * brain decides for itself.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @return net steering force for the specified car
+	 */
 	@Override
 	public PVector getNetSteeringForce ( Car car, World world ) {
-		car.setBraking(false);
-		car.setSignal(Signal.NONE);
+		if ( batchtick_ == world.getTick() ) {
+			return batchsteering_;
+		}
+		return super.getNetSteeringForce(car,world);
+	}
 
-		// slow down if there's a slow car ahead
-		Car ahead = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
-		if ( ahead != null ) {
-			Behavior follow = new Follow(ahead,world.getApplet().color(255,0,0));
-			PVector steering = follow.getSteeringForce(car,world);
-			if ( steering.mag() > 0 ) {
-				car.setBraking(true);
-				return steering;
+	/**
+	 * Set the steering force to use for the specified step (called by
+	 * SimpleCarKernel).
+	 * 
+	 * @param x
+	 *          x component of the steering force
+	 * @param y
+	 *          y component of the steering force
+	 * @param tick
+	 *          the step the force is for
+	 */
+	void setBatchSteering ( float x, float y, int tick ) {
+		batchsteering_.set(x,y);
+		batchtick_ = tick;
+	}
+
+	public SimpleCarBrain () {
+		// slow down if there's a slow car ahead, otherwise drive forward in the
+		// current lane
+		arbiter_ = new Arbiter();
+		arbiter_.add(new Behavior(FOLLOW_COLOR) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return FOLLOW.getSteeringForce(car,ahead_,world);
 			}
-		}
-		
-		// otherwise drive forward in the current lane
-		Behavior track = new TrackLane(world.getApplet().color(255,0,225));
-		return track.getSteeringForce(car,world);
+		},(car,world) -> ahead_ != null);
+		arbiter_.add(TRACK);
+	}
+
+	/**
+	 * Get a new simple brain - simple cars keep nothing between decisions which
+	 * isn't perceived afresh each tick.
+	 */
+	@Override
+	public Brain fork () {
+		return new SimpleCarBrain();
+	}
+
+	@Override
+	protected void perceive ( Car car, World world, Perception perception ) {
+		// the decision depends only on the car's own position in its lane and on
+		// the car ahead
+		ahead_ = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
+		perceiveLane(car,perception);
+		perceiveAhead(car,ahead_,perception);
+	}
+
+	@Override
+	protected PVector decide ( Car car, World world ) {
+		car.setSignal(Signal.NONE);
+
+		PVector steering = new PVector(0,0);
+		car.setBraking(arbiter_.arbitrate(car,world,steering) == FOLLOWING);
+		return steering;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,335 @@
+package brain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import core.Car;
+import core.Road;
+import core.Signal;
+import core.UpdatePhase;
+import core.World;
+import processing.core.PVector;
+
+/**
+ * Batch evaluation of SimpleCarBrain for every simple car in the world. The
+ * cars in each lane are gathered into parallel arrays (sorted along the road so
+ * each car's leader is found by binary search), and the follow and track lane
+ * behaviors are then evaluated for the whole lane in straight-line loops over
+ * those arrays. The result for each car matches SimpleCarBrain's own decision
+ * for the same world state.
+ * 
+ * Add an instance to the world as an UpdatePhase; all simple cars then steer
+ * based on the state of the world at the start of the step.
+ */
+public class SimpleCarKernel implements UpdatePhase {
+
+	// lane change angle, as the distance along the road per unit of offset
+	private static final float LANE_CHANGE_RUN =
+	    (float) (1 / Math.tan(Car.LANE_CHANGE_ANGLE));
+
+	/**
+	 * The cars in one lane of one road, as parallel arrays.
+	 */
+	private static class Lane {
+
+		int numcars; // all cars in the lane (possible leaders)
+		Car[] cars = new Car[16];
+		long[] order = new long[16]; // rear bumper position + index, sorted
+		float[] rear = new float[16]; // rear bumper distance along the road,
+		                              // in sorted order
+		int[] byrear = new int[16]; // car index, in sorted order
+
+		int numsimple; // simple cars in the lane (followers)
+		int[] simple = new int[16]; // index of each simple car in cars
+
+		// per-car state (indexed like cars)
+		float[] s = new float[16]; // center distance along the road
+		float[] offset = new float[16]; // distance from lane's center stripe
+		float[] speed = new float[16];
+		float[] length = new float[16];
+
+		// per-follower inputs (indexed like simple)
+		float[] fs = new float[16], foffset = new float[16],
+		    fspeed = new float[16], flength = new float[16],
+		    fvalong = new float[16], fvacross = new float[16],
+		    fmaxspeed = new float[16], fmaxaccel = new float[16],
+		    fmaxbrake = new float[16];
+		// leader inputs for each follower (indexed like simple)
+		float[] ls = new float[16], loffset = new float[16],
+		    lspeed = new float[16], llength = new float[16];
+		boolean[] hasleader = new boolean[16];
+
+		// outputs, in road coordinates (indexed like simple)
+		boolean[] brake = new boolean[16];
+		float[] falong = new float[16], facross = new float[16];
+
+		void clear () {
+			numcars = 0;
+			numsimple = 0;
+		}
+
+		void add ( Car car, float carS, float carOffset ) {
+			if ( numcars == cars.length ) {
+				int n = cars.length * 2;
+				cars = Arrays.copyOf(cars,n);
+				order = Arrays.copyOf(order,n);
+				rear = Arrays.copyOf(rear,n);
+				byrear = Arrays.copyOf(byrear,n);
+				simple = Arrays.copyOf(simple,n);
+				s = Arrays.copyOf(s,n);
+				offset = Arrays.copyOf(offset,n);
+				speed = Arrays.copyOf(speed,n);
+				length = Arrays.copyOf(length,n);
+				fs = Arrays.copyOf(fs,n);
+				foffset = Arrays.copyOf(foffset,n);
+				fspeed = Arrays.copyOf(fspeed,n);
+				flength = Arrays.copyOf(flength,n);
+				fvalong = Arrays.copyOf(fvalong,n);
+				fvacross = Arrays.copyOf(fvacross,n);
+				fmaxspeed = Arrays.copyOf(fmaxspeed,n);
+				fmaxaccel = Arrays.copyOf(fmaxaccel,n);
+				fmaxbrake = Arrays.copyOf(fmaxbrake,n);
+				ls = Arrays.copyOf(ls,n);
+				loffset = Arrays.copyOf(loffset,n);
+				lspeed = Arrays.copyOf(lspeed,n);
+				llength = Arrays.copyOf(llength,n);
+				hasleader = Arrays.copyOf(hasleader,n);
+				brake = Arrays.copyOf(brake,n);
+				falong = Arrays.copyOf(falong,n);
+				facross = Arrays.copyOf(facross,n);
+			}
+			cars[numcars] = car;
+			s[numcars] = carS;
+			offset[numcars] = carOffset;
+			speed[numcars] = car.getSpeed();
+			length[numcars] = car.getLength();
+			if ( car.getBrain() instanceof SimpleCarBrain ) {
+				simple[numsimple] = numcars;
+				numsimple++;
+			}
+			numcars++;
+		}
+	}
+
+	// lanes of each road, reused from step to step
+	private Map<Road,List<Lane>> lanes_;
+
+	/**
+	 * Create a kernel.
+	 */
+	public SimpleCarKernel () {
+		lanes_ = new IdentityHashMap<Road,List<Lane>>();
+	}
+
+	@Override
+	public void beforeUpdate ( World world ) {
+		evaluate(world);
+	}
+
+	/**
+	 * Compute the steering force for every simple car in the world, and hand it
+	 * to the car's brain for use in the current step.
+	 * 
+	 * @param world
+	 *          the world
+	 */
+	public void evaluate ( World world ) {
+		gather(world);
+		for ( Map.Entry<Road,List<Lane>> entry : lanes_.entrySet() ) {
+			Road road = entry.getKey();
+			for ( Lane lane : entry.getValue() ) {
+				if ( lane.numsimple == 0 ) {
+					continue;
+				}
+				findLeaders(lane);
+				follow(lane);
+				trackLane(lane);
+				scatter(road,lane,world);
+			}
+		}
+	}
+
+	/**
+	 * Sort all of the cars into lanes.
+	 */
+	private void gather ( World world ) {
+		for ( List<Lane> lanes : lanes_.values() ) {
+			for ( Lane lane : lanes ) {
+				lane.clear();
+			}
+		}
+		for ( Car car : world.getCars() ) {
+			Road road = car.getRoad();
+			if ( road == null ) {
+				continue;
+			}
+			// lane is determined by the front bumper, as for getNextCarInLane
+			int lanenum = road.getLane(car.getFrontBumper());
+			if ( lanenum < 0 || lanenum >= road.getNumLanes() ) {
+				continue;
+			}
+			List<Lane> lanes = lanes_.get(road);
+			if ( lanes == null ) {
+				lanes = new ArrayList<Lane>();
+				lanes_.put(road,lanes);
+			}
+			while ( lanes.size() < road.getNumLanes() ) {
+				lanes.add(new Lane());
+			}
+			lanes.get(lanenum).add(car,road.getDistanceAlong(car.getCenter()),
+			                       road.getLateralOffset(car.getCenter()));
+		}
+	}
+
+	/**
+	 * Find each simple car's leader - the car whose rear bumper is closest to,
+	 * but not behind, the simple car's front bumper - and copy the inputs for
+	 * each simple car and its leader into the per-follower arrays.
+	 */
+	private void findLeaders ( Lane lane ) {
+		// sort by rear bumper position; the float bits are flipped for negative
+		// values so that they order the same way as the values
+		for ( int i = 0 ; i < lane.numcars ; i++ ) {
+			int bits = Float.floatToIntBits(lane.s[i] - lane.length[i] / 2);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			lane.order[i] = ((long) bits << 32) | i;
+		}
+		Arrays.sort(lane.order,0,lane.numcars);
+		for ( int i = 0 ; i < lane.numcars ; i++ ) {
+			int index = (int) lane.order[i];
+			lane.byrear[i] = index;
+			lane.rear[i] = lane.s[index] - lane.length[index] / 2;
+		}
+
+		for ( int f = 0 ; f < lane.numsimple ; f++ ) {
+			int i = lane.simple[f];
+			Car car = lane.cars[i];
+			PVector v = car.getVelocity(), dir = car.getRoad().getOrientation();
+
+			lane.fs[f] = lane.s[i];
+			lane.foffset[f] = lane.offset[i];
+			lane.fspeed[f] = lane.speed[i];
+			lane.flength[f] = lane.length[i];
+			lane.fvalong[f] = v.x * dir.x + v.y * dir.y;
+			lane.fvacross[f] = -v.x * dir.y + v.y * dir.x;
+			lane.fmaxspeed[f] = car.getMaxSpeed();
+			lane.fmaxaccel[f] = car.getMaxAccel();
+			lane.fmaxbrake[f] = car.getMaxBrake();
+
+			// first rear bumper at or after this car's front bumper
+			float front = lane.s[i] + lane.length[i] / 2;
+			int lo = 0, hi = lane.numcars;
+			while ( lo < hi ) {
+				int mid = (lo + hi) >>> 1;
+				if ( lane.rear[mid] < front ) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			if ( lo < lane.numcars ) {
+				int l = lane.byrear[lo];
+				lane.hasleader[f] = true;
+				lane.ls[f] = lane.s[l];
+				lane.loffset[f] = lane.offset[l];
+				lane.lspeed[f] = lane.speed[l];
+				lane.llength[f] = lane.length[l];
+			} else {
+				lane.hasleader[f] = false;
+			}
+		}
+	}
+
+	/**
+	 * The follow behavior for the whole lane: does each simple car need to
+	 * brake for its leader?
+	 */
+	private void follow ( Lane lane ) {
+		int n = lane.numsimple;
+		float[] fs = lane.fs, foffset = lane.foffset, fspeed = lane.fspeed,
+		    flength = lane.flength, fmaxbrake = lane.fmaxbrake, ls = lane.ls,
+		    loffset = lane.loffset, lspeed = lane.lspeed, llength = lane.llength;
+		boolean[] hasleader = lane.hasleader, brake = lane.brake;
+		for ( int f = 0 ; f < n ; f++ ) {
+			// time and distance needed to slow to the leader's speed
+			boolean slower = fspeed[f] > lspeed[f];
+			float braketime = slower ? (fspeed[f] - lspeed[f]) / fmaxbrake[f] : 0;
+			float brakedist = (slower ? (lspeed[f] * lspeed[f] - fspeed[f] * fspeed[f])
+			    / (-2 * fmaxbrake[f]) : 0) + World.SPACING;
+
+			// gap between front bumper and where the leader's rear bumper will be
+			// after that time
+			float along = ls[f] + braketime * lspeed[f] - llength[f] / 2 - fs[f]
+			    - flength[f] / 2;
+			float across = loffset[f] - foffset[f];
+			float aheaddist = (float) Math.sqrt(along * along + across * across);
+
+			// (a stopped car has no braking force to apply)
+			brake[f] = hasleader[f] && aheaddist <= brakedist && fspeed[f] > 0;
+		}
+	}
+
+	/**
+	 * The track lane behavior for the whole lane, in road coordinates (along
+	 * the road, and across the road towards higher-numbered lanes); cars that
+	 * brake get the braking force instead.
+	 */
+	private void trackLane ( Lane lane ) {
+		int n = lane.numsimple;
+		float[] foffset = lane.foffset, fvalong = lane.fvalong,
+		    fvacross = lane.fvacross, fmaxspeed = lane.fmaxspeed,
+		    fmaxaccel = lane.fmaxaccel, fmaxbrake = lane.fmaxbrake,
+		    falong = lane.falong, facross = lane.facross;
+		boolean[] brake = lane.brake;
+		for ( int f = 0 ; f < n ; f++ ) {
+			// seek a point on the center stripe, no further ahead than the lane
+			// change angle requires
+			float ahead =
+			    Math.max(fmaxspeed[f],Math.abs(foffset[f]) * LANE_CHANGE_RUN);
+			float across = -foffset[f];
+			float len = (float) Math.sqrt(ahead * ahead + across * across);
+			float scale = (len == 0 ? 0 : fmaxspeed[f] / len);
+			float sa = ahead * scale - fvalong[f], sc = across * scale - fvacross[f];
+			float mag = (float) Math.sqrt(sa * sa + sc * sc);
+			float limit = (mag > fmaxaccel[f] ? fmaxaccel[f] / mag : 1);
+			sa *= limit;
+			sc *= limit;
+
+			// braking - maximum force opposite the direction of travel
+			float speed = (float) Math
+			    .sqrt(fvalong[f] * fvalong[f] + fvacross[f] * fvacross[f]);
+			float bscale = (speed == 0 ? 0 : -fmaxbrake[f] / speed);
+			falong[f] = brake[f] ? fvalong[f] * bscale : sa;
+			facross[f] = brake[f] ? fvacross[f] * bscale : sc;
+		}
+	}
+
+	/**
+	 * Convert the results back to world coordinates and hand them to the cars'
+	 * brains.
+	 */
+	private void scatter ( Road road, Lane lane, World world ) {
+		PVector dir = road.getOrientation();
+		for ( int f = 0 ; f < lane.numsimple ; f++ ) {
+			Car car = lane.cars[lane.simple[f]];
+			float along = lane.falong[f], across = lane.facross[f];
+			float x = along * dir.x - across * dir.y;
+			float y = along * dir.y + across * dir.x;
+
+			car.setBraking(lane.brake[f]);
+			car.setSignal(Signal.NONE);
+			((SimpleCarBrain) car.getBrain()).setBatchSteering(x,y,world.getTick());
+
+			if ( world.getDebug(World.DEBUG_BEHAVIOR) ) {
+				world.debugVector(World.DEBUG_BEHAVIOR,car.getCenter(),
+				                  new PVector(x,y),40,
+				                  (lane.brake[f] ? SimpleCarBrain.FOLLOW_COLOR
+				                      : SimpleCarBrain.TRACK_COLOR),
+				                  2);
+			}
+		}
+	}
+}
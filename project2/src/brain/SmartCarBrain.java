@@ -2,49 +2,728 @@ package brain;
 
 import java.util.List;
 
+import behavior.ChangeLanes;
+import behavior.Follow;
+import behavior.TrackLane;
+import core.Arbiter;
+import core.Behavior;
 import core.Brain;
 import core.Car;
 import core.Goal;
+import core.Road;
+import core.Signal;
 import core.World;
+import core.WorldSnapshot;
+import pathfinding.AStarSearch;
+import pathfinding.DynamicPathfinderGraph;
+import pathfinding.IncrementalPlanner;
+import pathfinding.LatticePathfinderGraph;
+import pathfinding.ParallelAStarSearch;
+import pathfinding.PathfinderGraph;
+import pathfinding.PlanCache;
+import pathfinding.PlannerStats;
 import pathfinding.RoadGraphNode;
-import processing.core.PApplet;
 import processing.core.PVector;
 
 /**
  * A smart car, which has a goal and can navigate its way around other traffic.
+ * 
+ * The car plans a path to its goal through a pathfinder graph and then follows
+ * the plan, braking for the car ahead as needed. Planning is expensive, so the
+ * plan is kept until one of the assumptions it was made under breaks: the car
+ * ahead changes, the car reaches a node much earlier or later than planned, or
+ * the plan runs out before the goal is reached. Those replans are urgent; the
+ * car also replans to improve on a plan which isn't complete and to refresh a
+ * plan older than REFRESH_AGE, but those can wait (see PlanScheduler).
+ * 
+ * Planning gets a fixed amount of time per tick. The planner starts out with a
+ * quick but rough search, and while it can still find a better path the car
+ * keeps planning each tick, picking up where the last search left off. (A
+ * PlanScheduler fits these improvements in each tick after the urgent replans,
+ * rather than waiting for the car's slot as refreshes do.)
+ * 
+ * Alternatively the car can plan each path from scratch with partial-expansion
+ * A* (see AStarSearch), which keeps nothing from one plan to the next, but
+ * only generates the successors which could be on the best path. Its plans
+ * are always complete, but aren't cut off by the time budget - only by the
+ * limit on nodes expanded. In a world with PARALLEL_SEARCH_CARS or more cars,
+ * where searches get big, each search is spread over several threads instead
+ * (see ParallelAStarSearch).
+ * 
+ * Plans are made from a snapshot of the world. If the world has a
+ * SmartCarPlanner, it plans for all of the smart cars at the start of each
+ * step at once; otherwise the brain plans for itself when asked for steering.
+ * A SmartCarPlanner may also plan in the background, in which case the car
+ * keeps following its old plan (or, without one, just the car ahead and its
+ * lane) until the new one arrives.
+ * The space along each new plan is reserved in the world's reservation table,
+ * so other smart cars don't plan to move into the same gaps.
+ * 
+ * The car can also be given a RolloutPlanner to fall back on when it has no
+ * plan to follow - none could be found, or the current one no longer holds and
+ * its replacement is still being made. The car then heads for the lane whose
+ * maneuver the rollouts expect to reach the goal soonest, choosing again every
+ * MANEUVER_INTERVAL ticks for as long as it is without a plan. As with plans,
+ * a SmartCarPlanner chooses the lanes for all of the stranded cars at the
+ * start of each step at once; otherwise the brain chooses when asked for
+ * steering.
  */
 public class SmartCarBrain implements Brain {
 
+	// how far (in ticks) arrival at a node may be from the plan before replanning
+	private static final float TIME_TOLERANCE = 20;
+
+	// indexes of behaviors in arbiter_
+	private static final int FOLLOWING = 0, CHANGING_LANES = 1;
+
+	// limit on nodes expanded when planning, so an unreachable goal can't stall
+	// the simulation
+	private static final int MAX_EXPANSIONS = 1000;
+
+	// limit on time spent planning per tick (ns)
+	private static final long PLANNING_BUDGET = 2000000;
+
+	// initial heuristic inflation for the anytime search
+	private static final float INITIAL_EPSILON = 2;
+
+	// ticks to wait before trying again when no plan can be found
+	private static final int RETRY_INTERVAL = 30;
+
+	/**
+	 * Ticks a maneuver chosen by the fallback RolloutPlanner is kept before
+	 * choosing again.
+	 */
+	public static final int MANEUVER_INTERVAL = 10;
+
+	/**
+	 * Age (in ticks) at which a plan which still holds is refreshed anyway, to
+	 * pick up changes in traffic it doesn't directly depend on.
+	 */
+	static final int REFRESH_AGE = 150;
+
+	/**
+	 * How much a new plan is needed (see beginStep()): not at all; to refresh an
+	 * old plan which still holds; to improve on a plan which still holds but
+	 * isn't complete; or because there is no plan, or it no longer holds.
+	 */
+	static final int NO_REPLAN = 0, ROUTINE_REPLAN = 1, IMPROVE_REPLAN = 2,
+	    URGENT_REPLAN = 3;
+
+	/**
+	 * How paths are planned: incrementally with an anytime LPA* search (see
+	 * IncrementalPlanner), or from scratch with partial-expansion A* (see
+	 * AStarSearch).
+	 */
+	public static final int INCREMENTAL_SEARCH = 0, ASTAR_SEARCH = 1;
+
+	/**
+	 * Minimum number of cars in the world for an A* search to be spread over
+	 * several threads. With fewer cars, a search is too small for that to pay
+	 * for the threads waiting on each other between rounds.
+	 */
+	public static final int PARALLEL_SEARCH_CARS = 128;
+
+	private static final Follow FOLLOW = new Follow(World.color(255,0,0));
+	private static final ChangeLanes CHANGE_LANES =
+	    new ChangeLanes(World.color(255,0,255));
+	private static final TrackLane TRACK = new TrackLane(World.color(255,0,225));
+
+	/**
+	 * A plan in progress, and the result once it has been made.
+	 */
+	static class Plan {
+		PathfinderGraph graph_; // graph to plan in
+		IncrementalPlanner planner_; // planner to plan with (incremental search)
+		AStarSearch search_; // search to plan with (A* search)
+		ParallelAStarSearch parallel_; // search to plan with in busy worlds (A*
+		                               // search)
+		int generation_; // brain's generation when the plan was started
+		Car ahead_; // next car in the lane when the plan was started
+
+		int tick_; // tick of the snapshot planned in
+		List<RoadGraphNode> path_; // the path found; null if none
+		float[] speeds_; // planned speed at each node of path_
+		boolean complete_; // true if planning again won't improve the path
+		int origin_; // tick path_'s node times are relative to
+
+		Plan ( PathfinderGraph graph, IncrementalPlanner planner,
+		       AStarSearch search, ParallelAStarSearch parallel, int generation,
+		       Car ahead ) {
+			graph_ = graph;
+			planner_ = planner;
+			search_ = search;
+			parallel_ = parallel;
+			generation_ = generation;
+			ahead_ = ahead;
+		}
+
+		/**
+		 * Get the counters and timers for making the plan.
+		 * 
+		 * @return stats for the plan
+		 */
+		PlannerStats getStats () {
+			return graph_.getStats();
+		}
+	}
+
 	private Goal goal_;
 
+	private PathfinderGraph graph_; // graph for the goal; null if none yet
+	private IncrementalPlanner planner_; // planner in graph_ (incremental
+	                                     // search); null if none
+	private AStarSearch search_; // search (A* search); null if none
+	private ParallelAStarSearch parallel_; // search in busy worlds (A* search);
+	                                       // null if none
+	private List<RoadGraphNode> path_; // current plan; null if none
+	private float[] speeds_; // planned speed at each node of path_
+	private int next_; // index of the next node to reach in path_
+	private int plantick_; // tick the plan's node times are relative to
+	private int madetick_; // tick the plan was made at
+	private Car planahead_; // car ahead the plan was made for (null if none)
+	private int retrytick_; // earliest tick to plan again after a failure
+	private boolean conflict_; // true if the plan ran into other cars'
+	                           // reservations when it was made
+	private boolean complete_; // true if planning again won't improve the plan
+	private boolean pending_; // true if a new plan is being made
+	private int generation_; // changes whenever plans in progress become stale
+	private boolean stranded_; // true if there was no plan to follow, or it no
+	                           // longer held, at the start of the step
+
+	private RolloutPlanner rollouts_; // fallback planner; null if none
+	private int maneuver_; // lane chosen by rollouts_ while stranded; -1 if none
+	private int maneuvertick_; // tick maneuver_ was chosen
+
+	private Car ahead_; // next car in the lane this tick (null if none)
+	private int steptick_; // last tick the plan was brought up to date for
+	private Arbiter arbiter_; // behaviors, highest priority first
+	private boolean lattice_; // true to plan over motion primitives
+	private int searchtype_; // INCREMENTAL_SEARCH or ASTAR_SEARCH
+
 	public SmartCarBrain () {
+		this(false);
+	}
+
+	/**
+	 * Create a brain.
+	 * 
+	 * @param lattice
+	 *          true to plan over the car's motion primitives (see
+	 *          LatticePathfinderGraph), false to plan over opportunity nodes (see
+	 *          DynamicPathfinderGraph)
+	 */
+	public SmartCarBrain ( boolean lattice ) {
+		this(lattice,INCREMENTAL_SEARCH);
+	}
+
+	/**
+	 * Create a brain.
+	 * 
+	 * @param lattice
+	 *          true to plan over the car's motion primitives (see
+	 *          LatticePathfinderGraph), false to plan over opportunity nodes (see
+	 *          DynamicPathfinderGraph)
+	 * @param search
+	 *          how to plan paths (INCREMENTAL_SEARCH or ASTAR_SEARCH)
+	 */
+	public SmartCarBrain ( boolean lattice, int search ) {
+		if ( search != INCREMENTAL_SEARCH && search != ASTAR_SEARCH ) {
+			throw new IllegalArgumentException("invalid search: " + search);
+		}
+		lattice_ = lattice;
+		searchtype_ = search;
 		goal_ = null;
+		graph_ = null;
+		planner_ = null;
+		search_ = null;
+		parallel_ = null;
+		if ( search == ASTAR_SEARCH ) {
+			search_ = new AStarSearch(MAX_EXPANSIONS,true);
+			parallel_ =
+			    new ParallelAStarSearch(Runtime.getRuntime().availableProcessors(),
+			                            MAX_EXPANSIONS);
+		}
+		path_ = null;
+		retrytick_ = 0;
+		conflict_ = false;
+		complete_ = false;
+		pending_ = false;
+		generation_ = 0;
+		stranded_ = false;
+		rollouts_ = null;
+		maneuver_ = -1;
+		steptick_ = -1;
+
+		// slow down if there's a slow car ahead, regardless of the plan;
+		// otherwise head for the next node's lane; otherwise drive forward in the
+		// current lane - either way at the next node's planned speed
+		arbiter_ = new Arbiter();
+		arbiter_.add(new Behavior(FOLLOW.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return FOLLOW.getSteeringForce(car,ahead_,world);
+			}
+		},(car,world) -> ahead_ != null);
+		arbiter_.add(new Behavior(CHANGE_LANES.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return CHANGE_LANES.getSteeringForce(car,getTargetLane(),
+				                                     getTargetSpeed(car),world);
+			}
+		},(car,world) -> (path_ != null || maneuver_ != -1)
+		    && getTargetLane() != car.getLane());
+		arbiter_.add(new Behavior(TRACK.getColor()) {
+			@Override
+			public PVector getSteeringForce ( Car car, World world ) {
+				return TRACK.getSteeringForce(car,getTargetSpeed(car),world);
+			}
+		});
+	}
+
+	/**
+	 * Get a brain which heads for the lane the car is currently heading for and
+	 * then stays in it - planning isn't worth repeating in a forked world, but
+	 * a car part way through a lane change must not coast off the road.
+	 * 
+	 * @return a ManeuverBrain, or null if the car isn't heading for a lane
+	 */
+	@Override
+	public Brain fork () {
+		return (path_ != null || maneuver_ != -1 ? new ManeuverBrain(getTargetLane())
+		    : null);
 	}
 
 	@Override
 	public PVector getNetSteeringForce ( Car car, World world ) {
-		// TODO: implement this
-		return new PVector(0,0);
+		car.setBraking(false);
+		car.setSignal(Signal.NONE);
+
+		// plan for this step, unless a SmartCarPlanner already has
+		if ( steptick_ != world.getTick()
+		    && beginStep(car,world) != NO_REPLAN ) {
+			plan(new WorldSnapshot(world));
+			endStep(car,world);
+		}
+
+		// without a plan to follow, fall back on the rollouts' choice of lane
+		// (chosen here only if a SmartCarPlanner hasn't already)
+		if ( rollouts_ != null && stranded_ && (path_ == null || pending_) ) {
+			if ( needsManeuver(world.getTick()) ) {
+				chooseManeuver(car,world);
+			}
+		} else {
+			maneuver_ = -1;
+		}
+
+		// (the graph can't be looked at while a plan is being made in it)
+		if ( path_ != null && !pending_ ) {
+			graph_.debug();
+			debugPath(path_,world);
+		}
+
+		PVector steering = new PVector(0,0);
+		int decided = arbiter_.arbitrate(car,world,steering);
+		if ( decided == FOLLOWING ) {
+			car.setBraking(true);
+		} else if ( decided == CHANGING_LANES ) {
+			car.setSignal(getTargetLane() < car.getLane() ? Signal.LEFT
+			    : Signal.RIGHT);
+		}
+		return steering;
+	}
+
+	/**
+	 * Get the counters and timers for the car's most recent plan.
+	 * 
+	 * @return stats for the last plan, or null if the car hasn't planned
+	 */
+	public PlannerStats getStats () {
+		return (graph_ == null ? null : graph_.getStats());
+	}
+
+	/**
+	 * Set the planner to fall back on when the car has no plan to follow.
+	 * 
+	 * @param rollouts
+	 *          the planner, or null for none (the car then just follows the car
+	 *          ahead in its lane)
+	 */
+	public void setRolloutPlanner ( RolloutPlanner rollouts ) {
+		rollouts_ = rollouts;
+		maneuver_ = -1;
+	}
+
+	/**
+	 * Determine if the car should choose a lane with its fallback planner this
+	 * step: it is without a plan to follow, and hasn't chosen a lane in the last
+	 * MANEUVER_INTERVAL ticks. (beginStep() must have been called for the step)
+	 * 
+	 * @param tick
+	 *          the current tick
+	 * @return true if a lane should be chosen, false if not
+	 */
+	boolean needsManeuver ( int tick ) {
+		if ( rollouts_ == null || !stranded_ || (path_ != null && !pending_) ) {
+			return false;
+		}
+		return maneuver_ == -1 || tick >= maneuvertick_ + MANEUVER_INTERVAL;
+	}
+
+	/**
+	 * Choose a lane with the fallback planner. (needsManeuver() must be true)
+	 * The world must not be updated while the lane is being chosen.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 */
+	void chooseManeuver ( Car car, World world ) {
+		maneuver_ = rollouts_.plan(car,world,goal_).getLane();
+		maneuvertick_ = world.getTick();
 	}
 
 	public void setGoal ( Goal goal ) {
 		goal_ = goal;
+		graph_ = null; // graph is specific to the goal
+		planner_ = null;
+		path_ = null;
+		generation_++; // any plan in progress is for the old goal
+	}
+
+	/**
+	 * Bring the car's progress along the plan up to date for the current step,
+	 * and determine if a new plan is needed. If so, a plan may be made (with
+	 * plan(), or startPlan() if none is already in progress); if not made this
+	 * step, the car keeps following its current plan (if any), and asks again
+	 * next step.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @return how much a new plan is needed (NO_REPLAN, ROUTINE_REPLAN,
+	 *         IMPROVE_REPLAN, or URGENT_REPLAN)
+	 */
+	int beginStep ( Car car, World world ) {
+		steptick_ = world.getTick();
+		ahead_ = world.getNextCarInLane(car.getRoad(),car.getFrontBumper());
+
+		// no plan needed once at or past the goal - the car can't drive backwards
+		PVector front = car.getFrontBumper();
+		if ( goal_ == null || goal_.matches(front)
+		    || car.getRoad().compareTo(front,goal_.getPoint()) > 0 ) {
+			if ( path_ != null ) {
+				path_ = null;
+				world.getReservations().release(car);
+			}
+			stranded_ = false;
+			return NO_REPLAN;
+		}
+		int need = getReplanNeed(car,world,ahead_);
+		stranded_ = (path_ == null || need == URGENT_REPLAN);
+		if ( need == NO_REPLAN ) {
+			return NO_REPLAN;
+		}
+		if ( graph_ == null ) {
+			graph_ = (lattice_ ? new LatticePathfinderGraph(car,world,goal_)
+			    : new DynamicPathfinderGraph(car,world,goal_));
+			if ( searchtype_ == INCREMENTAL_SEARCH ) {
+				planner_ = new IncrementalPlanner(graph_,MAX_EXPANSIONS,
+				                                  PLANNING_BUDGET,INITIAL_EPSILON);
+			}
+		}
+		return need;
+	}
+
+	/**
+	 * Get the age of the current plan.
+	 * 
+	 * @param tick
+	 *          the current tick
+	 * @return ticks since the plan was made (0 if there is no plan)
+	 */
+	int getPlanAge ( int tick ) {
+		return (path_ == null ? 0 : tick - madetick_);
+	}
+
+	/**
+	 * Plan a new path to the goal from the car's position in the snapshot. (as
+	 * startPlan(), makePlan(), and finishPlan() in turn)
+	 * 
+	 * @param snapshot
+	 *          the world at the start of the step
+	 */
+	void plan ( WorldSnapshot snapshot ) {
+		Plan plan = startPlan();
+		makePlan(plan,snapshot);
+		finishPlan(plan);
+	}
+
+	/**
+	 * Start a new plan. (beginStep() must have asked for one in the current
+	 * step) The plan is then made by makePlan(), and put into use by
+	 * finishPlan(); until then the car keeps following its old plan. Only one
+	 * plan may be in progress at a time.
+	 * 
+	 * @return the plan to make
+	 */
+	Plan startPlan () {
+		pending_ = true;
+		return new Plan(graph_,planner_,search_,parallel_,generation_,ahead_);
+	}
+
+	/**
+	 * Make a plan: find a path to the goal from the car's position in the
+	 * snapshot. A plan another car made from nearly the same state is reused if
+	 * it is still good (see PlanCache). Otherwise the incremental planner keeps
+	 * its graph from plan to plan, and only redoes the parts affected by changes
+	 * in traffic; the A* search starts over each time.
+	 * 
+	 * Only the plan, the snapshot, and the (thread-safe) plan cache are used, so
+	 * plans for different cars can be made at the same time, and while the car
+	 * keeps steering.
+	 * 
+	 * @param plan
+	 *          the plan to make (from startPlan())
+	 * @param snapshot
+	 *          the world to plan in (taken when the plan was started or later)
+	 */
+	static void makePlan ( Plan plan, WorldSnapshot snapshot ) {
+		long start = System.nanoTime();
+		PathfinderGraph graph = plan.graph_;
+		plan.tick_ = snapshot.getTick();
+		graph.getStats().clear();
+		graph.setSnapshot(snapshot);
+
+		PlanCache cache = PlanCache.getCache(graph.getWorld());
+		List<RoadGraphNode> cached = cache.get(graph);
+		if ( cached != null ) {
+			graph.getStats().countReuse();
+			graph.getStats().addPlan(start);
+			plan.path_ = cached;
+			plan.speeds_ = getSpeeds(graph,cached);
+			plan.complete_ = true; // only finished plans are shared
+			plan.origin_ = plan.tick_;
+			return;
+		}
+
+		if ( plan.planner_ != null ) {
+			IncrementalPlanner planner = plan.planner_;
+			plan.path_ = planner.plan(plan.tick_);
+			plan.complete_ = planner.isComplete();
+			plan.origin_ = planner.getOrigin();
+		} else {
+			graph.clear(); // only display the latest search
+			plan.path_ = (snapshot.getNumCars() >= PARALLEL_SEARCH_CARS
+			    ? plan.parallel_.search(graph) : plan.search_.search(graph));
+			plan.complete_ = true; // the search isn't anytime
+			plan.origin_ = plan.tick_;
+		}
+		graph.getStats().addPlan(start);
+		plan.speeds_ = getSpeeds(graph,plan.path_);
+		if ( plan.path_ != null && plan.path_.size() >= 2 && plan.complete_
+		    && graph.goalReached(plan.path_.get(plan.path_.size() - 1)) ) {
+			cache.put(graph,plan.path_,graph.getStats().getPlanningTime());
+		}
+	}
+
+	/**
+	 * Get the planned speed at each node of the path, while the graph can still
+	 * be looked at.
+	 * 
+	 * @param graph
+	 *          the graph the path was found in
+	 * @param path
+	 *          the path (may be null)
+	 * @return the speed at each node, or null if there is no path
+	 */
+	private static float[] getSpeeds ( PathfinderGraph graph,
+	                                   List<RoadGraphNode> path ) {
+		if ( path == null ) {
+			return null;
+		}
+		float[] speeds = new float[path.size()];
+		for ( int i = 0 ; i < speeds.length ; i++ ) {
+			speeds[i] = graph.getSpeed(path.get(i));
+		}
+		return speeds;
+	}
+
+	/**
+	 * Put a finished plan into use, unless it has been made stale (by a change
+	 * of goal) since it was started.
+	 * 
+	 * @param plan
+	 *          the plan (made by makePlan())
+	 * @return true if the plan was put into use, false if it was discarded
+	 */
+	boolean finishPlan ( Plan plan ) {
+		pending_ = false;
+		if ( plan.generation_ != generation_ ) {
+			return false;
+		}
+
+		complete_ = plan.complete_;
+		if ( plan.path_ == null || plan.path_.size() < 2 ) {
+			// try again right away if the search was only cut short
+			path_ = null;
+			retrytick_ = plan.tick_ + (complete_ ? RETRY_INTERVAL : 1);
+			return true;
+		}
+		path_ = plan.path_;
+		speeds_ = plan.speeds_;
+		next_ = 1;
+		plantick_ = plan.origin_;
+		madetick_ = plan.tick_;
+		planahead_ = plan.ahead_;
+		return true;
+	}
+
+	/**
+	 * Reserve the space along the new plan, replacing the reservations for the
+	 * old one. (a plan must have just been finished) Plans made at the same time
+	 * can't see each other's reservations, so if any of the space turns out to
+	 * be already taken, the car plans again next step.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 */
+	void endStep ( Car car, World world ) {
+		if ( path_ == null ) {
+			world.getReservations().release(car);
+			return;
+		}
+		PVector[] points = new PVector[path_.size()];
+		float[] times = new float[path_.size()];
+		for ( int i = 0 ; i < path_.size() ; i++ ) {
+			points[i] = path_.get(i).getPosition();
+			times[i] = plantick_ + path_.get(i).getTime();
+		}
+		boolean free =
+		    world.getReservations().reserve(car,car.getRoad(),points,times);
+		// only try once to get around a conflict - the car can't always avoid
+		// space claimed around where it already is
+		conflict_ = !free && !conflict_;
+	}
+
+	/**
+	 * Get the lane chosen by the fallback planner if falling back on it;
+	 * otherwise the lane of the next node in the plan, or of the last node if
+	 * the plan has been used up while a new one is being made. (path_ != null
+	 * or maneuver_ != -1)
+	 */
+	private int getTargetLane () {
+		if ( maneuver_ != -1 ) {
+			return maneuver_;
+		}
+		return path_.get(Math.min(next_,path_.size() - 1)).getLane();
+	}
+
+	/**
+	 * Get the speed planned for the next node in the plan, or for the last node
+	 * if the plan has been used up while a new one is being made. Without a
+	 * plan, or when falling back on the rollouts' lane, that is the car's max
+	 * speed.
+	 */
+	private float getTargetSpeed ( Car car ) {
+		if ( path_ == null || maneuver_ != -1 ) {
+			return car.getMaxSpeed();
+		}
+		return speeds_[Math.min(next_,speeds_.length - 1)];
+	}
+
+	/**
+	 * Advance along the current plan, and determine how much a new plan is
+	 * needed.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @param ahead
+	 *          the current next car in the lane (null if none)
+	 * @return NO_REPLAN if the current plan is still good, ROUTINE_REPLAN if it
+	 *         holds but is old, IMPROVE_REPLAN if it holds but could be
+	 *         improved, URGENT_REPLAN if there is no plan or it no longer holds
+	 */
+	private int getReplanNeed ( Car car, World world, Car ahead ) {
+		if ( path_ == null ) {
+			return (world.getTick() >= retrytick_ ? URGENT_REPLAN : NO_REPLAN);
+		}
+
+		// the plan ran into another car's reservations
+		if ( conflict_ ) {
+			return URGENT_REPLAN;
+		}
+
+		float elapsed = world.getTick() - plantick_;
+
+		// advance past nodes already reached - arriving much earlier or later than
+		// expected means other cars won't be where the plan assumed
+		while ( next_ < path_.size() && isReached(car,path_.get(next_)) ) {
+			if ( Math.abs(elapsed - path_.get(next_).getTime()) > TIME_TOLERANCE ) {
+				return URGENT_REPLAN;
+			}
+			next_++;
+			planahead_ = ahead; // new segment, new car ahead
+		}
+
+		// plan used up without reaching the goal
+		if ( next_ == path_.size() ) {
+			return URGENT_REPLAN;
+		}
+
+		// running late for the next node
+		RoadGraphNode next = path_.get(next_);
+		if ( elapsed > next.getTime() + TIME_TOLERANCE ) {
+			return URGENT_REPLAN;
+		}
+
+		// a different car ahead (not because of a planned lane change - the car
+		// ahead is only monitored while driving along a lane)
+		int lane = car.getRoad().getLane(car.getFrontBumper());
+		if ( path_.get(next_ - 1).getLane() == next.getLane()
+		    && next.getLane() == lane && ahead != planahead_ ) {
+			return URGENT_REPLAN;
+		}
+
+		// the planner can still do better
+		if ( !complete_ ) {
+			return IMPROVE_REPLAN;
+		}
+
+		// the plan is getting old
+		if ( world.getTick() - madetick_ >= REFRESH_AGE ) {
+			return ROUTINE_REPLAN;
+		}
+
+		return NO_REPLAN;
+	}
+
+	/**
+	 * Determine if the car has reached the specified node: the front bumper is in
+	 * the node's lane and at or past the node.
+	 */
+	private boolean isReached ( Car car, RoadGraphNode node ) {
+		Road road = car.getRoad();
+		PVector front = car.getFrontBumper();
+		return road == node.getRoad() && road.getLane(front) == node.getLane()
+		    && road.compareTo(front,node.getPosition()) >= 0;
 	}
 
 	private void debugPath ( List<RoadGraphNode> path, World world ) {
 		if ( !world.getDebug(World.DEBUG_GRAPH) ) { return; }
-		
-		PApplet applet = world.getApplet();
 
-		applet.ellipseMode(PApplet.CENTER);
+		int color = World.color(0,255,255);
 		for ( int i = 0 ; i < path.size() - 1 ; i++ ) {
 			// System.out.println("drawing path "+path_.get(i));
 			PVector p1 = path.get(i).getPosition(),
 			    p2 = path.get(i + 1).getPosition();
-			applet.stroke(0,255,255);
-			applet.fill(0,255,255);
-			applet.line(p1.x,p1.y,p2.x,p2.y);
-			applet.ellipse(p2.x,p2.y,10,10);
+			world.debugLine(World.DEBUG_GRAPH,p1,p2,color,1);
+			world.debugPoint(World.DEBUG_GRAPH,p2,color,10);
 		}
 	}
 
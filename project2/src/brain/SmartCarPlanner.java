@@ -0,0 +1,271 @@
+package brain;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import core.Car;
+import core.UpdatePhase;
+import core.World;
+import core.WorldSnapshot;
+import pathfinding.PlannerStats;
+
+/**
+ * Planning for every smart car in the world at once. At the start of each step
+ * the world is captured in a snapshot, each smart car brings its progress along
+ * its plan up to date, and the plans for all cars needing one are then made in
+ * parallel on a work-stealing thread pool. All of the plans are finished, and
+ * the space along them reserved, before any car steers.
+ * 
+ * Add an instance to the world as an UpdatePhase; smart cars then no longer
+ * plan while steering.
+ * 
+ * The planner can instead run asynchronously: plans are started at the start
+ * of a step, but not waited for - each car keeps steering by its old plan, and
+ * picks up the new plan at the start of the first step after it is finished.
+ * The time taken by each step then doesn't depend on how long planning takes,
+ * at the cost of plans being at least a step old when they are put into use.
+ * 
+ * Smart cars left without a plan to follow choose a lane with their fallback
+ * RolloutPlanners (if any) in the same pool, after the plans are started; the
+ * step waits for those, as the rollouts fork the world.
+ * 
+ * Which cars get a new plan in each step is up to the planner's PlanScheduler,
+ * which spreads routine replans out over the steps and limits the plans made
+ * per step; the other cars keep following their current plans.
+ * 
+ * The stats for all of the plans finished in a step are added up (see
+ * getStats()), and shown in the world's debugging display while
+ * World.DEBUG_PLANNER is on.
+ */
+public class SmartCarPlanner implements UpdatePhase {
+
+	private ForkJoinPool pool_;
+	private boolean async_; // true if plans aren't waited for
+	private List<Car> planning_; // cars being planned for
+	private List<ForkJoinTask<SmartCarBrain.Plan>> tasks_; // plans in progress
+	                                                       // (same order)
+	private Map<Car,ForkJoinTask<SmartCarBrain.Plan>> pending_; // (async) plans
+	                                                            // in progress
+	private PlanScheduler scheduler_; // who gets a plan in each step
+	private PlannerStats stats_; // totals for the plans made in the last step
+
+	/**
+	 * Create a planning phase which uses the common fork/join pool.
+	 */
+	public SmartCarPlanner () {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Create a planning phase which uses the specified pool.
+	 * 
+	 * @param pool
+	 *          pool to plan in
+	 */
+	public SmartCarPlanner ( ForkJoinPool pool ) {
+		this(pool,false);
+	}
+
+	/**
+	 * Create a planning phase which uses the specified pool, and optionally
+	 * doesn't wait for plans to be finished.
+	 * 
+	 * @param pool
+	 *          pool to plan in
+	 * @param async
+	 *          true to plan in the background, false to finish all plans before
+	 *          any car steers
+	 */
+	public SmartCarPlanner ( ForkJoinPool pool, boolean async ) {
+		this(pool,async,new PlanScheduler());
+	}
+
+	/**
+	 * Create a planning phase which uses the specified pool and scheduler, and
+	 * optionally doesn't wait for plans to be finished.
+	 * 
+	 * @param pool
+	 *          pool to plan in
+	 * @param async
+	 *          true to plan in the background, false to finish all plans before
+	 *          any car steers
+	 * @param scheduler
+	 *          decides which cars get a new plan in each step
+	 */
+	public SmartCarPlanner ( ForkJoinPool pool, boolean async,
+	                         PlanScheduler scheduler ) {
+		pool_ = pool;
+		scheduler_ = scheduler;
+		async_ = async;
+		planning_ = new ArrayList<Car>();
+		tasks_ = new ArrayList<ForkJoinTask<SmartCarBrain.Plan>>();
+		pending_ = new IdentityHashMap<Car,ForkJoinTask<SmartCarBrain.Plan>>();
+		stats_ = new PlannerStats();
+	}
+
+	/**
+	 * Determine if the planner plans in the background.
+	 * 
+	 * @return true if plans aren't waited for, false if they are
+	 */
+	public boolean isAsync () {
+		return async_;
+	}
+
+	/**
+	 * Get the scheduler which decides which cars get a new plan in each step.
+	 * 
+	 * @return the scheduler
+	 */
+	public PlanScheduler getScheduler () {
+		return scheduler_;
+	}
+
+	/**
+	 * Get the totals for the plans made in the last step.
+	 * 
+	 * @return stats for the last step
+	 */
+	public PlannerStats getStats () {
+		return stats_;
+	}
+
+	@Override
+	public void beforeUpdate ( World world ) {
+		WorldSnapshot snapshot = new WorldSnapshot(world);
+		if ( async_ ) {
+			beforeUpdateAsync(world,snapshot);
+			return;
+		}
+
+		// deciding who needs a plan looks at the world, so is done here rather
+		// than in the pool
+		for ( Car car : world.getCars() ) {
+			if ( !(car.getBrain() instanceof SmartCarBrain) ) {
+				continue;
+			}
+			request(car,world);
+		}
+		for ( Car car : scheduler_.schedule(snapshot.getTick()) ) {
+			SmartCarBrain brain = (SmartCarBrain) car.getBrain();
+			planning_.add(car);
+			tasks_.add(submit(brain.startPlan(),snapshot));
+		}
+
+		try {
+			// reservations are shared, so are made one car at a time (in a fixed
+			// order, so the same cars win the same conflicts every run)
+			// (all plans must be finished first, since they look up reservations)
+			List<SmartCarBrain.Plan> plans = new ArrayList<SmartCarBrain.Plan>();
+			for ( ForkJoinTask<SmartCarBrain.Plan> task : tasks_ ) {
+				plans.add(task.join());
+			}
+			stats_.clear();
+			for ( int i = 0 ; i < planning_.size() ; i++ ) {
+				finish(planning_.get(i),plans.get(i),world);
+			}
+			if ( world.getDebug(World.DEBUG_PLANNER) && stats_.getPlans() > 0 ) {
+				world.debugText(World.DEBUG_PLANNER,
+				                "tick " + snapshot.getTick() + ": " + stats_);
+			}
+		} finally {
+			planning_.clear();
+			tasks_.clear();
+		}
+		chooseManeuvers(world);
+	}
+
+	/**
+	 * Start plans without waiting for them, and put into use the plans which
+	 * have finished since the last step.
+	 */
+	private void beforeUpdateAsync ( World world, WorldSnapshot snapshot ) {
+		stats_.clear();
+		for ( Car car : world.getCars() ) {
+			if ( !(car.getBrain() instanceof SmartCarBrain) ) {
+				continue;
+			}
+			SmartCarBrain brain = (SmartCarBrain) car.getBrain();
+
+			// (in car order, as for the synchronous planner)
+			ForkJoinTask<SmartCarBrain.Plan> task = pending_.get(car);
+			if ( task != null && task.isDone() ) {
+				pending_.remove(car);
+				finish(car,task.join(),world);
+				task = null;
+			}
+
+			if ( task == null ) {
+				request(car,world);
+			} else {
+				brain.beginStep(car,world);
+			}
+		}
+		for ( Car car : scheduler_.schedule(snapshot.getTick()) ) {
+			SmartCarBrain brain = (SmartCarBrain) car.getBrain();
+			pending_.put(car,submit(brain.startPlan(),snapshot));
+		}
+		chooseManeuvers(world);
+		if ( world.getDebug(World.DEBUG_PLANNER) && stats_.getPlans() > 0 ) {
+			world.debugText(World.DEBUG_PLANNER,
+			                "tick " + snapshot.getTick() + ": " + stats_);
+		}
+	}
+
+	/**
+	 * Choose lanes with the fallback planners of the cars left without a plan
+	 * to follow, in parallel, and wait for them - rollouts fork the world, so it
+	 * must not be updated until they are done.
+	 */
+	private void chooseManeuvers ( World world ) {
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+		for ( Car car : world.getCars() ) {
+			if ( !(car.getBrain() instanceof SmartCarBrain) ) {
+				continue;
+			}
+			SmartCarBrain brain = (SmartCarBrain) car.getBrain();
+			if ( brain.needsManeuver(world.getTick()) ) {
+				tasks.add(pool_.submit(() -> brain.chooseManeuver(car,world)));
+			}
+		}
+		for ( ForkJoinTask<?> task : tasks ) {
+			task.join();
+		}
+	}
+
+	/**
+	 * Bring the car's progress along its plan up to date, and ask the scheduler
+	 * for a new plan if the car needs one.
+	 */
+	private void request ( Car car, World world ) {
+		SmartCarBrain brain = (SmartCarBrain) car.getBrain();
+		int need = brain.beginStep(car,world);
+		if ( need != SmartCarBrain.NO_REPLAN ) {
+			scheduler_.request(car,need,brain.getPlanAge(world.getTick()));
+		}
+	}
+
+	/**
+	 * Put a finished plan into use (if it isn't stale), and reserve the space
+	 * along it.
+	 */
+	private void finish ( Car car, SmartCarBrain.Plan plan, World world ) {
+		SmartCarBrain brain = (SmartCarBrain) car.getBrain();
+		stats_.add(plan.getStats());
+		if ( brain.finishPlan(plan) ) {
+			brain.endStep(car,world);
+		}
+	}
+
+	private ForkJoinTask<SmartCarBrain.Plan> submit ( SmartCarBrain.Plan plan,
+	                                                  WorldSnapshot snapshot ) {
+		return pool_.submit(() -> {
+			SmartCarBrain.makePlan(plan,snapshot);
+			return plan;
+		});
+	}
+}
@@ -0,0 +1,196 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PVector;
+
+/**
+ * Combines an ordered list of behaviors into a single steering force.
+ * Behaviors are listed highest priority first, each with an optional
+ * applicability condition; a behavior is only evaluated if its condition holds
+ * and no higher-priority behavior has already decided the force.
+ * 
+ * In priority mode, the first applicable behavior producing a non-zero force
+ * decides the force by itself. In blending mode, the weighted forces of
+ * applicable behaviors are summed in priority order until the arbiter's
+ * magnitude budget is used up; each behavior's contribution can additionally
+ * be capped by its own budget. Either way, behaviors after the deciding one are
+ * never evaluated.
+ */
+public class Arbiter {
+
+	/**
+	 * Determines whether a behavior applies in the current situation.
+	 */
+	public interface Condition {
+
+		/**
+		 * Determine if the behavior applies to the specified car.
+		 * 
+		 * @param car
+		 *          the car
+		 * @param world
+		 *          the world containing the car
+		 * @return true if the behavior should be evaluated, false if not
+		 */
+		public boolean applies ( Car car, World world );
+	}
+
+	private static class Entry {
+		Behavior behavior_;
+		Condition condition_; // null if always applicable
+		float weight_;
+		float budget_; // maximum magnitude of the weighted force
+
+		Entry ( Behavior behavior, Condition condition, float weight,
+		        float budget ) {
+			behavior_ = behavior;
+			condition_ = condition;
+			weight_ = weight;
+			budget_ = budget;
+		}
+	}
+
+	private List<Entry> entries_; // highest priority first
+	private float budget_; // total magnitude budget when blending; 0 if not
+	                       // blending
+
+	/**
+	 * Create an arbiter in priority mode: the first applicable behavior with a
+	 * non-zero force decides.
+	 */
+	public Arbiter () {
+		entries_ = new ArrayList<Entry>();
+		budget_ = 0;
+	}
+
+	/**
+	 * Create an arbiter in blending mode: weighted forces are summed in priority
+	 * order until their total magnitude reaches budget.
+	 * 
+	 * @param budget
+	 *          total magnitude budget (> 0)
+	 */
+	public Arbiter ( float budget ) {
+		if ( budget <= 0 ) {
+			throw new IllegalArgumentException("budget must be > 0; got " + budget);
+		}
+		entries_ = new ArrayList<Entry>();
+		budget_ = budget;
+	}
+
+	/**
+	 * Add an always-applicable behavior, with lower priority than those already
+	 * added.
+	 * 
+	 * @param behavior
+	 *          behavior to add
+	 */
+	public void add ( Behavior behavior ) {
+		add(behavior,null,1,Float.MAX_VALUE);
+	}
+
+	/**
+	 * Add a behavior, with lower priority than those already added.
+	 * 
+	 * @param behavior
+	 *          behavior to add
+	 * @param condition
+	 *          when the behavior applies (null if always)
+	 */
+	public void add ( Behavior behavior, Condition condition ) {
+		add(behavior,condition,1,Float.MAX_VALUE);
+	}
+
+	/**
+	 * Add a weighted behavior, with lower priority than those already added. The
+	 * weight and budget only matter in blending mode.
+	 * 
+	 * @param behavior
+	 *          behavior to add
+	 * @param condition
+	 *          when the behavior applies (null if always)
+	 * @param weight
+	 *          multiplier for the behavior's force
+	 * @param budget
+	 *          maximum magnitude of the weighted force (> 0)
+	 */
+	public void add ( Behavior behavior, Condition condition, float weight,
+	                  float budget ) {
+		if ( budget <= 0 ) {
+			throw new IllegalArgumentException("budget must be > 0; got " + budget);
+		}
+		entries_.add(new Entry(behavior,condition,weight,budget));
+	}
+
+	/**
+	 * Compute the combined steering force for the specified car.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @param steering
+	 *          set to the combined steering force (zero if no behavior
+	 *          contributes)
+	 * @return index (in the order added) of the highest-priority behavior that
+	 *         contributed to the force, or -1 if none did
+	 */
+	public int arbitrate ( Car car, World world, PVector steering ) {
+		steering.set(0,0);
+		int decided = -1;
+		float remaining = budget_;
+
+		for ( int i = 0 ; i < entries_.size() ; i++ ) {
+			Entry entry = entries_.get(i);
+			if ( entry.condition_ != null && !entry.condition_.applies(car,world) ) {
+				continue;
+			}
+			PVector force = entry.behavior_.getSteeringForce(car,world);
+			if ( force.x == 0 && force.y == 0 ) {
+				continue;
+			}
+			if ( decided == -1 ) {
+				decided = i;
+			}
+
+			// priority - this behavior decides
+			if ( budget_ == 0 ) {
+				steering.set(force);
+				break;
+			}
+
+			// blending - add the weighted force, within the budgets
+			PVector weighted = PVector.mult(force,entry.weight_);
+			weighted.limit(entry.budget_);
+			float mag = weighted.mag();
+			if ( mag >= remaining ) {
+				weighted.setMag(remaining);
+				steering.add(weighted);
+				break;
+			}
+			steering.add(weighted);
+			remaining -= mag;
+		}
+		return decided;
+	}
+
+	/**
+	 * Determine if the arbiter blends behaviors.
+	 * 
+	 * @return true if in blending mode, false if in priority mode
+	 */
+	public boolean isBlending () {
+		return budget_ > 0;
+	}
+
+	/**
+	 * Get the number of behaviors.
+	 * 
+	 * @return number of behaviors
+	 */
+	public int size () {
+		return entries_.size();
+	}
+}
@@ -18,4 +18,16 @@ public interface Brain {
 	 * @return net steering force for the specified car
 	 */
 	public PVector getNetSteeringForce ( Car car, World world );
+
+	/**
+	 * Get a brain which drives a copy of the car the way this one would from
+	 * here on, for looking ahead in a forked world (see World.fork()). The copy
+	 * starts out in the same state as this brain but is independent of it.
+	 * 
+	 * @return a copy of the brain, or null if the brain can't be copied (the
+	 *         car's copy then keeps its current velocity)
+	 */
+	public default Brain fork () {
+		return null;
+	}
 }
\ No newline at end of file
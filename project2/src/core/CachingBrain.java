@@ -0,0 +1,179 @@
+package core;
+
+import processing.core.PVector;
+
+/**
+ * A brain which reuses its last decision while nothing it depends on has
+ * changed. Each tick the brain first perceives - records the inputs its
+ * decision depends on - which is expected to be much cheaper than deciding. The
+ * last steering force is reused as long as the perception matches the one the
+ * decision was made for.
+ * 
+ * The behaviors record their debugging display while deciding, and that is
+ * recorded afresh each update, so decisions aren't reused while
+ * World.DEBUG_BEHAVIOR is on (otherwise the display for cars whose decision is
+ * reused would disappear).
+ */
+public abstract class CachingBrain implements Brain {
+
+	/**
+	 * Suggested tolerance for the car's speed and velocity components.
+	 */
+	protected static final float SPEED_TOLERANCE = .005f;
+
+	/**
+	 * Suggested tolerance for the car's distance from its lane's center stripe.
+	 */
+	protected static final float OFFSET_TOLERANCE = .25f;
+
+	private Perception current_; // this tick's perception
+	private Perception decided_; // perception the cached decision was made for
+	private PVector decision_; // cached steering force; null if none
+
+	private boolean caching_; // true if decisions are reused
+
+	/**
+	 * Create a brain with decision caching turned on.
+	 */
+	protected CachingBrain () {
+		current_ = new Perception();
+		decided_ = new Perception();
+		decision_ = null;
+		caching_ = true;
+	}
+
+	/**
+	 * Get the net steering force for the specified car, reusing the last
+	 * decision if the perceived situation hasn't changed. The returned vector
+	 * may be the cached decision, so callers must not modify it.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @return net steering force for the specified car
+	 */
+	@Override
+	public PVector getNetSteeringForce ( Car car, World world ) {
+		current_.clear();
+		perceive(car,world,current_);
+
+		if ( caching_ && decision_ != null && current_.matches(decided_)
+		    && !world.getDebug(World.DEBUG_BEHAVIOR) ) {
+			return decision_;
+		}
+
+		decision_ = decide(car,world);
+
+		// remember what the decision was based on
+		Perception swap = decided_;
+		decided_ = current_;
+		current_ = swap;
+
+		return decision_;
+	}
+
+	/**
+	 * Forget the cached decision, so the next tick decides from scratch.
+	 */
+	public void invalidate () {
+		decision_ = null;
+	}
+
+	/**
+	 * Determine if decisions are reused.
+	 * 
+	 * @return true if decisions are reused, false if not
+	 */
+	public boolean isCaching () {
+		return caching_;
+	}
+
+	/**
+	 * Set whether decisions are reused.
+	 * 
+	 * @param caching
+	 *          true to reuse decisions, false to decide every tick
+	 */
+	public void setCaching ( boolean caching ) {
+		caching_ = caching;
+		if ( !caching ) {
+			invalidate();
+		}
+	}
+
+	/**
+	 * Record the inputs the brain's decision depends on. Mark the perception as
+	 * not reusable if the decision must be made from scratch this tick.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @param perception
+	 *          (empty) perception to record the inputs in
+	 */
+	protected abstract void perceive ( Car car, World world,
+	                                   Perception perception );
+
+	/**
+	 * Decide on the net steering force for the specified car. Called after
+	 * perceive(), in the same tick.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param world
+	 *          the world containing the car
+	 * @return net steering force for the specified car
+	 */
+	protected abstract PVector decide ( Car car, World world );
+
+	/**
+	 * Record the inputs that the track lane behavior depends on: the car's lane,
+	 * velocity, and position relative to the lane's center stripe.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param perception
+	 *          perception to record the inputs in
+	 */
+	protected static void perceiveLane ( Car car, Perception perception ) {
+		perception.addIdentity(car.getLane());
+		perception.addValue(car.getVelocity().x,SPEED_TOLERANCE);
+		perception.addValue(car.getVelocity().y,SPEED_TOLERANCE);
+		perception.addValue(car.getRoad().getLateralOffset(car.getCenter()),
+		                    OFFSET_TOLERANCE);
+	}
+
+	/**
+	 * Record the inputs that following the car ahead depends on: which car is
+	 * ahead, and whether it is far enough away that the car can't need to brake
+	 * for it. If it isn't, the perception is marked as not reusable.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param ahead
+	 *          the next car in the lane (null if none)
+	 * @param perception
+	 *          perception to record the inputs in
+	 */
+	protected static void perceiveAhead ( Car car, Car ahead,
+	                                      Perception perception ) {
+		if ( ahead == null ) {
+			perception.addIdentity(-1);
+			return;
+		}
+		perception.addIdentity(ahead.getID());
+
+		// the follow behavior brakes when the gap (after the car ahead moves for
+		// the braking time) is within braking distance + spacing; the car ahead
+		// doesn't move backwards, so if the current gap is comfortably larger
+		// than that, following has no effect and the decision is the same as
+		// with no car ahead
+		float gap = PVector.dist(car.getFrontBumper(),ahead.getRearBumper());
+		float brakedist = car.getBrakingDist(ahead.getSpeed()) + World.SPACING;
+		if ( gap <= brakedist + car.getMaxSpeed() ) {
+			perception.setNotReusable();
+		}
+	}
+}
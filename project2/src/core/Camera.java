@@ -0,0 +1,193 @@
+package core;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+import processing.core.PVector;
+
+/**
+ * A pan/zoom camera onto the world. The camera is described by the world point
+ * shown at the center of the screen and a zoom factor (screen pixels per world
+ * unit).
+ */
+public class Camera {
+
+	/**
+	 * Limits on the zoom factor.
+	 */
+	public static final float MIN_ZOOM = .01f, MAX_ZOOM = 10;
+
+	private PVector center_; // world point at the center of the viewport
+	private float zoom_; // screen pixels per world unit
+
+	private int width_, height_; // size of the viewport, in screen pixels
+
+	private int version_; // incremented every time the view changes
+
+	/**
+	 * Create a camera showing the specified viewport at zoom 1, such that world
+	 * coordinates and screen coordinates coincide.
+	 * 
+	 * @param width
+	 *          width of the viewport, in screen pixels
+	 * @param height
+	 *          height of the viewport, in screen pixels
+	 */
+	public Camera ( int width, int height ) {
+		width_ = width;
+		height_ = height;
+		center_ = new PVector(width / 2f,height / 2f);
+		zoom_ = 1;
+		version_ = 0;
+	}
+
+	/**
+	 * Set up the transformation from world coordinates to screen coordinates.
+	 * 
+	 * @param parent
+	 *          the graphics to draw on
+	 */
+	public void apply ( PGraphics parent ) {
+		parent.translate(width_ / 2f,height_ / 2f);
+		parent.scale(zoom_);
+		parent.translate(-center_.x,-center_.y);
+	}
+
+	/**
+	 * Get the world point at the center of the viewport.
+	 * 
+	 * @return world point at the center of the viewport
+	 */
+	public PVector getCenter () {
+		return center_;
+	}
+
+	/**
+	 * Get the version of the view. The version changes whenever the camera pans
+	 * or zooms or the viewport is resized, so anything drawn for an older
+	 * version must be redrawn.
+	 * 
+	 * @return current version of the view
+	 */
+	public int getVersion () {
+		return version_;
+	}
+
+	/**
+	 * Get the corner of the visible region with the largest coordinates.
+	 * 
+	 * @return corner of the visible region (in world coordinates)
+	 */
+	public PVector getViewMax () {
+		return new PVector(center_.x + width_ / (2 * zoom_),
+		                   center_.y + height_ / (2 * zoom_));
+	}
+
+	/**
+	 * Get the corner of the visible region with the smallest coordinates.
+	 * 
+	 * @return corner of the visible region (in world coordinates)
+	 */
+	public PVector getViewMin () {
+		return new PVector(center_.x - width_ / (2 * zoom_),
+		                   center_.y - height_ / (2 * zoom_));
+	}
+
+	/**
+	 * Get the zoom factor.
+	 * 
+	 * @return screen pixels per world unit
+	 */
+	public float getZoom () {
+		return zoom_;
+	}
+
+	/**
+	 * Move the camera by the specified amount.
+	 * 
+	 * @param dx
+	 *          horizontal distance, in screen pixels
+	 * @param dy
+	 *          vertical distance, in screen pixels
+	 */
+	public void pan ( float dx, float dy ) {
+		center_.x += dx / zoom_;
+		center_.y += dy / zoom_;
+		version_++;
+	}
+
+	/**
+	 * Convert a point in screen coordinates to world coordinates.
+	 * 
+	 * @param x
+	 *          screen x
+	 * @param y
+	 *          screen y
+	 * @return the corresponding world point
+	 */
+	public PVector screenToWorld ( float x, float y ) {
+		return new PVector(center_.x + (x - width_ / 2f) / zoom_,
+		                   center_.y + (y - height_ / 2f) / zoom_);
+	}
+
+	/**
+	 * Center the camera on the specified world point.
+	 * 
+	 * @param center
+	 *          world point to show at the center of the viewport
+	 */
+	public void setCenter ( PVector center ) {
+		center_ = center.copy();
+		version_++;
+	}
+
+	/**
+	 * Set the size of the viewport.
+	 * 
+	 * @param width
+	 *          width of the viewport, in screen pixels
+	 * @param height
+	 *          height of the viewport, in screen pixels
+	 */
+	public void setViewport ( int width, int height ) {
+		if ( width == width_ && height == height_ ) {
+			return;
+		}
+		width_ = width;
+		height_ = height;
+		version_++;
+	}
+
+	/**
+	 * Set the zoom factor. The zoom is clamped to [MIN_ZOOM,MAX_ZOOM].
+	 * 
+	 * @param zoom
+	 *          screen pixels per world unit
+	 */
+	public void setZoom ( float zoom ) {
+		zoom_ = PApplet.constrain(zoom,MIN_ZOOM,MAX_ZOOM);
+		version_++;
+	}
+
+	/**
+	 * Zoom by the specified factor, keeping the world point under the specified
+	 * screen location fixed.
+	 * 
+	 * @param factor
+	 *          zoom multiplier (>1 zooms in)
+	 * @param x
+	 *          screen x of the fixed point
+	 * @param y
+	 *          screen y of the fixed point
+	 */
+	public void zoom ( float factor, float x, float y ) {
+		PVector before = screenToWorld(x,y);
+		setZoom(zoom_ * factor);
+		PVector after = screenToWorld(x,y);
+		center_.add(PVector.sub(before,after));
+	}
+
+	@Override
+	public String toString () {
+		return "[Camera center=" + center_ + ", zoom=" + zoom_ + "]";
+	}
+}
@@ -112,6 +112,45 @@ public class Car {
 		brain_ = brain;
 	}
 
+	/**
+	 * Create a copy of a car in another world, at the car's current position and
+	 * velocity. The copy has the same ID as the car, since it stands for the
+	 * same car.
+	 * 
+	 * @param car
+	 *          the car to copy
+	 * @param world
+	 *          the world containing the copy
+	 * @param brain
+	 *          the copy's brain
+	 */
+	public Car ( Car car, World world, Brain brain ) {
+		id_ = car.id_;
+
+		world_ = world;
+
+		color_ = car.color_;
+		length_ = car.length_;
+		width_ = car.width_;
+		mass_ = car.mass_;
+
+		position_ = car.position_.copy();
+		velocity_ = car.velocity_.copy();
+
+		maxaccel_ = car.maxaccel_;
+		maxbrake_ = car.maxbrake_;
+		maxspeed_ = car.maxspeed_;
+
+		neighborRadius_ = car.neighborRadius_;
+		neighborAngle_ = car.neighborAngle_;
+
+		road_ = car.road_;
+		signal_ = car.signal_;
+		braking_ = car.braking_;
+
+		brain_ = brain;
+	}
+
 	/**
 	 * Get the distance covered while slowing from current speed to target.
 	 * 
@@ -168,6 +207,15 @@ public class Car {
 		}
 	}
 
+	/**
+	 * Get the brain controlling the car.
+	 * 
+	 * @return car's brain
+	 */
+	public Brain getBrain () {
+		return brain_;
+	}
+
 	/**
 	 * Get the car's position. (center of the car)
 	 * 
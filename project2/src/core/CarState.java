@@ -0,0 +1,257 @@
+package core;
+
+import processing.core.PVector;
+
+/**
+ * A copy of a car's state at one moment, which doesn't change as the car moves.
+ * Provides the same queries about the car as Car does.
+ */
+public class CarState {
+
+	private Car car_; // the car this is the state of
+	private int id_;
+	private int color_;
+	private float length_;
+	private PVector position_; // center of car
+	private PVector velocity_;
+	private float maxaccel_, maxbrake_, maxspeed_;
+	private Road road_;
+
+	/**
+	 * Capture the current state of the specified car.
+	 * 
+	 * @param car
+	 *          the car
+	 */
+	public CarState ( Car car ) {
+		car_ = car;
+		id_ = car.getID();
+		color_ = car.getColor();
+		length_ = car.getLength();
+		position_ = car.getCenter().copy();
+		velocity_ = car.getVelocity().copy();
+		maxaccel_ = car.getMaxAccel();
+		maxbrake_ = car.getMaxBrake();
+		maxspeed_ = car.getMaxSpeed();
+		road_ = car.getRoad();
+	}
+
+	/**
+	 * Get the distance covered while slowing from the car's speed to target.
+	 * 
+	 * @param target
+	 *          car's desired speed
+	 * @return distance covered while braking, or 0 if speed <= target
+	 */
+	public float getBrakingDist ( float target ) {
+		return getBrakingDist(getSpeed(),target);
+	}
+
+	/**
+	 * Get the distance covered while slowing from the specified speed to target.
+	 * 
+	 * @param speed
+	 *          speed
+	 * @param target
+	 *          car's desired speed
+	 * @return distance covered while braking, or 0 if speed <= target
+	 */
+	public float getBrakingDist ( float speed, float target ) {
+		if ( speed <= target ) {
+			return 0;
+		} else {
+			return (target * target - speed * speed) / (-2 * maxbrake_);
+		}
+	}
+
+	/**
+	 * Get the time needed to slow from the car's speed to target.
+	 * 
+	 * @param target
+	 *          car's desired speed
+	 * @return time needed to brake, or 0 if speed <= target
+	 */
+	public float getBrakingTime ( float target ) {
+		return getBrakingTime(getSpeed(),target);
+	}
+
+	/**
+	 * Get the time needed to slow from the specified speed to target.
+	 * 
+	 * @param speed
+	 *          speed
+	 * @param target
+	 *          car's desired speed
+	 * @return time needed to brake, or 0 if speed <= target
+	 */
+	public float getBrakingTime ( float speed, float target ) {
+		if ( speed <= target ) {
+			return 0;
+		} else {
+			return (speed - target) / maxbrake_;
+		}
+	}
+
+	/**
+	 * Get the car this is the state of.
+	 * 
+	 * @return the car
+	 */
+	public Car getCar () {
+		return car_;
+	}
+
+	/**
+	 * Get the car's position. (center of the car)
+	 * 
+	 * @return car's position (center of the car)
+	 */
+	public PVector getCenter () {
+		return position_;
+	}
+
+	/**
+	 * Get the car's position t time units later, assuming car continues at its
+	 * velocity. (center of the car)
+	 * 
+	 * @return car's position (center of the car)
+	 */
+	public PVector getCenter ( float t ) {
+		return road_.getAlong(position_,t * getSpeed());
+	}
+
+	/**
+	 * Get the car's color.
+	 * 
+	 * @return car's color
+	 */
+	public int getColor () {
+		return color_;
+	}
+
+	/**
+	 * Get the position of the center of the car's front bumper.
+	 * 
+	 * @return position of the center of the car's front bumper
+	 */
+	public PVector getFrontBumper () {
+		return PVector.add(position_,getOffset(length_ / 2));
+	}
+
+	/**
+	 * Get the position of the center of the car's front bumper t time units
+	 * later, assuming car continues at its velocity.
+	 * 
+	 * @return position of the center of the car's front bumper
+	 */
+	public PVector getFrontBumper ( float t ) {
+		return PVector.add(getCenter(t),getOffset(length_ / 2));
+	}
+
+	/**
+	 * Get the car's ID.
+	 */
+	public int getID () {
+		return id_;
+	}
+
+	/**
+	 * Get which lane the car is in. (getRoad() != null)
+	 * 
+	 * @return which lane the car is in
+	 */
+	public int getLane () {
+		return road_.getLane(position_);
+	}
+
+	/**
+	 * Get the length of the car.
+	 * 
+	 * @return car's length
+	 */
+	public float getLength () {
+		return length_;
+	}
+
+	/**
+	 * Get the car's max acceleration force.
+	 * 
+	 * @return car's max acceleration force
+	 */
+	public float getMaxAccel () {
+		return maxaccel_;
+	}
+
+	/**
+	 * Get the car's maximum braking power. (>= 0)
+	 */
+	public float getMaxBrake () {
+		return maxbrake_;
+	}
+
+	/**
+	 * Get the car's max speed.
+	 * 
+	 * @return car's max speed
+	 */
+	public float getMaxSpeed () {
+		return maxspeed_;
+	}
+
+	/**
+	 * Get the position of the car's rear bumper. (center of the bumper)
+	 * 
+	 * @return position of the car's rear bumper
+	 */
+	public PVector getRearBumper () {
+		return PVector.add(position_,getOffset(-length_ / 2));
+	}
+
+	/**
+	 * Get the position of the center of the car's rear bumper t time units
+	 * later, assuming car continues at its velocity.
+	 * 
+	 * @return position of the center of the car's rear bumper
+	 */
+	public PVector getRearBumper ( float t ) {
+		return PVector.add(getCenter(t),getOffset(-length_ / 2));
+	}
+
+	/**
+	 * Get the road the car is driving on.
+	 * 
+	 * @return road the car is driving on
+	 */
+	public Road getRoad () {
+		return road_;
+	}
+
+	/**
+	 * Get the car's speed. (speed = magnitude of the velocity)
+	 * 
+	 * @return car's speed
+	 */
+	public float getSpeed () {
+		return velocity_.mag();
+	}
+
+	/**
+	 * Get the car's velocity.
+	 * 
+	 * @return car's velocity
+	 */
+	public PVector getVelocity () {
+		return velocity_;
+	}
+
+	/**
+	 * Get the offset of the specified distance along the car's orientation (as
+	 * in Car.getOrientation()).
+	 */
+	private PVector getOffset ( float dist ) {
+		PVector orientation = (road_ == null ? velocity_ : road_.getOrientation());
+		PVector dir = new PVector(orientation.x,orientation.y);
+		dir.normalize();
+		return dir.mult(dist);
+	}
+}
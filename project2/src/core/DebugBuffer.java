@@ -0,0 +1,215 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import processing.core.PApplet;
+import processing.core.PGraphics;
+
+/**
+ * A recording of debugging draw commands. Simulation code records primitives
+ * into the buffer as it runs; the renderer replays them later. Commands are
+ * stored in flat primitive arrays so recording doesn't create garbage once the
+ * buffer has grown to its working size.
+ * 
+ * Lines of text (e.g. per-step summaries) are recorded separately, and drawn
+ * in screen space by replayText() rather than in world space with the rest.
+ */
+public class DebugBuffer {
+
+	// command types
+	private static final byte LINE = 0, POINT = 1, CIRCLE = 2;
+
+	// floats per command: x1, y1, x2 (or size/radius), y2, stroke weight
+	private static final int FLOATS = 5;
+
+	// colors per command: stroke, fill
+	private static final int COLORS = 2;
+
+	/**
+	 * Distance between the baselines of successive lines of text.
+	 */
+	public static final float TEXT_LEADING = 15;
+
+	private byte[] types_;
+	private float[] coords_;
+	private int[] colors_;
+	private int size_; // number of commands recorded
+	private List<String> text_; // lines of text, in order
+
+	/**
+	 * Create an empty buffer.
+	 */
+	public DebugBuffer () {
+		types_ = new byte[64];
+		coords_ = new float[64 * FLOATS];
+		colors_ = new int[64 * COLORS];
+		size_ = 0;
+		text_ = new ArrayList<String>();
+	}
+
+	/**
+	 * Remove all recorded commands.
+	 */
+	public void clear () {
+		size_ = 0;
+		text_.clear();
+	}
+
+	/**
+	 * Record an unfilled circle.
+	 * 
+	 * @param x
+	 *          center x
+	 * @param y
+	 *          center y
+	 * @param radius
+	 *          radius
+	 * @param color
+	 *          stroke color
+	 * @param weight
+	 *          stroke weight
+	 */
+	public void circle ( float x, float y, float radius, int color,
+	                     float weight ) {
+		add(CIRCLE,x,y,radius,0,weight,color,0);
+	}
+
+	/**
+	 * Record a line segment.
+	 * 
+	 * @param x1
+	 *          x of the first endpoint
+	 * @param y1
+	 *          y of the first endpoint
+	 * @param x2
+	 *          x of the second endpoint
+	 * @param y2
+	 *          y of the second endpoint
+	 * @param color
+	 *          stroke color
+	 * @param weight
+	 *          stroke weight
+	 */
+	public void line ( float x1, float y1, float x2, float y2, int color,
+	                   float weight ) {
+		add(LINE,x1,y1,x2,y2,weight,color,0);
+	}
+
+	/**
+	 * Record a filled dot.
+	 * 
+	 * @param x
+	 *          center x
+	 * @param y
+	 *          center y
+	 * @param size
+	 *          diameter
+	 * @param stroke
+	 *          outline color
+	 * @param fill
+	 *          fill color
+	 */
+	public void point ( float x, float y, float size, int stroke, int fill ) {
+		add(POINT,x,y,size,0,1,stroke,fill);
+	}
+
+	/**
+	 * Record a line of text.
+	 * 
+	 * @param line
+	 *          the text
+	 */
+	public void text ( String line ) {
+		text_.add(line);
+	}
+
+	/**
+	 * Draw all of the recorded commands, in the order they were recorded.
+	 * 
+	 * @param g
+	 *          graphics to draw on
+	 */
+	public void replay ( PGraphics g ) {
+		g.ellipseMode(PApplet.CENTER);
+		for ( int i = 0 ; i < size_ ; i++ ) {
+			int f = i * FLOATS, c = i * COLORS;
+			g.stroke(colors_[c]);
+			g.strokeWeight(coords_[f + 4]);
+			switch ( types_[i] ) {
+			case LINE:
+				g.line(coords_[f],coords_[f + 1],coords_[f + 2],coords_[f + 3]);
+				break;
+			case POINT:
+				g.fill(colors_[c + 1]);
+				g.ellipse(coords_[f],coords_[f + 1],coords_[f + 2],coords_[f + 2]);
+				break;
+			case CIRCLE:
+				g.noFill();
+				g.ellipse(coords_[f],coords_[f + 1],coords_[f + 2] * 2,
+				          coords_[f + 2] * 2);
+				break;
+			}
+		}
+		g.strokeWeight(1);
+	}
+
+	/**
+	 * Draw the recorded lines of text, TEXT_LEADING apart, in the specified
+	 * color.
+	 * 
+	 * @param g
+	 *          graphics to draw on
+	 * @param x
+	 *          left edge of the text
+	 * @param y
+	 *          baseline of the first line
+	 * @param color
+	 *          text color
+	 */
+	public void replayText ( PGraphics g, float x, float y, int color ) {
+		g.fill(color);
+		for ( String line : text_ ) {
+			g.text(line,x,y);
+			y += TEXT_LEADING;
+		}
+	}
+
+	/**
+	 * Get the number of recorded commands.
+	 * 
+	 * @return number of recorded commands
+	 */
+	public int size () {
+		return size_;
+	}
+
+	private void add ( byte type, float a, float b, float c, float d,
+	                   float weight, int stroke, int fill ) {
+		if ( size_ == types_.length ) {
+			grow();
+		}
+		types_[size_] = type;
+		int f = size_ * FLOATS, k = size_ * COLORS;
+		coords_[f] = a;
+		coords_[f + 1] = b;
+		coords_[f + 2] = c;
+		coords_[f + 3] = d;
+		coords_[f + 4] = weight;
+		colors_[k] = stroke;
+		colors_[k + 1] = fill;
+		size_++;
+	}
+
+	private void grow () {
+		byte[] types = new byte[types_.length * 2];
+		System.arraycopy(types_,0,types,0,size_);
+		types_ = types;
+		float[] coords = new float[coords_.length * 2];
+		System.arraycopy(coords_,0,coords,0,size_ * FLOATS);
+		coords_ = coords;
+		int[] colors = new int[colors_.length * 2];
+		System.arraycopy(colors_,0,colors,0,size_ * COLORS);
+		colors_ = colors;
+	}
+}
@@ -0,0 +1,118 @@
+package core;
+
+/**
+ * The inputs a brain's decision depends on - e.g. the identity of the car
+ * ahead, which lane the car is in, the car's speed. A decision made for one
+ * perception can be reused for another perception if all of the identities are
+ * equal and all of the values are within their tolerances.
+ */
+public class Perception {
+
+	// maximum number of inputs of each kind
+	private static final int MAX_INPUTS = 16;
+
+	private int[] identities_; // inputs that must match exactly
+	private int numidentities_;
+
+	private float[] values_; // inputs that may differ within a tolerance
+	private float[] tolerances_;
+	private int numvalues_;
+
+	private boolean reusable_; // false if no decision may be reused
+
+	/**
+	 * Create an empty perception.
+	 */
+	public Perception () {
+		identities_ = new int[MAX_INPUTS];
+		values_ = new float[MAX_INPUTS];
+		tolerances_ = new float[MAX_INPUTS];
+		clear();
+	}
+
+	/**
+	 * Add an input which must match exactly (an ID, a lane number, a band).
+	 * 
+	 * @param identity
+	 *          the input
+	 */
+	public void addIdentity ( int identity ) {
+		if ( numidentities_ == MAX_INPUTS ) {
+			throw new IllegalStateException("too many identity inputs (max "
+			    + MAX_INPUTS + ")");
+		}
+		identities_[numidentities_] = identity;
+		numidentities_++;
+	}
+
+	/**
+	 * Add an input which may change by up to tolerance without affecting the
+	 * decision.
+	 * 
+	 * @param value
+	 *          the input
+	 * @param tolerance
+	 *          how much the input may change (>= 0)
+	 */
+	public void addValue ( float value, float tolerance ) {
+		if ( numvalues_ == MAX_INPUTS ) {
+			throw new IllegalStateException("too many value inputs (max "
+			    + MAX_INPUTS + ")");
+		}
+		values_[numvalues_] = value;
+		tolerances_[numvalues_] = tolerance;
+		numvalues_++;
+	}
+
+	/**
+	 * Remove all inputs.
+	 */
+	public void clear () {
+		numidentities_ = 0;
+		numvalues_ = 0;
+		reusable_ = true;
+	}
+
+	/**
+	 * Determine if a decision made for this perception may be reused.
+	 * 
+	 * @return true if decisions may be reused, false if not
+	 */
+	public boolean isReusable () {
+		return reusable_;
+	}
+
+	/**
+	 * Determine if a decision made for 'other' also holds for this perception.
+	 * 
+	 * @param other
+	 *          perception the decision was made for
+	 * @return true if both perceptions are reusable and have the same inputs
+	 *         (within the tolerances of 'other'), false otherwise
+	 */
+	public boolean matches ( Perception other ) {
+		if ( !reusable_ || !other.reusable_ || numidentities_ != other.numidentities_
+		    || numvalues_ != other.numvalues_ ) {
+			return false;
+		}
+		for ( int i = 0 ; i < numidentities_ ; i++ ) {
+			if ( identities_[i] != other.identities_[i] ) {
+				return false;
+			}
+		}
+		for ( int i = 0 ; i < numvalues_ ; i++ ) {
+			if ( Math.abs(values_[i] - other.values_[i]) > other.tolerances_[i] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Mark the perception as one where decisions must not be reused (e.g. the
+	 * situation is changing too quickly to describe with a few inputs).
+	 */
+	public void setNotReusable () {
+		reusable_ = false;
+	}
+}
@@ -0,0 +1,263 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import processing.core.PVector;
+
+/**
+ * Space-time reservations for cars planning together. The roads are divided
+ * into cells - a lane, a DISTANCE_BUCKET-long stretch of the lane, and a
+ * TIME_BUCKET-long interval of time - and a car can claim the cells along the
+ * path it plans to follow. Other cars planning afterwards treat claimed cells
+ * as taken, so two cars don't both plan to move into the same gap.
+ * 
+ * Changing a car's reservations changes the traffic version of the lanes
+ * involved (see TrafficMonitor), so that anything planned around the old
+ * reservations is redone.
+ * 
+ * Lookups may be made from any thread, even while reservations are being
+ * changed (in which case they may or may not see the change); changes must be
+ * made from one thread at a time.
+ */
+public class ReservationTable {
+
+	/**
+	 * Length of a cell along the lane.
+	 */
+	public static final float DISTANCE_BUCKET = World.SPACING;
+
+	/**
+	 * Duration of a cell, in ticks.
+	 */
+	public static final float TIME_BUCKET = 10;
+
+	/**
+	 * The cells held by one car.
+	 */
+	private static class Claim {
+		Road road_;
+		Set<Long> cells_;
+
+		Claim ( Road road, Set<Long> cells ) {
+			road_ = road;
+			cells_ = cells;
+		}
+	}
+
+	private TrafficMonitor traffic_; // told about lanes whose reservations
+	                                 // change
+	private Map<Long,Car> cells_; // holder of each claimed cell
+	private Map<Car,Claim> claims_;
+
+	/**
+	 * Create an empty table.
+	 * 
+	 * @param traffic
+	 *          monitor to tell about lanes whose reservations change
+	 */
+	public ReservationTable ( TrafficMonitor traffic ) {
+		traffic_ = traffic;
+		cells_ = new ConcurrentHashMap<Long,Car>();
+		claims_ = new HashMap<Car,Claim>();
+	}
+
+	/**
+	 * Determine if any of the cells covered by a car with its front bumper at
+	 * the specified point and time - from the point back one car length, as in
+	 * reserve() - is claimed by a car other than the specified one.
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          position of the car's front bumper
+	 * @param length
+	 *          length of the car
+	 * @param t
+	 *          the time (tick)
+	 * @param car
+	 *          the car asking (its own claims don't count)
+	 * @return true if another car holds any of the cells, false if not
+	 */
+	public boolean isReserved ( Road road, PVector p, float length, float t,
+	                            Car car ) {
+		int lane = road.getLane(p);
+		float front = road.getDistanceAlong(p);
+		for ( float s = front - length ; s < front + DISTANCE_BUCKET ; s +=
+		    DISTANCE_BUCKET ) {
+			Car holder = cells_.get(getCell(road,lane,Math.min(s,front),t));
+			if ( holder != null && holder != car ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Release all of the specified car's reservations.
+	 * 
+	 * @param car
+	 *          the car
+	 */
+	public void release ( Car car ) {
+		Claim claim = claims_.remove(car);
+		if ( claim == null ) {
+			return;
+		}
+		Set<Integer> lanes = new HashSet<Integer>();
+		for ( Long cell : claim.cells_ ) {
+			cells_.remove(cell);
+			lanes.add(getLane(cell));
+		}
+		for ( int lane : lanes ) {
+			traffic_.invalidate(claim.road_,lane);
+		}
+	}
+
+	/**
+	 * Replace the specified car's reservations with the cells along a path. The
+	 * car occupies each point from its front bumper back one car length. Cells
+	 * already held by other cars are left with them. Nothing is claimed past
+	 * the end of the road.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param road
+	 *          the road the path is on
+	 * @param points
+	 *          positions of the car's front bumper along the path
+	 * @param times
+	 *          tick at which each point is reached (non-decreasing)
+	 * @return true if the car got every cell along the path, false if some were
+	 *         already held by other cars
+	 */
+	public boolean reserve ( Car car, Road road, PVector[] points,
+	                         float[] times ) {
+		if ( points.length != times.length ) {
+			throw new IllegalArgumentException("need one time per point; got "
+			    + points.length + " points and " + times.length + " times");
+		}
+
+		// (a plan may run on past the end of the road, where there is nothing to
+		// claim - so the path is cut off there)
+		Set<Long> wanted = new HashSet<Long>();
+		float length = road.getLength();
+		for ( int i = 1 ; i < points.length ; i++ ) {
+			float s0 = road.getDistanceAlong(points[i - 1]),
+			    s1 = road.getDistanceAlong(points[i]);
+			if ( s0 >= length ) {
+				break;
+			}
+			if ( s1 <= length ) {
+				addSegment(wanted,road,car.getLength(),points[i - 1],times[i - 1],
+				           points[i],times[i]);
+			} else {
+				float f = (length - s0) / (s1 - s0);
+				addSegment(wanted,road,car.getLength(),points[i - 1],times[i - 1],
+				           PVector.lerp(points[i - 1],points[i],f),
+				           times[i - 1] + f * (times[i] - times[i - 1]));
+				break;
+			}
+		}
+
+		// give up cells no longer wanted, and take the free new ones
+		Set<Integer> lanes = new HashSet<Integer>();
+		Claim old = claims_.remove(car);
+		if ( old != null ) {
+			for ( Long cell : old.cells_ ) {
+				if ( old.road_ != road || !wanted.contains(cell) ) {
+					cells_.remove(cell);
+					if ( old.road_ == road ) {
+						lanes.add(getLane(cell));
+					} else {
+						traffic_.invalidate(old.road_,getLane(cell));
+					}
+				}
+			}
+		}
+		boolean free = true;
+		Set<Long> held = new HashSet<Long>();
+		for ( Long cell : wanted ) {
+			Car holder = cells_.get(cell);
+			if ( holder == null ) {
+				cells_.put(cell,car);
+				lanes.add(getLane(cell));
+				held.add(cell);
+			} else if ( holder == car ) {
+				held.add(cell);
+			} else {
+				free = false;
+			}
+		}
+		claims_.put(car,new Claim(road,held));
+
+		for ( int lane : lanes ) {
+			traffic_.invalidate(road,lane);
+		}
+		return free;
+	}
+
+	/**
+	 * Add the cells covered by a car moving in a straight line between two
+	 * points to cells.
+	 */
+	private static void addSegment ( Set<Long> cells, Road road, float length,
+	                                 PVector p0, float t0, PVector p1,
+	                                 float t1 ) {
+		List<Integer> lanes = new ArrayList<Integer>(2);
+		for ( int b = (int) Math.floor(t0 / TIME_BUCKET) ; b <= Math
+		    .floor(t1 / TIME_BUCKET) ; b++ ) {
+			// part of the segment within this time bucket
+			float ta = Math.max(t0,b * TIME_BUCKET),
+			    tb = Math.min(t1,(b + 1) * TIME_BUCKET);
+			PVector pa = lerp(p0,t0,p1,t1,ta), pb = lerp(p0,t0,p1,t1,tb);
+
+			lanes.clear();
+			lanes.add(road.getLane(pa));
+			if ( road.getLane(pb) != lanes.get(0) ) {
+				lanes.add(road.getLane(pb));
+			}
+			float front = road.getDistanceAlong(pb);
+			float rear = Math.min(road.getDistanceAlong(pa),front) - length;
+			for ( int lane : lanes ) {
+				for ( float s = rear ; s < front + DISTANCE_BUCKET ; s +=
+				    DISTANCE_BUCKET ) {
+					cells.add(getCell(road,lane,Math.min(s,front),
+					                  b * TIME_BUCKET));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Get the point reached at time t moving from p0 (at t0) to p1 (at t1).
+	 */
+	private static PVector lerp ( PVector p0, float t0, PVector p1, float t1,
+	                              float t ) {
+		if ( t1 <= t0 ) {
+			return p1;
+		}
+		return PVector.lerp(p0,p1,(t - t0) / (t1 - t0));
+	}
+
+	/**
+	 * Get the cell containing the specified point in the lane, packed into a
+	 * long: road ID (12 bits), lane (8 bits), distance bucket (22 bits), and time
+	 * bucket (22 bits).
+	 */
+	private static long getCell ( Road road, int lane, float s, float t ) {
+		long sb = (long) Math.floor(s / DISTANCE_BUCKET);
+		long tb = (long) Math.floor(t / TIME_BUCKET);
+		return ((long) (road.getID() & 0xfff) << 52) | ((long) (lane & 0xff) << 44)
+		    | ((sb & 0x3fffff) << 22) | (tb & 0x3fffff);
+	}
+
+	private static int getLane ( long cell ) {
+		return (int) ((cell >>> 44) & 0xff);
+	}
+}
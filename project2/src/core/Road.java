@@ -1,6 +1,7 @@
 package core;
 
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PVector;
 
 /**
@@ -22,6 +23,7 @@ public class Road {
 
 		private float t_; // distance along the road (0 = at start, 1 = at end)
 		private int lane_; // lane number (0..numlanes-1)
+		private float y_; // distance from the left side of the road
 
 		/**
 		 * Create a road position.
@@ -35,6 +37,7 @@ public class Road {
 			super();
 			lane_ = lane;
 			t_ = t;
+			y_ = (lane + .5f) * lanewidth_;
 		}
 
 		/**
@@ -60,16 +63,16 @@ public class Road {
 			PVector closest = PVector.add(p,perp);
 
 			// calculate y and dist along the road
-			float y = perp.mag();
+			y_ = perp.mag();
 			t_ = PVector.sub(closest,start_).mag() / getLength();
 
-			if ( y > lanewidth_ * numlanes_ ) {
+			if ( y_ > lanewidth_ * numlanes_ ) {
 				// outside the road
 				lane_ = -1;
 				return;
 			}
 
-			lane_ = (int) (y / lanewidth_);
+			lane_ = (int) (y_ / lanewidth_);
 		}
 
 		/**
@@ -112,12 +115,27 @@ public class Road {
 			return t_;
 		}
 
+		/**
+		 * Get the distance from the left side of the road.
+		 * 
+		 * @return the distance from the left side of the road
+		 */
+		float getY () {
+			return y_;
+		}
+
 		@Override
 		public String toString () {
 			return "[RoadPosition " + lane_ + " " + t_ + "]";
 		}
 	}
 
+	// ID to use for next road created
+	protected static int nextid_ = 0;
+
+	// road's ID
+	protected int id_;
+
 	// width of a lane, in pixels
 	protected float lanewidth_;
 
@@ -140,6 +158,9 @@ public class Road {
 	 *          width of one lane, in pixels
 	 */
 	public Road ( PVector start, PVector end, int numlanes, float lanewidth ) {
+		id_ = nextid_;
+		nextid_++;
+
 		start_ = start;
 		end_ = end;
 		numlanes_ = numlanes;
@@ -185,6 +206,44 @@ public class Road {
 		return PVector.add(p,PVector.mult(getOrientation(),offset));
 	}
 
+	/**
+	 * Get the corner of the road's bounding box with the largest coordinates.
+	 * 
+	 * @return corner of the bounding box with the largest coordinates
+	 */
+	public PVector getBoundsMax () {
+		PVector right = getRightEdgeOffset();
+		return new PVector(Math.max(Math.max(start_.x,end_.x),
+		                            Math.max(start_.x,end_.x) + right.x),
+		                   Math.max(Math.max(start_.y,end_.y),
+		                            Math.max(start_.y,end_.y) + right.y));
+	}
+
+	/**
+	 * Get the corner of the road's bounding box with the smallest coordinates.
+	 * 
+	 * @return corner of the bounding box with the smallest coordinates
+	 */
+	public PVector getBoundsMin () {
+		PVector right = getRightEdgeOffset();
+		return new PVector(Math.min(Math.min(start_.x,end_.x),
+		                            Math.min(start_.x,end_.x) + right.x),
+		                   Math.min(Math.min(start_.y,end_.y),
+		                            Math.min(start_.y,end_.y) + right.y));
+	}
+
+	/**
+	 * Get the distance along the road from the start to the point on the road
+	 * closest to p.
+	 * 
+	 * @param p
+	 *          point
+	 * @return distance along the road to p (0 = at start, getLength() = at end)
+	 */
+	public float getDistanceAlong ( PVector p ) {
+		return (new RoadPosition(p)).getT() * getLength();
+	}
+
 	/**
 	 * Get the point at the end of the specified lane (on the center stripe).
 	 * 
@@ -196,6 +255,15 @@ public class Road {
 		return (new RoadPosition(lane,1)).getAsCoords();
 	}
 
+	/**
+	 * Get the road's ID.
+	 * 
+	 * @return road's ID
+	 */
+	public int getID () {
+		return id_;
+	}
+
 	/**
 	 * Determine which lane p is in.
 	 * 
@@ -242,6 +310,22 @@ public class Road {
 		return PVector.add(p0,PVector.mult(pv,t));
 	}
 
+	/**
+	 * Get how far p is from the center stripe of the lane it is in.
+	 * 
+	 * @param p
+	 *          a point on the road
+	 * @return distance from the center stripe (<0 if p is on the left of the
+	 *         center stripe, >0 if on the right), or 0 if p is not on the road
+	 */
+	public float getLateralOffset ( PVector p ) {
+		RoadPosition roadpos = new RoadPosition(p);
+		if ( roadpos.getLane() == -1 ) {
+			return 0;
+		}
+		return roadpos.getY() - (roadpos.getLane() + .5f) * lanewidth_;
+	}
+
 	/**
 	 * Get the width of a lane.
 	 * 
@@ -315,6 +399,18 @@ public class Road {
 		return PVector.sub(end_,start_).normalize(null);
 	}
 
+	/**
+	 * Get the vector from the left side of the road to the right side of the
+	 * road.
+	 * 
+	 * @return vector across the road, perpendicular to the direction of travel
+	 */
+	private PVector getRightEdgeOffset () {
+		PVector edge = PVector.sub(end_,start_);
+		return PVector.fromAngle(edge.heading() + PApplet.radians(90))
+		    .mult(numlanes_ * lanewidth_);
+	}
+
 	/**
 	 * Get the point at the beginning of the specified lane (on the center
 	 * stripe).
@@ -330,8 +426,11 @@ public class Road {
 
 	/**
 	 * Draw the road.
+	 * 
+	 * @param parent
+	 *          the graphics to draw on
 	 */
-	public void render ( PApplet parent ) {
+	public void render ( PGraphics parent ) {
 		parent.rectMode(PApplet.CORNER);
 		float angle = getOrientation().heading();
 		parent.pushMatrix();
@@ -354,6 +453,29 @@ public class Road {
 		parent.popMatrix();
 	}
 
+	/**
+	 * Draw a section of a lane, using the current fill color. (Used to show
+	 * traffic density when zoomed out.)
+	 * 
+	 * @param parent
+	 *          the graphics to draw on
+	 * @param lane
+	 *          the lane (0..numlanes-1)
+	 * @param from
+	 *          distance along the road to the start of the section
+	 * @param to
+	 *          distance along the road to the end of the section
+	 */
+	public void renderLaneSection ( PGraphics parent, int lane, float from,
+	                                float to ) {
+		parent.rectMode(PApplet.CORNER);
+		parent.pushMatrix();
+		parent.translate(start_.x,start_.y);
+		parent.rotate(getOrientation().heading());
+		parent.rect(from,lane * lanewidth_,to - from,lanewidth_);
+		parent.popMatrix();
+	}
+
 	public String toString () {
 		return "[Road start=" + start_ + ", end=" + end_ + ", numlanes=" + numlanes_
 		    + ", lanewidth=" + lanewidth_ + "]";
@@ -0,0 +1,163 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.core.PVector;
+
+/**
+ * A uniform grid over the plane for finding the objects whose bounding boxes
+ * intersect a query rectangle. Objects may span several cells; each object is
+ * reported at most once per query.
+ * 
+ * @param <T>
+ *          type of object stored
+ */
+public class SpatialIndex<T> {
+
+	private float cellsize_; // width and height of a grid cell
+
+	private List<T> items_; // the objects, by index
+	private Map<Long,int[]> cells_; // cell key -> [count, index, index, ...]
+
+	private int[] marks_; // last query each object was reported in
+	private int query_; // current query number
+
+	/**
+	 * Create an empty index.
+	 * 
+	 * @param cellsize
+	 *          width and height of a grid cell, in world units
+	 */
+	public SpatialIndex ( float cellsize ) {
+		if ( cellsize <= 0 ) {
+			throw new IllegalArgumentException("cell size must be positive; got "
+			    + cellsize);
+		}
+		cellsize_ = cellsize;
+		items_ = new ArrayList<T>();
+		cells_ = new HashMap<Long,int[]>();
+		marks_ = new int[16];
+		query_ = 0;
+	}
+
+	/**
+	 * Remove all objects from the index.
+	 */
+	public void clear () {
+		items_.clear();
+		// keep the cell arrays around for reuse, just empty them
+		for ( int[] cell : cells_.values() ) {
+			cell[0] = 0;
+		}
+	}
+
+	/**
+	 * Add an object to the index.
+	 * 
+	 * @param item
+	 *          the object
+	 * @param min
+	 *          corner of the object's bounding box with the smallest coordinates
+	 * @param max
+	 *          corner of the object's bounding box with the largest coordinates
+	 */
+	public void insert ( T item, PVector min, PVector max ) {
+		int index = items_.size();
+		items_.add(item);
+		if ( index >= marks_.length ) {
+			int[] marks = new int[marks_.length * 2];
+			System.arraycopy(marks_,0,marks,0,marks_.length);
+			marks_ = marks;
+		}
+		marks_[index] = 0;
+
+		int x0 = cell(min.x), x1 = cell(max.x), y0 = cell(min.y),
+		    y1 = cell(max.y);
+		for ( int x = x0 ; x <= x1 ; x++ ) {
+			for ( int y = y0 ; y <= y1 ; y++ ) {
+				Long key = key(x,y);
+				int[] cell = cells_.get(key);
+				if ( cell == null ) {
+					cell = new int[5];
+				} else if ( cell[0] + 1 >= cell.length ) {
+					int[] bigger = new int[cell.length * 2];
+					System.arraycopy(cell,0,bigger,0,cell.length);
+					cell = bigger;
+				}
+				cell[0]++;
+				cell[cell[0]] = index;
+				cells_.put(key,cell);
+			}
+		}
+	}
+
+	/**
+	 * Find all of the objects whose bounding boxes (may) intersect the specified
+	 * rectangle. The test is done at the granularity of grid cells, so objects
+	 * close to the rectangle may also be reported.
+	 * 
+	 * @param min
+	 *          corner of the rectangle with the smallest coordinates
+	 * @param max
+	 *          corner of the rectangle with the largest coordinates
+	 * @param found
+	 *          list to add the objects to
+	 * @return found
+	 */
+	public List<T> query ( PVector min, PVector max, List<T> found ) {
+		query_++;
+		int x0 = cell(min.x), x1 = cell(max.x), y0 = cell(min.y),
+		    y1 = cell(max.y);
+		if ( (long) (x1 - x0 + 1) * (y1 - y0 + 1) > cells_.size() ) {
+			// rectangle covers more cells than are occupied (e.g. zoomed far out) -
+			// cheaper to go through the occupied cells
+			for ( Map.Entry<Long,int[]> entry : cells_.entrySet() ) {
+				long key = entry.getKey();
+				int x = (int) (key >> 32), y = (int) key;
+				if ( x >= x0 && x <= x1 && y >= y0 && y <= y1 ) {
+					collect(entry.getValue(),found);
+				}
+			}
+		} else {
+			for ( int x = x0 ; x <= x1 ; x++ ) {
+				for ( int y = y0 ; y <= y1 ; y++ ) {
+					int[] cell = cells_.get(key(x,y));
+					if ( cell != null ) {
+						collect(cell,found);
+					}
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Get the number of objects in the index.
+	 * 
+	 * @return number of objects
+	 */
+	public int size () {
+		return items_.size();
+	}
+
+	private void collect ( int[] cell, List<T> found ) {
+		for ( int i = 1 ; i <= cell[0] ; i++ ) {
+			int index = cell[i];
+			if ( marks_[index] != query_ ) {
+				marks_[index] = query_;
+				found.add(items_.get(index));
+			}
+		}
+	}
+
+	private int cell ( float coord ) {
+		return (int) Math.floor(coord / cellsize_);
+	}
+
+	private static Long key ( int x, int y ) {
+		return ((long) x << 32) | (y & 0xffffffffL);
+	}
+}
@@ -0,0 +1,208 @@
+package core;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Tracks when the predicted traffic in each lane changes. Predictions of where
+ * other cars will be (as in World.getCarsInInterval()) assume each car stays in
+ * its lane at its current speed; the monitor keeps, for each lane, a version
+ * number which changes whenever a car in the lane stops following that
+ * prediction - it changes speed or lane, jumps, or enters or leaves the world.
+ * Anything computed from the predicted traffic in a lane remains valid as long
+ * as the lane's version is unchanged.
+ * 
+ * The world runs its monitor at the start of each step. The monitor is only
+ * used on the update thread; work running on other threads (such as planning)
+ * uses the versions captured in its WorldSnapshot instead.
+ */
+public class TrafficMonitor implements UpdatePhase {
+
+	/**
+	 * How much a car's speed may change before the prediction is considered
+	 * changed.
+	 */
+	public static final float SPEED_TOLERANCE = .05f;
+
+	/**
+	 * How far a car may drift from its predicted position (along the road)
+	 * before the prediction is considered changed.
+	 */
+	public static final float POSITION_TOLERANCE = 2;
+
+	/**
+	 * The prediction a car's current lane version is based on.
+	 */
+	private static class Baseline {
+		Road road_;
+		int lane_;
+		float s_; // distance along the road
+		float speed_;
+		int tick_; // when the baseline was taken
+		int seen_; // last tick the car was seen
+
+		void set ( Road road, int lane, float s, float speed, int tick ) {
+			road_ = road;
+			lane_ = lane;
+			s_ = s;
+			speed_ = speed;
+			tick_ = tick;
+		}
+	}
+
+	private Map<Car,Baseline> baselines_;
+	private Map<Road,int[]> versions_; // version of each lane of each road
+	private int epoch_; // incremented whenever any lane's version changes
+
+	/**
+	 * Create a monitor for which no traffic has been seen yet.
+	 */
+	public TrafficMonitor () {
+		baselines_ = new IdentityHashMap<Car,Baseline>();
+		versions_ = new IdentityHashMap<Road,int[]>();
+		epoch_ = 0;
+	}
+
+	@Override
+	public void beforeUpdate ( World world ) {
+		int tick = world.getTick();
+		for ( Car car : world.getCars() ) {
+			Road road = car.getRoad();
+			if ( road == null ) {
+				continue;
+			}
+			int lane = road.getLane(car.getFrontBumper());
+			float s = road.getDistanceAlong(car.getCenter());
+			float speed = car.getSpeed();
+
+			Baseline baseline = baselines_.get(car);
+			if ( baseline == null ) {
+				baseline = new Baseline();
+				baseline.set(road,lane,s,speed,tick);
+				baselines_.put(car,baseline);
+				changed(road,lane);
+			} else {
+				float predicted =
+				    baseline.s_ + baseline.speed_ * (tick - baseline.tick_);
+				if ( road != baseline.road_ || lane != baseline.lane_
+				    || Math.abs(speed - baseline.speed_) > SPEED_TOLERANCE
+				    || Math.abs(s - predicted) > POSITION_TOLERANCE ) {
+					changed(baseline.road_,baseline.lane_);
+					changed(road,lane);
+					baseline.set(road,lane,s,speed,tick);
+				}
+			}
+			baseline.seen_ = tick;
+		}
+
+		// cars which have left the world
+		for ( Iterator<Baseline> it = baselines_.values().iterator() ; it
+		    .hasNext() ; ) {
+			Baseline baseline = it.next();
+			if ( baseline.seen_ != tick ) {
+				changed(baseline.road_,baseline.lane_);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get the traffic epoch, which changes whenever any lane's version changes.
+	 * 
+	 * @return the current epoch
+	 */
+	public int getEpoch () {
+		return epoch_;
+	}
+
+	/**
+	 * Copy the current versions of every lane, for a snapshot.
+	 * 
+	 * @return the version of each lane of each road (lanes of roads which
+	 *         aren't included have version 0)
+	 */
+	Map<Road,int[]> copyVersions () {
+		Map<Road,int[]> copy = new IdentityHashMap<Road,int[]>();
+		for ( Map.Entry<Road,int[]> entry : versions_.entrySet() ) {
+			copy.put(entry.getKey(),entry.getValue().clone());
+		}
+		return copy;
+	}
+
+	/**
+	 * Mark the predicted traffic in the specified lane as changed for reasons
+	 * the monitor can't see itself (e.g. reservations in the lane changing).
+	 * 
+	 * @param road
+	 *          the road
+	 * @param lane
+	 *          the lane
+	 */
+	public void invalidate ( Road road, int lane ) {
+		changed(road,lane);
+	}
+
+	/**
+	 * Get the version of the predicted traffic in the specified lane. Lanes
+	 * outside of the road have version 0.
+	 * 
+	 * @param road
+	 *          the road
+	 * @param lane
+	 *          the lane
+	 * @return the lane's current version
+	 */
+	public int getVersion ( Road road, int lane ) {
+		return getVersion(versions_,road,lane);
+	}
+
+	/**
+	 * Get a combined version for the specified lane and its neighbors, which
+	 * changes whenever any of their versions does.
+	 * 
+	 * @param road
+	 *          the road
+	 * @param lane
+	 *          the lane
+	 * @return combined version of lanes lane-1, lane, and lane+1
+	 */
+	public int getNeighborhoodVersion ( Road road, int lane ) {
+		return getNeighborhoodVersion(versions_,road,lane);
+	}
+
+	/**
+	 * Get a lane's version from the specified versions (as getVersion()).
+	 */
+	static int getVersion ( Map<Road,int[]> versions, Road road, int lane ) {
+		int[] lanes = versions.get(road);
+		if ( lanes == null || lane < 0 || lane >= lanes.length ) {
+			return 0;
+		}
+		return lanes[lane];
+	}
+
+	/**
+	 * Get a lane's combined version from the specified versions (as
+	 * getNeighborhoodVersion()).
+	 */
+	static int getNeighborhoodVersion ( Map<Road,int[]> versions, Road road,
+	                                    int lane ) {
+		// versions only increase, so the sum changes whenever any of them does
+		return getVersion(versions,road,lane - 1) + getVersion(versions,road,lane)
+		    + getVersion(versions,road,lane + 1);
+	}
+
+	private void changed ( Road road, int lane ) {
+		if ( lane < 0 || lane >= road.getNumLanes() ) {
+			return;
+		}
+		int[] versions = versions_.get(road);
+		if ( versions == null ) {
+			versions = new int[road.getNumLanes()];
+			versions_.put(road,versions);
+		}
+		versions[lane]++;
+		epoch_++;
+	}
+}
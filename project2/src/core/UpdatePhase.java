@@ -0,0 +1,18 @@
+package core;
+
+/**
+ * Work done once per simulation step, before any of the cars are updated -
+ * e.g. computing the steering for many cars at once rather than one car at a
+ * time.
+ */
+public interface UpdatePhase {
+
+	/**
+	 * Do this phase's work for the upcoming step. Called at the start of
+	 * World.update(), when no car has moved yet this step.
+	 * 
+	 * @param world
+	 *          the world being updated
+	 */
+	public void beforeUpdate ( World world );
+}
@@ -1,9 +1,11 @@
 package core;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import processing.core.PApplet;
+import processing.core.PGraphics;
 import processing.core.PVector;
 
 /**
@@ -16,22 +18,66 @@ public class World {
 	 */
 	public static final float SPACING = 20;
 
+	/**
+	 * Below this zoom factor, traffic is drawn as per-lane density instead of
+	 * individual cars.
+	 */
+	public static final float DENSITY_ZOOM = .25f;
+
+	/**
+	 * Length of the lane sections traffic density is computed over.
+	 */
+	public static final float DENSITY_SECTION = 200;
+
+	// grid cell size for the spatial indexes used in rendering
+	private static final float INDEX_CELL = 200;
+
+	// drives forked cars whose brains can't be copied - no steering, so the car
+	// keeps its current velocity
+	private static final Brain COAST = (car,world) -> new PVector(0,0);
+
 	private PApplet applet_;
 
 	// cars and roads
 	private List<Car> cars_;
 	private List<Road> roads_;
 
+	private List<UpdatePhase> phases_; // run at the start of each step
+	private int tick_; // number of steps taken so far
+	private TrafficMonitor traffic_; // changes in predicted traffic
+	private ReservationTable reservations_; // where cars plan to be
+
+	// rendering - what is visible, and where the roads and cars are
+	private Camera camera_;
+	private SpatialIndex<Road> roadindex_;
+	private SpatialIndex<Car> carindex_;
+	private List<Road> visibleroads_;
+	private List<Car> visiblecars_;
+	private float[] occupied_; // length of cars in each lane section (density)
+
+	// roads never change, so they are drawn once into an offscreen buffer and
+	// only redrawn when roads are added or the view changes
+	private PGraphics roadlayer_;
+	private boolean roadsdirty_; // true if roads were added since last drawn
+	private int roadlayerview_; // camera version the road layer was drawn for
+
+	// debug drawing is recorded during update into debugrecord_ and replayed
+	// from debugframe_ during render; the two are swapped at the end of each
+	// update
+	private DebugBuffer debugrecord_, debugframe_;
+	private final Object debuglock_ = new Object();
+
 	
 	public static final int DEBUG_NONE = 0, DEBUG_CAR = 4, DEBUG_GRAPHGEN = 1,
-	    DEBUG_GRAPH = 2, DEBUG_BEHAVIOR = 8;
+	    DEBUG_GRAPH = 2, DEBUG_BEHAVIOR = 8, DEBUG_PLANNER = 16;
 	private int debug_; // debug status
 
 	/**
 	 * Create an empty world.
 	 * 
 	 * @param applet
-	 *          parent applet (for drawing)
+	 *          parent applet (for drawing), or null for a headless world which
+	 *          is only updated and never rendered
 	 */
 	public World ( PApplet applet ) {
 		applet_ = applet;
@@ -39,6 +85,26 @@ public class World {
 		cars_ = new ArrayList<Car>();
 		roads_ = new ArrayList<Road>();
 
+		phases_ = new ArrayList<UpdatePhase>();
+		tick_ = 0;
+		traffic_ = new TrafficMonitor();
+		phases_.add(traffic_); // first, so other phases see this step's versions
+		reservations_ = new ReservationTable(traffic_);
+
+		camera_ = (applet == null ? new Camera(0,0)
+		    : new Camera(applet.width,applet.height));
+		roadindex_ = new SpatialIndex<Road>(INDEX_CELL);
+		carindex_ = new SpatialIndex<Car>(INDEX_CELL);
+		visibleroads_ = new ArrayList<Road>();
+		visiblecars_ = new ArrayList<Car>();
+		occupied_ = new float[0];
+
+		roadlayer_ = null;
+		roadsdirty_ = true;
+
+		debugrecord_ = new DebugBuffer();
+		debugframe_ = new DebugBuffer();
+
 		debug_ = DEBUG_NONE;
 	}
 
@@ -52,6 +118,18 @@ public class World {
 		cars_.add(car);
 	}
 
+	/**
+	 * Add a phase to be run at the start of each step, before any car is
+	 * updated. Phases are run in the order they were added, after the world's
+	 * traffic monitor.
+	 * 
+	 * @param phase
+	 *          to add
+	 */
+	public void addUpdatePhase ( UpdatePhase phase ) {
+		phases_.add(phase);
+	}
+
 	/**
 	 * Add a road to the world.
 	 * 
@@ -60,6 +138,75 @@ public class World {
 	 */
 	public void addRoad ( Road road ) {
 		roads_.add(road);
+		roadindex_.insert(road,road.getBoundsMin(),road.getBoundsMax());
+		roadsdirty_ = true;
+	}
+
+	/**
+	 * Make a headless copy of the neighborhood of the specified car, for trying
+	 * out what might happen next without touching this world. The fork shares
+	 * this world's roads (which never change), and has a copy of each car on the
+	 * car's road whose center is within radius of the car's along the road.
+	 * Each copied car is driven by a copy of its brain (see Brain.fork()), or
+	 * keeps its current velocity if its brain can't be copied. The fork starts
+	 * at this world's tick, has no update phases - not even its traffic
+	 * monitor, since nothing in a fork reads the lane versions, so they stay
+	 * at 0 - and never records debugging output.
+	 * 
+	 * The fork only reads this world, so several forks can be made at once - but
+	 * not while this world is being updated.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param radius
+	 *          distance along the road from the car to copy cars within
+	 * @param brain
+	 *          brain for the car's own copy
+	 * @return the fork, with the car's copy as its first car
+	 */
+	public World fork ( Car car, float radius, Brain brain ) {
+		World fork = new World(null);
+		fork.phases_.clear();
+		fork.roads_.addAll(roads_);
+		fork.tick_ = tick_;
+		Road road = car.getRoad();
+		fork.addCar(new Car(car,fork,brain));
+		float s = road.getDistanceAlong(car.getCenter());
+		for ( Car other : cars_ ) {
+			if ( other == car || other.getRoad() != road || Math
+			    .abs(road.getDistanceAlong(other.getCenter()) - s) > radius ) {
+				continue;
+			}
+			Brain copy = other.getBrain().fork();
+			fork.addCar(new Car(other,fork,(copy == null ? COAST : copy)));
+		}
+		return fork;
+	}
+
+	/**
+	 * Get the color with the specified components, packed the same way as
+	 * PApplet.color(r,g,b) in the default RGB color mode. Unlike
+	 * PApplet.color(), this doesn't require an applet.
+	 * 
+	 * @param r
+	 *          red (0-255)
+	 * @param g
+	 *          green (0-255)
+	 * @param b
+	 *          blue (0-255)
+	 * @return the color
+	 */
+	public static int color ( int r, int g, int b ) {
+		return 0xff000000 | (r << 16) | (g << 8) | b;
+	}
+
+	/**
+	 * Get the camera used to view the world.
+	 * 
+	 * @return the camera
+	 */
+	public Camera getCamera () {
+		return camera_;
 	}
 
 	/**
@@ -162,6 +309,26 @@ public class World {
 		return neighbors;
 	}
 
+	/**
+	 * Determine if any of the specified car's neighbors are in the specified
+	 * lane. Equivalent to checking each car in getNeighbors(car), but without
+	 * building the list.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param lane
+	 *          the lane
+	 * @return true if there is a neighbor of car in the lane, false otherwise
+	 */
+	public boolean hasNeighborInLane ( Car car, int lane ) {
+		for ( Car other : cars_ ) {
+			if ( other.getLane() == lane && car.isNeighbor(other) ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Get the first car in the lane whose rear bumper is at or ahead of p.
 	 * 
@@ -198,6 +365,38 @@ public class World {
 		return applet_;
 	}
 
+	/**
+	 * Get the monitor tracking changes in the predicted traffic in each lane.
+	 * The monitor is brought up to date at the start of each step (except in a
+	 * fork, where it is never run).
+	 * 
+	 * @return the traffic monitor
+	 */
+	public TrafficMonitor getTraffic () {
+		return traffic_;
+	}
+
+	/**
+	 * Get the number of steps the simulation has taken. The value increases by
+	 * one at the end of each update(), so it identifies the step in progress
+	 * while cars are updating.
+	 * 
+	 * @return number of completed steps
+	 */
+	public int getTick () {
+		return tick_;
+	}
+
+	/**
+	 * Get the table of space-time reservations cars have made along their
+	 * planned paths.
+	 * 
+	 * @return the reservation table
+	 */
+	public ReservationTable getReservations () {
+		return reservations_;
+	}
+
 	/**
 	 * Get the roads in the world.
 	 * 
@@ -289,24 +488,166 @@ public class World {
 	}
 
 	/**
-	 * Draw the world.
+	 * Draw the part of the world visible through the camera. Only the roads and
+	 * cars intersecting the viewport are drawn; when zoomed out past
+	 * DENSITY_ZOOM, cars are replaced by the traffic density of each lane.
 	 */
 	public void render () {
-		for ( Road road : roads_ ) {
-			road.render(applet_);
-		}
+		camera_.setViewport(applet_.width,applet_.height);
+		PVector min = camera_.getViewMin(), max = camera_.getViewMax();
+
+		renderRoadLayer(min,max);
+		applet_.image(roadlayer_,0,0);
+
+		applet_.pushMatrix();
+		camera_.apply(applet_.g);
+
+		// cars move, so the index is rebuilt each frame
+		carindex_.clear();
 		for ( Car car : cars_ ) {
-			// System.out.println("rendering car "+car.getID()+"
-			// "+car.getFrontBumper());
-			car.render(applet_);
+			float r = getRenderRadius(car);
+			PVector center = car.getCenter();
+			carindex_.insert(car,new PVector(center.x - r,center.y - r),
+			                 new PVector(center.x + r,center.y + r));
+		}
+
+		if ( camera_.getZoom() < DENSITY_ZOOM ) {
+			renderDensity();
+		} else {
+			visiblecars_.clear();
+			carindex_.query(min,max,visiblecars_);
+			for ( Car car : visiblecars_ ) {
+				// System.out.println("rendering car "+car.getID()+"
+				// "+car.getFrontBumper());
+				car.render(applet_);
+			}
+		}
+
+		// debugging output recorded during the last update
+		synchronized ( debuglock_ ) {
+			debugframe_.replay(applet_.g);
+		}
+
+		applet_.popMatrix();
+
+		// (text stays put in the corner of the window whatever the camera does)
+		synchronized ( debuglock_ ) {
+			debugframe_.replayText(applet_.g,5,15,color(255,255,255));
 		}
 	}
 
-		/**
-	 * Advance the simulation one step.
+	/**
+	 * Bring the offscreen road layer up to date, redrawing it only if roads have
+	 * been added or the view has changed since it was last drawn.
+	 * 
+	 * @param min
+	 *          corner of the visible region with the smallest coordinates
+	 * @param max
+	 *          corner of the visible region with the largest coordinates
+	 */
+	private void renderRoadLayer ( PVector min, PVector max ) {
+		if ( roadlayer_ == null || roadlayer_.width != applet_.width
+		    || roadlayer_.height != applet_.height ) {
+			roadlayer_ = applet_.createGraphics(applet_.width,applet_.height);
+			roadsdirty_ = true;
+		}
+		if ( !roadsdirty_ && roadlayerview_ == camera_.getVersion() ) {
+			return;
+		}
+
+		visibleroads_.clear();
+		roadindex_.query(min,max,visibleroads_);
+
+		roadlayer_.beginDraw();
+		roadlayer_.clear();
+		roadlayer_.pushMatrix();
+		camera_.apply(roadlayer_);
+		for ( Road road : visibleroads_ ) {
+			road.render(roadlayer_);
+		}
+		roadlayer_.popMatrix();
+		roadlayer_.endDraw();
+
+		roadsdirty_ = false;
+		roadlayerview_ = camera_.getVersion();
+	}
+
+	/**
+	 * Get the radius around the car's center containing everything drawn for
+	 * the car.
+	 * 
+	 * @param car
+	 *          the car
+	 * @return radius containing the car's drawing
+	 */
+	private float getRenderRadius ( Car car ) {
+		if ( getDebug(DEBUG_CAR) ) {
+			return Math.max(car.getNeighborRadius(),car.getLength());
+		}
+		// length/2 + room for the ID label
+		return car.getLength();
+	}
+
+	/**
+	 * Draw the traffic density of each lane of each visible road, as
+	 * DENSITY_SECTION-long lane sections shaded by the fraction of the section
+	 * occupied by cars. Only the cars found near each road in the car index
+	 * are looked at.
+	 */
+	private void renderDensity () {
+		applet_.noStroke();
+		for ( Road road : visibleroads_ ) {
+			int sections = (int) Math.ceil(road.getLength() / DENSITY_SECTION);
+			int size = road.getNumLanes() * sections;
+			if ( occupied_.length < size ) {
+				occupied_ = new float[size];
+			} else {
+				Arrays.fill(occupied_,0,size,0);
+			}
+
+			visiblecars_.clear();
+			carindex_.query(road.getBoundsMin(),road.getBoundsMax(),visiblecars_);
+			for ( Car car : visiblecars_ ) {
+				if ( car.getRoad() != road ) {
+					continue;
+				}
+				int lane = car.getLane();
+				if ( lane < 0 || lane >= road.getNumLanes() ) {
+					continue;
+				}
+				int section = (int) (road.getDistanceAlong(car.getCenter())
+				    / DENSITY_SECTION);
+				occupied_[lane * sections + Math.min(section,sections - 1)] +=
+				    car.getLength();
+			}
+
+			for ( int lane = 0 ; lane < road.getNumLanes() ; lane++ ) {
+				for ( int section = 0 ; section < sections ; section++ ) {
+					float occupied = occupied_[lane * sections + section];
+					if ( occupied == 0 ) {
+						continue;
+					}
+					float density = Math.min(1,occupied / DENSITY_SECTION);
+					applet_.fill(255,255 * (1 - density),0,55 + 200 * density);
+					float from = section * DENSITY_SECTION;
+					road.renderLaneSection(applet_.g,lane,from,
+					                       Math.min(road.getLength(),
+					                                from + DENSITY_SECTION));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Advance the simulation one step. Debugging output generated during the
+	 * step is recorded, and is drawn by the next call to render().
 	 */
 	public void update () {
 		// System.out.println("update");
+		for ( UpdatePhase phase : phases_ ) {
+			phase.beforeUpdate(this);
+		}
+
 		for ( Car car : cars_ ) {
 			// System.out.println("updating "+car.getID());
 			car.update();
@@ -318,6 +659,16 @@ public class World {
 				car.setPosition(road.getAlong(car.getFrontBumper(),-road.getLength()));
 			}
 		}
+
+		tick_++;
+
+		// this step's debugging output is now complete
+		synchronized ( debuglock_ ) {
+			DebugBuffer done = debugrecord_;
+			debugrecord_ = debugframe_;
+			debugframe_ = done;
+			debugrecord_.clear();
+		}
 	}
 
 	/**
@@ -345,54 +696,160 @@ public class World {
 		}
 	}
 
+	/**
+	 * Record a vector for debugging display, if the specified debug flag is set.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param pos
+	 *          start of the vector
+	 * @param v
+	 *          the vector
+	 * @param scale
+	 *          amount to scale v by for display
+	 * @param color
+	 *          color
+	 * @param weight
+	 *          stroke weight
+	 */
 	public void debugVector ( int flag, PVector pos, PVector v, float scale,
 	                          int color, float weight ) {
 		if ( !getDebug(flag) ) {
 			return;
 		}
 
-		PVector n = PVector.mult(v,scale);
-
-		applet_.stroke(color);
-		applet_.strokeWeight(weight);
-		applet_.line(pos.x,pos.y,pos.x + n.x,pos.y + n.y);
-
-		applet_.strokeWeight(1);
+		synchronized ( debuglock_ ) {
+			debugrecord_.line(pos.x,pos.y,pos.x + v.x * scale,pos.y + v.y * scale,
+			                  color,weight);
+		}
 	}
 
+	/**
+	 * Record a line segment for debugging display, if the specified debug flag
+	 * is set.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param pos1
+	 *          one endpoint
+	 * @param pos2
+	 *          other endpoint
+	 * @param color
+	 *          color
+	 * @param weight
+	 *          stroke weight
+	 */
 	public void debugLine ( int flag, PVector pos1, PVector pos2, int color,
 	                        float weight ) {
 		if ( !getDebug(flag) ) {
 			return;
 		}
 
-		applet_.stroke(color);
-		applet_.strokeWeight(weight);
-		applet_.line(pos1.x,pos1.y,pos2.x,pos2.y);
-
-		applet_.strokeWeight(1);
+		synchronized ( debuglock_ ) {
+			debugrecord_.line(pos1.x,pos1.y,pos2.x,pos2.y,color,weight);
+		}
 	}
 
+	/**
+	 * Record a dot for debugging display, if the specified debug flag is set.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param pos
+	 *          center of the dot
+	 * @param color
+	 *          color
+	 * @param size
+	 *          diameter of the dot
+	 */
 	public void debugPoint ( int flag, PVector pos, int color, float size ) {
+		debugPoint(flag,pos,color,color,size);
+	}
+
+	/**
+	 * Record a dot for debugging display, if the specified debug flag is set.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param pos
+	 *          center of the dot
+	 * @param stroke
+	 *          outline color
+	 * @param fill
+	 *          fill color
+	 * @param size
+	 *          diameter of the dot
+	 */
+	public void debugPoint ( int flag, PVector pos, int stroke, int fill,
+	                         float size ) {
+		if ( !getDebug(flag) ) {
+			return;
+		}
+
+		synchronized ( debuglock_ ) {
+			debugrecord_.point(pos.x,pos.y,size,stroke,fill);
+		}
+	}
+
+	/**
+	 * Record a line of text for debugging display, if the specified debug flag
+	 * is set. Text is shown in the corner of the window, one line below the
+	 * other, until the end of the next step.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param text
+	 *          the text
+	 */
+	public void debugText ( int flag, String text ) {
 		if ( !getDebug(flag) ) {
 			return;
 		}
 
-		applet_.stroke(color);
-		applet_.fill(color);
-		applet_.ellipseMode(PApplet.CENTER);
-		applet_.ellipse(pos.x,pos.y,size,size);
+		synchronized ( debuglock_ ) {
+			debugrecord_.text(text);
+		}
 	}
 
+	/**
+	 * Record a circle for debugging display, if the specified debug flag is set.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param pos
+	 *          center of the circle
+	 * @param radius
+	 *          radius of the circle
+	 * @param color
+	 *          color
+	 */
 	public void debugCircle ( int flag, PVector pos, float radius, int color ) {
+		debugCircle(flag,pos,radius,color,1);
+	}
+
+	/**
+	 * Record a circle for debugging display, if the specified debug flag is set.
+	 * 
+	 * @param flag
+	 *          debug flag controlling the display
+	 * @param pos
+	 *          center of the circle
+	 * @param radius
+	 *          radius of the circle
+	 * @param color
+	 *          color
+	 * @param weight
+	 *          stroke weight
+	 */
+	public void debugCircle ( int flag, PVector pos, float radius, int color,
+	                          float weight ) {
 		if ( !getDebug(flag) ) {
 			return;
 		}
 
-		applet_.stroke(color);
-		applet_.noFill();
-		applet_.ellipseMode(PApplet.CENTER);
-		applet_.ellipse(pos.x,pos.y,radius * 2,radius * 2);
+		synchronized ( debuglock_ ) {
+			debugrecord_.circle(pos.x,pos.y,radius,color,weight);
+		}
 	}
 
 }
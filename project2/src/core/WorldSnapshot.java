@@ -0,0 +1,247 @@
+package core;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import processing.core.PVector;
+
+/**
+ * A read-only copy of the cars in the world at the start of a step. Work which
+ * runs on several threads at once (such as planning) queries the snapshot
+ * instead of the world, so it never sees the world partway through a change.
+ * The queries are the same as World's, but answered from the copied states.
+ * The traffic monitor's lane versions are copied too, so anything computed
+ * from the snapshot can be tagged with the versions of the traffic it was
+ * actually computed from.
+ */
+public class WorldSnapshot {
+
+	private int tick_; // step the snapshot was taken at
+	private int epoch_; // traffic epoch the snapshot was taken at
+	private Map<Road,int[]> versions_; // traffic version of each lane
+	private List<CarState> cars_;
+	private Map<Car,CarState> states_;
+
+	/**
+	 * Capture the current state of the world's cars.
+	 * 
+	 * @param world
+	 *          the world
+	 */
+	public WorldSnapshot ( World world ) {
+		tick_ = world.getTick();
+		epoch_ = world.getTraffic().getEpoch();
+		versions_ = world.getTraffic().copyVersions();
+		cars_ = new ArrayList<CarState>();
+		states_ = new IdentityHashMap<Car,CarState>();
+		for ( Car car : world.getCars() ) {
+			CarState state = new CarState(car);
+			cars_.add(state);
+			states_.put(car,state);
+		}
+	}
+
+	/**
+	 * Get all the cars.
+	 */
+	public Iterable<CarState> getCars () {
+		return cars_;
+	}
+
+	/**
+	 * Get the number of cars.
+	 * 
+	 * @return number of cars
+	 */
+	public int getNumCars () {
+		return cars_.size();
+	}
+
+	/**
+	 * Get all of the cars on the specified road with any part of the car in the
+	 * specified interval. (as in World.getCarsInInterval())
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          a point in the interval
+	 * @param startoffset
+	 *          offset from p to the start of the interval (<0 if the start is
+	 *          before p along the road)
+	 * @param endoffset
+	 *          offset from p to the end of the interval (<0 if the end is before
+	 *          p along the road)
+	 * @return the cars in the interval - in the same lane as p, and within the
+	 *         range p+startoffset and p+endoffset
+	 */
+	public List<CarState> getCarsInInterval ( Road road, PVector p,
+	                                          float startoffset, float endoffset ) {
+		return getCarsInInterval(road,p,startoffset,endoffset,0);
+	}
+
+	/**
+	 * Get all of the cars on the specified road with any part of the car in the
+	 * specified interval at time t after the snapshot. (as in
+	 * World.getCarsInInterval())
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          a point in the interval
+	 * @param startoffset
+	 *          offset from p to the start of the interval (<0 if the start is
+	 *          before p along the road)
+	 * @param endoffset
+	 *          offset from p to the end of the interval (<0 if the end is before
+	 *          p along the road)
+	 * @param t
+	 *          time
+	 * @return the cars in the interval - in the same lane as p, and within the
+	 *         range p+startoffset and p+endoffset
+	 */
+	public List<CarState> getCarsInInterval ( Road road, PVector p,
+	                                          float startoffset, float endoffset,
+	                                          float t ) {
+		if ( startoffset > endoffset ) {
+			throw new IllegalArgumentException("start must come before end along the road");
+		}
+
+		int lane = road.getLane(p);
+
+		if ( lane < 0 || lane >= road.getNumLanes() ) {
+			throw new IllegalArgumentException("invalid lane; got " + lane);
+		}
+
+		PVector start = road.getAlong(p,startoffset),
+		    end = road.getAlong(p,endoffset);
+
+		List<CarState> list = new ArrayList<CarState>();
+		for ( CarState car : cars_ ) {
+			if ( car.getRoad() != road ) { // not on this road
+				continue;
+			}
+			PVector front = car.getFrontBumper(t);
+			PVector rear = car.getRearBumper(t);
+			if ( road.getLane(front) != lane ) {
+				continue;
+			}
+			if ( road.compareTo(rear,end) <= 0 && road.compareTo(start,front) <= 0 ) {
+				list.add(car);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Get the first car in the lane whose rear bumper is at or ahead of p. (as
+	 * in World.getNextCarInLane())
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          the position
+	 * @return first car in the lane whose rear bumper is at or ahead of p, or
+	 *         null if there are no such cars
+	 */
+	public CarState getNextCarInLane ( Road road, PVector p ) {
+		CarState ahead = null;
+
+		int lane = road.getLane(p);
+		for ( CarState car : cars_ ) {
+			// not on this road or not in this lane or not ahead of this car
+			if ( car.getRoad() != road
+			    || road.getLane(car.getFrontBumper()) != lane
+			    || road.compareTo(car.getRearBumper(),p) < 0 ) {
+				continue;
+			}
+			if ( ahead == null
+			    || road.compareTo(car.getRearBumper(),ahead.getRearBumper()) < 0 ) {
+				ahead = car;
+			}
+		}
+		return ahead;
+	}
+
+	/**
+	 * Get the traffic epoch the snapshot was taken at. (as
+	 * TrafficMonitor.getEpoch())
+	 * 
+	 * @return the epoch
+	 */
+	public int getEpoch () {
+		return epoch_;
+	}
+
+	/**
+	 * Get the version of the predicted traffic in the specified lane when the
+	 * snapshot was taken. (as TrafficMonitor.getVersion())
+	 * 
+	 * @param road
+	 *          the road
+	 * @param lane
+	 *          the lane
+	 * @return the lane's version
+	 */
+	public int getVersion ( Road road, int lane ) {
+		return TrafficMonitor.getVersion(versions_,road,lane);
+	}
+
+	/**
+	 * Get the combined version for the specified lane and its neighbors when the
+	 * snapshot was taken. (as TrafficMonitor.getNeighborhoodVersion())
+	 * 
+	 * @param road
+	 *          the road
+	 * @param lane
+	 *          the lane
+	 * @return combined version of lanes lane-1, lane, and lane+1
+	 */
+	public int getNeighborhoodVersion ( Road road, int lane ) {
+		return TrafficMonitor.getNeighborhoodVersion(versions_,road,lane);
+	}
+
+	/**
+	 * Get the captured state of the specified car.
+	 * 
+	 * @param car
+	 *          the car
+	 * @return the car's state, or null if the car wasn't in the world
+	 */
+	public CarState getState ( Car car ) {
+		return states_.get(car);
+	}
+
+	/**
+	 * Get the step the snapshot was taken at. (as World.getTick())
+	 * 
+	 * @return the tick
+	 */
+	public int getTick () {
+		return tick_;
+	}
+
+	/**
+	 * Determine if the specified interval (in the same lane as p, and within the
+	 * range p+startoffset and p+endoffset) is unoccupied. (as in
+	 * World.isIntervalVacant())
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          a point in the interval
+	 * @param startoffset
+	 *          offset from p to the start of the interval (<0 if the start is
+	 *          before p along the road)
+	 * @param endoffset
+	 *          offset from p to the end of the interval (<0 if the end is before
+	 *          p along the road)
+	 * @return true if the interval is empty (no car completely or partially in
+	 *         it), false otherwise
+	 */
+	public boolean isIntervalVacant ( Road road, PVector p, float startoffset,
+	                                  float endoffset ) {
+		return getCarsInInterval(road,p,startoffset,endoffset,0).isEmpty();
+	}
+}
@@ -0,0 +1,272 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A* search over a pathfinder graph. The cost of a path is the time at which
+ * its last node is reached, and the heuristic is the graph's lower bound on the
+ * time remaining to reach the goal.
+ * 
+ * Nodes are identified by their quantized state (see RoadGraphNode.equals()),
+ * so a state reached again is not expanded again - if the new path reaches it
+ * sooner the open node is updated in place, and if it has already been
+ * expanded the new path is dropped.
+ * 
+ * Search states are kept in a NodePool and referred to by handle, with the
+ * search's own bookkeeping in arrays indexed by handle, so a search holds no
+ * objects for its states. A node object is only made again for a state when
+ * it is expanded and for the path returned, and the nodes the graph generates
+ * are dropped as soon as they have been added. The pool and arrays are reused
+ * from one search to the next.
+ * 
+ * The search can also run as partial-expansion A*. Expanding a node then only
+ * takes the successors which are no worse than the best open node (see
+ * Successors, which generates them lazily in order of f), and the node goes
+ * back on the open list with f raised to that of its best remaining successor.
+ * The same path is found, but successors which never become the best open node
+ * are never generated or added to the open list.
+ */
+public class AStarSearch {
+
+	private int maxexpansions_; // limit on nodes expanded per search
+	private boolean partial_; // true for partial expansion
+	private int expanded_; // nodes expanded by the last search
+
+	// search states, and for each (indexed by handle):
+	private NodePool states_; // best node found for each state
+	private float[] f_; // estimated total cost (arrival time at goal)
+	private float[] h_; // estimated remaining cost
+	private int[] heapindex_; // position in the open heap; -1 if not in the heap
+	private boolean[] closed_; // true if expanded
+	private Successors[] succs_; // successors not yet taken, while partially
+	                             // expanded; null otherwise
+
+	// open list - binary min-heap of handles on f, each state knowing its
+	// position so its key can be decreased in place
+	private int[] heap_;
+	private int heapsize_;
+
+	/**
+	 * Create a search.
+	 * 
+	 * @param maxexpansions
+	 *          limit on the number of nodes expanded per search (> 0)
+	 */
+	public AStarSearch ( int maxexpansions ) {
+		this(maxexpansions,false);
+	}
+
+	/**
+	 * Create a search.
+	 * 
+	 * @param maxexpansions
+	 *          limit on the number of nodes expanded per search (> 0)
+	 * @param partial
+	 *          true for partial-expansion A*, false to take all of a node's
+	 *          successors when it is expanded
+	 */
+	public AStarSearch ( int maxexpansions, boolean partial ) {
+		if ( maxexpansions <= 0 ) {
+			throw new IllegalArgumentException("maxexpansions must be > 0; got "
+			    + maxexpansions);
+		}
+		maxexpansions_ = maxexpansions;
+		partial_ = partial;
+		states_ = new NodePool();
+		f_ = new float[64];
+		h_ = new float[64];
+		heapindex_ = new int[64];
+		closed_ = new boolean[64];
+		succs_ = new Successors[64];
+		heap_ = new int[64];
+		heapsize_ = 0;
+	}
+
+	/**
+	 * Get the number of nodes expanded by the last search. (A node partially
+	 * expanded several times counts once.)
+	 * 
+	 * @return number of nodes expanded
+	 */
+	public int getExpanded () {
+		return expanded_;
+	}
+
+	/**
+	 * Find the fastest path from the graph's start node to a goal node.
+	 * 
+	 * @param graph
+	 *          the graph to search
+	 * @return the path (start node first, goal node last), or null if no path
+	 *         was found within the expansion limit
+	 */
+	public List<RoadGraphNode> search ( PathfinderGraph graph ) {
+		states_.clear();
+		heapsize_ = 0;
+		expanded_ = 0;
+
+		RoadGraphNode start = graph.getStart();
+		push(add(start,NodePool.NONE,graph.getTimeToGoal(start)));
+
+		List<RoadGraphNode> path = null;
+		while ( heapsize_ > 0 && expanded_ < maxexpansions_ ) {
+			int current = pop();
+			if ( succs_[current] == null ) {
+				RoadGraphNode node = states_.getNode(current);
+				if ( graph.goalReached(node) ) {
+					closed_[current] = true;
+					path = getPath(current);
+					break;
+				}
+				expanded_++;
+				if ( !partial_ ) {
+					closed_[current] = true;
+					for ( RoadGraphNode next : graph.getNextLocations(node) ) {
+						relax(graph,next,current);
+					}
+					continue;
+				}
+				succs_[current] = graph.getSuccessors(node);
+			}
+
+			// take the successors no worse than the best open node, and put the
+			// node back if there are more
+			Successors succs = succs_[current];
+			float limit = f_[current];
+			if ( heapsize_ > 0 ) {
+				limit = Math.max(limit,f_[heap_[0]]);
+			}
+			for ( RoadGraphNode next = succs.next(limit) ; next != null ; next =
+			    succs.next(limit) ) {
+				relax(graph,next,current);
+			}
+			if ( succs.isEmpty() ) {
+				closed_[current] = true;
+				succs_[current] = null;
+			} else {
+				f_[current] = succs.getBound();
+				push(current);
+			}
+		}
+
+		// drop references to the graph's nodes
+		Arrays.fill(succs_,0,states_.size(),null);
+		return path;
+	}
+
+	/**
+	 * Add a successor of the specified state, or update its state if this
+	 * reaches it sooner.
+	 */
+	private void relax ( PathfinderGraph graph, RoadGraphNode next,
+	                     int parent ) {
+		int state = states_.find(next);
+		if ( state == NodePool.NONE ) {
+			push(add(next,parent,graph.getTimeToGoal(next)));
+		} else if ( !closed_[state] && next.getTime() < states_.getTime(state) ) {
+			// reached an open state sooner - a partially expanded state starts over
+			// from the new node
+			states_.set(state,next,parent);
+			f_[state] = next.getTime() + h_[state];
+			succs_[state] = null;
+			siftUp(heapindex_[state]);
+		}
+	}
+
+	/**
+	 * Add a state to the pool, growing the per-state arrays to match.
+	 */
+	private int add ( RoadGraphNode node, int parent, float h ) {
+		int state = states_.add(node,parent);
+		if ( state == f_.length ) {
+			int n = f_.length * 2;
+			f_ = Arrays.copyOf(f_,n);
+			h_ = Arrays.copyOf(h_,n);
+			heapindex_ = Arrays.copyOf(heapindex_,n);
+			closed_ = Arrays.copyOf(closed_,n);
+			succs_ = Arrays.copyOf(succs_,n);
+		}
+		h_[state] = h;
+		f_[state] = node.getTime() + h;
+		heapindex_[state] = -1;
+		closed_[state] = false;
+		succs_[state] = null;
+		return state;
+	}
+
+	private List<RoadGraphNode> getPath ( int last ) {
+		List<RoadGraphNode> path = new ArrayList<RoadGraphNode>();
+		for ( int state = last ; state != NodePool.NONE ; state =
+		    states_.getParent(state) ) {
+			path.add(states_.getNode(state));
+		}
+		Collections.reverse(path);
+		return path;
+	}
+
+	private void push ( int state ) {
+		if ( heapsize_ == heap_.length ) {
+			heap_ = Arrays.copyOf(heap_,heap_.length * 2);
+		}
+		heap_[heapsize_] = state;
+		heapindex_[state] = heapsize_;
+		heapsize_++;
+		siftUp(heapsize_ - 1);
+	}
+
+	private int pop () {
+		int top = heap_[0];
+		heapsize_--;
+		if ( heapsize_ > 0 ) {
+			heap_[0] = heap_[heapsize_];
+			heapindex_[heap_[0]] = 0;
+			siftDown(0);
+		}
+		heapindex_[top] = -1;
+		return top;
+	}
+
+	// ordering: lower f first; among equal f, the one closer to the goal
+	private boolean before ( int a, int b ) {
+		return f_[a] < f_[b] || (f_[a] == f_[b] && h_[a] < h_[b]);
+	}
+
+	private void siftUp ( int i ) {
+		int state = heap_[i];
+		while ( i > 0 ) {
+			int parent = (i - 1) / 2;
+			if ( !before(state,heap_[parent]) ) {
+				break;
+			}
+			heap_[i] = heap_[parent];
+			heapindex_[heap_[i]] = i;
+			i = parent;
+		}
+		heap_[i] = state;
+		heapindex_[state] = i;
+	}
+
+	private void siftDown ( int i ) {
+		int state = heap_[i];
+		while ( true ) {
+			int child = 2 * i + 1;
+			if ( child >= heapsize_ ) {
+				break;
+			}
+			if ( child + 1 < heapsize_ && before(heap_[child + 1],heap_[child]) ) {
+				child++;
+			}
+			if ( !before(heap_[child],state) ) {
+				break;
+			}
+			heap_[i] = heap_[child];
+			heapindex_[heap_[i]] = i;
+			i = child;
+		}
+		heap_[i] = state;
+		heapindex_[state] = i;
+	}
+}
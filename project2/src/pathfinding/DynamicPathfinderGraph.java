@@ -2,9 +2,12 @@ package pathfinding;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
 
 import brain.SmartCarBrain;
 import core.Car;
+import core.CarState;
 import core.Goal;
 import core.Road;
 import core.World;
@@ -13,40 +16,84 @@ import processing.core.PVector;
 
 public class DynamicPathfinderGraph extends PathfinderGraph {
 
+	/**
+	 * Minimum number of cars in the snapshot for a node's successors to be
+	 * generated in parallel, when the graph is being expanded on a ForkJoinPool
+	 * thread. The opportunity scan on each side is then a separate task (the
+	 * other kinds of successor are too cheap to be worth one); with fewer cars
+	 * the opportunity scans are too quick to be worth splitting up either.
+	 */
+	public static final int PARALLEL_CARS = 64;
+
+	/**
+	 * Generates the opportunity successors on one side of a node, recording the
+	 * work in its own stats. (run as a ForkJoinTask with ForkJoinTask.adapt())
+	 */
+	private class Generator implements Callable<List<RoadGraphNode>> {
+		RoadGraphNode node_;
+		CarState ahead_;
+		int newlane_; // lane whose cars are passed
+		PlannerStats taskstats_;
+
+		Generator ( RoadGraphNode node, CarState ahead, int newlane ) {
+			node_ = node;
+			ahead_ = ahead;
+			newlane_ = newlane;
+			taskstats_ = new PlannerStats();
+		}
+
+		@Override
+		public List<RoadGraphNode> call () {
+			List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
+			long start = System.nanoTime();
+			addOpportunity(node_,newlane_,ahead_,targets,taskstats_);
+			taskstats_.addGenerated(PlannerStats.OPPORTUNITY,targets.size(),start);
+			return targets;
+		}
+	}
+
 	public DynamicPathfinderGraph ( Car car, World world, Goal goal ) {
 		super(car,world,goal);
 	}
 
 	private void addLaneChange ( RoadGraphNode node, int newlane,
-	                             List<RoadGraphNode> targets ) {
+	                             List<RoadGraphNode> targets,
+	                             PlannerStats stats ) {
 		Road road = node.getRoad();
 		float time = node.getTime();
 
 		// compute the target location in the new lane
 		// node's position is front bumper
 		PVector target = road.getLaneChangeTarget(node.getPosition(),newlane,
-		                                          car_.LANE_CHANGE_ANGLE);
+		                                          Car.LANE_CHANGE_ANGLE);
 
 		// check that there is room in the new lane for the car - one car length
 		// back from target, with spacing on either end - at the time we expect to
 		// get there
 		float t = PVector.dist(node.getPosition(),target) / car_.getMaxSpeed();
 		// make sure there aren't other cars in the way
-		List<Car> interval =
-		    world_.getCarsInInterval(road,target,-car_.getLength() - World.SPACING,
-		                             World.SPACING,time + t);
+		stats.countQuery();
+		List<CarState> interval =
+		    snapshot_.getCarsInInterval(road,target,
+		                                -car_.getLength() - World.SPACING,
+		                                World.SPACING,time + t);
 		if ( interval.size() > 1 ) {
 			return;
 		}
 		if ( interval.size() == 1 && !interval.contains(car_) ) {
 			return;
 		}
+		// or planning to be there
+		if ( isReserved(road,target,time + t,stats) ) {
+			return;
+		}
 
 		RoadGraphNode change = new RoadGraphNode(road,target,time + t);
 		targets.add(change);
-		world_.debugPoint(World.DEBUG_GRAPHGEN,change.getPosition(),
-		                  world_.getApplet().color(0,255,255),8);
-		System.out.println("lane change node (" + newlane + "): " + change);
+		if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+			world_.debugPoint(World.DEBUG_GRAPHGEN,change.getPosition(),
+			                  World.color(0,255,255),8);
+		}
 
 	}
 
@@ -62,7 +109,7 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 	 * @return time for car's front bumper to reach World.SPACING behind ahead's
 	 *         rear bumper based on car travel
 	 */
-	private float getTimeToCatch ( RoadGraphNode node, Car ahead,
+	private float getTimeToCatch ( RoadGraphNode node, CarState ahead,
 	                               boolean brake ) {
 		float brakedist = (brake ? car_.getBrakingDist(ahead.getSpeed()) : 0);
 		float braketime = (brake ? car_.getBrakingTime(ahead.getSpeed()) : 0);
@@ -74,8 +121,8 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 		    / (car_.getMaxSpeed() - ahead.getSpeed());
 	}
 
-	private float getTimeToPass ( RoadGraphNode node, Car pass, Car ahead,
-	                              boolean brake ) {
+	private float getTimeToPass ( RoadGraphNode node, CarState pass,
+	                              CarState ahead, boolean brake ) {
 		float curdist =
 		    PVector.dist(node.getPosition(),pass.getFrontBumper(node.getTime()))
 		        + car_.getLength() + World.SPACING;
@@ -83,8 +130,41 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 		return curdist / (car_.getMaxSpeed() - pass.getSpeed());
 	}
 
-	private void addOpportunity ( RoadGraphNode node, int newlane, Car ahead,
-	                              List<RoadGraphNode> targets ) {
+	/**
+	 * A chance to change lanes after passing a car in the adjacent lane, as
+	 * found without looking at the traffic around the passing point. Whether
+	 * the opportunity nodes are actually reachable is checked later.
+	 */
+	private static class Opportunity {
+		RoadGraphNode node_; // node the opportunity is a successor of
+		int newlane_;
+		CarState ahead_; // next car ahead in node_'s lane
+		CarState adjacent_; // car being passed
+		PVector target_; // lane change target from node_
+		float t_; // time from node_ to the passing point
+		PVector p_; // passing point
+		RoadGraphNode unsafe_; // unsafe opportunity node; null if none
+		RoadGraphNode safe_; // safe opportunity node; null if none
+		boolean braking_; // true if safe_ allows for braking for ahead_
+	}
+
+	private void addOpportunity ( RoadGraphNode node, int newlane,
+	                              CarState ahead, List<RoadGraphNode> targets,
+	                              PlannerStats stats ) {
+		List<Opportunity> opportunities = new ArrayList<Opportunity>();
+		findOpportunities(node,newlane,ahead,opportunities);
+		for ( Opportunity opportunity : opportunities ) {
+			addOpportunity(opportunity,targets,stats);
+		}
+	}
+
+	/**
+	 * Find the opportunity nodes for changing into newlane after passing each
+	 * car in it, without checking the traffic around the passing points.
+	 */
+	private void findOpportunities ( RoadGraphNode node, int newlane,
+	                                 CarState ahead,
+	                                 List<Opportunity> opportunities ) {
 		// in the current lane, immediately after passing each car in the adjacent
 		// lane, until reaching the next car in the current lane
 		// safe opportunity - car travels at max speed until braking just before
@@ -107,10 +187,12 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 			    - World.SPACING - brakedist)
 			    / (car_.getMaxSpeed() - ahead.getSpeed());
 			pb = road.getAlong(node.getPosition(),tb * car_.getMaxSpeed());
-			world_.debugPoint(World.DEBUG_GRAPHGEN,pb,car_.getColor(),6);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugPoint(World.DEBUG_GRAPHGEN,pb,car_.getColor(),6);
+			}
 		}
 
-		for ( Car adjacent : world_.getCars() ) {
+		for ( CarState adjacent : snapshot_.getCars() ) {
 			// only consider cars in the desired adjacent lane
 			if ( adjacent.getLane() != newlane ) {
 				continue;
@@ -128,8 +210,10 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 			                                          Car.LANE_CHANGE_ANGLE);
 			PVector threshold =
 			    road.getAlong(target,-car_.getLength() - World.SPACING);
-			world_.debugCircle(World.DEBUG_GRAPHGEN,threshold,
-			                   world_.getApplet().color(255,255,255),6);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugCircle(World.DEBUG_GRAPHGEN,threshold,
+				                   World.color(255,255,255),6);
+			}
 			if ( road.compareTo(adjacent.getFrontBumper(time),threshold) <= 0 ) {
 				continue;
 			}
@@ -154,18 +238,102 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 				continue;
 			}
 
-			// make sure there aren't other cars in the way of where we want to merge
-			// in
-			List<Car> interval = world_
-			    .getCarsInInterval(road,target,-car_.getLength() - World.SPACING,
-			                       World.SPACING,time + t);
-			if ( interval.size() > 1 ) {
-				continue;
+			Opportunity opportunity = new Opportunity();
+			opportunity.node_ = node;
+			opportunity.newlane_ = newlane;
+			opportunity.ahead_ = ahead;
+			opportunity.adjacent_ = adjacent;
+			opportunity.target_ = target;
+			opportunity.t_ = t;
+			opportunity.p_ = p;
+
+			// unsafe opportunity if passing point is after braking point
+			if ( road.compareTo(p,pb) > 0 ) {
+				opportunity.unsafe_ = new RoadGraphNode(road,p,time + t);
 			}
-			if ( interval.size() == 1 && !interval.contains(car_) ) {
-				continue;
+
+			if ( road.compareTo(p,pb) <= 0 ) {
+				// safe opportunity - passing point is before braking point - travel at
+				// full speed
+				opportunity.safe_ = new RoadGraphNode(road,p,time + t);
+			} else {
+				// safe opportunity - braking starts before desired passing point, so
+				// need to take slowing into account
+				float a = car_.getMaxAccel() / 2;
+				float b = car_.getMaxSpeed() - adjacent.getSpeed();
+				float c = (t - tb) * (car_.getMaxSpeed() - adjacent.getSpeed());
+				if ( b * b - 4 * a * c >= 0 ) {
+					// time to passing point while braking
+					float tp = -b + (float) Math.sqrt(b * b - 4 * a * c) / (2 * a);
+					PVector ps = road.getAlong(node.getPosition(),t * car_.getMaxSpeed()
+					    + car_.getMaxSpeed() * tp + car_.getMaxAccel() / 2 * tp * tp);
+
+					// safe opportunity - if that point is not ahead of the next car
+					// ahead in this lane (or past the end of the road), create the
+					// opportunity node
+					if ( road.compareTo(ps,road.getAlong(ahead
+					    .getRearBumper(time + t + tp),-World.SPACING)) <= 0 ) {
+						opportunity.safe_ = new RoadGraphNode(road,p,time + t + tp);
+						opportunity.braking_ = true;
+					}
+				}
+			}
+
+			if ( opportunity.unsafe_ != null || opportunity.safe_ != null ) {
+				opportunities.add(opportunity);
+			}
+		}
+	}
+
+	/**
+	 * Get a lower bound on the f of the opportunity's nodes.
+	 */
+	private float getBound ( Opportunity opportunity ) {
+		float bound = Float.POSITIVE_INFINITY;
+		for ( RoadGraphNode node : new RoadGraphNode[] { opportunity.unsafe_,
+		                                                 opportunity.safe_ } ) {
+			if ( node != null ) {
+				bound = Math.min(bound,node.getTime() + getTimeToGoal(node));
 			}
+		}
+		return bound;
+	}
+
+	/**
+	 * Add the opportunity's nodes to targets if there is room to change lanes
+	 * at the passing point.
+	 */
+	private void addOpportunity ( Opportunity opportunity,
+	                              List<RoadGraphNode> targets,
+	                              PlannerStats stats ) {
+		RoadGraphNode node = opportunity.node_;
+		Road road = node.getRoad();
+		float time = node.getTime(), t = opportunity.t_;
+		int newlane = opportunity.newlane_;
+		CarState ahead = opportunity.ahead_, adjacent = opportunity.adjacent_;
+		PVector p = opportunity.p_;
+
+		// make sure there aren't other cars in the way of where we want to merge
+		// in
+		stats.countQuery();
+		List<CarState> interval = snapshot_
+		    .getCarsInInterval(road,opportunity.target_,
+		                       -car_.getLength() - World.SPACING,World.SPACING,
+		                       time + t);
+		if ( interval.size() > 1 ) {
+			return;
+		}
+		if ( interval.size() == 1 && !interval.contains(car_) ) {
+			return;
+		}
+		// or planning to be there
+		if ( isReserved(road,
+		                road.getLaneChangeTarget(p,newlane,Car.LANE_CHANGE_ANGLE),
+		                time + t,stats) ) {
+			return;
+		}
 
+		if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
 			if ( ahead != null ) {
 				world_.debugCircle(World.DEBUG_GRAPHGEN,
 				                   road.getAlong(ahead.getCenter(time + t),0),
@@ -174,64 +342,38 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 			world_.debugCircle(World.DEBUG_GRAPHGEN,
 			                   road.getAlong(adjacent.getCenter(time + t),0),
 			                   adjacent.getLength() / 2,adjacent.getColor());
+		}
 
-			// unsafe opportunity if passing point is after braking point
-			if ( road.compareTo(p,pb) > 0 ) {
-				RoadGraphNode unsafe = new RoadGraphNode(road,p,time + t);
-				targets.add(unsafe);
+		if ( opportunity.unsafe_ != null ) {
+			RoadGraphNode unsafe = opportunity.unsafe_;
+			targets.add(unsafe);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
 				world_.debugPoint(World.DEBUG_GRAPHGEN,unsafe.getPosition(),
-				                  world_.getApplet().color(255,0,0),8);
+				                  World.color(255,0,0),8);
 				world_.debugPoint(World.DEBUG_GRAPHGEN,
 				                  road.getLaneChangeTarget(unsafe.getPosition(),newlane,
 				                                           Car.LANE_CHANGE_ANGLE),
-				                  world_.getApplet().color(255,0,0),6);
+				                  World.color(255,0,0),6);
 			}
-
-			if ( road.compareTo(p,pb) <= 0 ) {
-				// safe opportunity - passing point is before braking point - travel at
-				// full speed
-				RoadGraphNode safe = new RoadGraphNode(road,p,time + t);
-				targets.add(safe);
+		}
+		if ( opportunity.safe_ != null ) {
+			RoadGraphNode safe = opportunity.safe_;
+			targets.add(safe);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
 				world_.debugPoint(World.DEBUG_GRAPHGEN,safe.getPosition(),
-				                  world_.getApplet().color(0,255,0),8);
+				                  World.color(0,255,0),8);
 				world_.debugPoint(World.DEBUG_GRAPHGEN,
 				                  road.getLaneChangeTarget(safe.getPosition(),newlane,
 				                                           Car.LANE_CHANGE_ANGLE),
-				                  world_.getApplet().color(0,255,0),6);
-			} else {
-				// safe opportunity - braking starts before desired passing point, so
-				// need to take slowing into account
-				float a = car_.getMaxAccel() / 2;
-				float b = car_.getMaxSpeed() - adjacent.getSpeed();
-				float c = (t - tb) * (car_.getMaxSpeed() - adjacent.getSpeed());
-				if ( b * b - 4 * a * c < 0 ) {
-					continue;
-				}
-				// time to passing point while braking
-				float tp = -b + (float) Math.sqrt(b * b - 4 * a * c) / (2 * a);
-				PVector ps = road.getAlong(node.getPosition(),t * car_.getMaxSpeed()
-				    + car_.getMaxSpeed() * tp + car_.getMaxAccel() / 2 * tp * tp);
-
-				// safe opportunity - if that point is not ahead of the next car ahead
-				// in this lane (or past the end of the road), create the opportunity
-				// node
-				if ( road.compareTo(ps,road.getAlong(ahead.getRearBumper(time + t + tp),
-				                                     -World.SPACING)) <= 0 ) {
-					RoadGraphNode safe = new RoadGraphNode(road,p,time + t + tp);
-					targets.add(safe);
-					world_.debugPoint(World.DEBUG_GRAPHGEN,safe.getPosition(),
-					                  world_.getApplet().color(0,255,0),8);
-					world_.debugPoint(World.DEBUG_GRAPHGEN,
-					                  road.getLaneChangeTarget(safe.getPosition(),newlane,
-					                                           Car.LANE_CHANGE_ANGLE),
-					                  world_.getApplet().color(255,0,0),6);
-				}
+				                  (opportunity.braking_ ? World.color(255,0,0)
+				                      : World.color(0,255,0)),6);
 			}
 		}
 	}
 
-	private void addOpportunity2 ( RoadGraphNode node, int newlane, Car ahead,
-	                               List<RoadGraphNode> targets ) {
+	private void addOpportunity2 ( RoadGraphNode node, int newlane,
+	                               CarState ahead, List<RoadGraphNode> targets,
+	                               PlannerStats stats ) {
 		// in the current lane, immediately after passing each car in the adjacent
 		// lane, until reaching the next car in the current lane
 		// safe opportunity - car travels at max speed until braking just before
@@ -242,7 +384,7 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 		int lane = road.getLane(node.getPosition());
 		float time = node.getTime();
 
-		for ( Car adjacent : world_.getCars() ) {
+		for ( CarState adjacent : snapshot_.getCars() ) {
 			// only consider cars in the desired adjacent lane
 			if ( adjacent.getLane() != newlane ) {
 				continue;
@@ -250,19 +392,19 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 
 			// if other car is going same speed or faster than we can go, can't pass
 			if ( adjacent.getSpeed() >= car_.getMaxSpeed() ) {
-				System.out.println("adjacent speed: [" + adjacent.getID() + "] "
-				    + adjacent.getSpeed() + " " + car_.getMaxSpeed());
 				continue;
 			}
 
 			// if other car is behind where we would change lanes to, it has already
 			// been passed
 			PVector target = road.getLaneChangeTarget(node.getPosition(),newlane,
-			                                          car_.LANE_CHANGE_ANGLE);
+			                                          Car.LANE_CHANGE_ANGLE);
 			PVector threshold =
 			    road.getAlong(target,-car_.getLength() - World.SPACING);
-			world_.debugCircle(World.DEBUG_GRAPHGEN,threshold,
-			                   world_.getApplet().color(255,255,255),6);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugCircle(World.DEBUG_GRAPHGEN,threshold,
+				                   World.color(255,255,255),6);
+			}
 			if ( road.compareTo(adjacent.getFrontBumper(time),threshold) <= 0 ) {
 				continue;
 			}
@@ -273,11 +415,10 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 			                                     car_.getLength() + World.SPACING))
 			    / (car_.getMaxSpeed() - adjacent.getSpeed());
 			PVector p = road.getAlong(node.getPosition(),t * car_.getMaxSpeed());
-			System.out.println("passing point: [" + adjacent.getID() + "]" + p + " "
-			    + t + " / " + car_.getMaxSpeed() + " " + adjacent.getSpeed());
 
 			// make sure there aren't other cars in the way
-			List<Car> interval = world_
+			stats.countQuery();
+			List<CarState> interval = snapshot_
 			    .getCarsInInterval(road,target,-car_.getLength() - World.SPACING,
 			                       World.SPACING,time + t);
 			if ( interval.size() > 1 ) {
@@ -295,22 +436,24 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 			        .getAlong(ahead.getRearBumper(time + t),-World.SPACING)) <= 0) ) {
 				RoadGraphNode unsafe = new RoadGraphNode(road,p,time + t);
 				targets.add(unsafe);
-				world_.debugPoint(World.DEBUG_GRAPHGEN,unsafe.getPosition(),
-				                  world_.getApplet().color(255,0,0),8);
-				world_.debugPoint(World.DEBUG_GRAPHGEN,
-				                  road.getLaneChangeTarget(unsafe.getPosition(),newlane,
-				                                           car_.LANE_CHANGE_ANGLE),
-				                  world_.getApplet().color(255,0,0),6);
-				if ( ahead != null ) {
+				if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+					world_.debugPoint(World.DEBUG_GRAPHGEN,unsafe.getPosition(),
+					                  World.color(255,0,0),8);
+					world_.debugPoint(World.DEBUG_GRAPHGEN,
+					                  road.getLaneChangeTarget(unsafe.getPosition(),newlane,
+					                                           Car.LANE_CHANGE_ANGLE),
+					                  World.color(255,0,0),6);
+				}
+				if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+					if ( ahead != null ) {
+						world_.debugCircle(World.DEBUG_GRAPHGEN,
+						                   road.getAlong(ahead.getCenter(time + t),0),
+						                   ahead.getLength() / 2,ahead.getColor());
+					}
 					world_.debugCircle(World.DEBUG_GRAPHGEN,
-					                   road.getAlong(ahead.getCenter(time + t),0),
-					                   ahead.getLength() / 2,ahead.getColor());
+					                   road.getAlong(adjacent.getCenter(time + t),0),
+					                   adjacent.getLength() / 2,adjacent.getColor());
 				}
-				world_.debugCircle(World.DEBUG_GRAPHGEN,
-				                   road.getAlong(adjacent.getCenter(time + t),0),
-				                   adjacent.getLength() / 2,adjacent.getColor());
-				System.out.println("unsafe: " + unsafe + " "
-				    + road.getAlong(adjacent.getCenter(time + t),0));
 			}
 
 			if ( ahead == null ) {
@@ -324,10 +467,11 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 			    + PVector.dist(node.getPosition(),ahead.getRearBumper(node.getTime()))
 			    - World.SPACING - brakedist)
 			    / (car_.getMaxSpeed() - ahead.getSpeed());
-			System.out.println(brakedist + " " + braketime + " " + tb);
-			world_.debugPoint(World.DEBUG_GRAPHGEN,
-			                  road.getAlong(car_.getCenter(time + tb),0),
-			                  car_.getColor(),6);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugPoint(World.DEBUG_GRAPHGEN,
+				                  road.getAlong(car_.getCenter(time + tb),0),
+				                  car_.getColor(),6);
+			}
 			if ( tb < t ) {
 				// safe opportunity - braking starts before desired passing point, so
 				// need to take slowing into account
@@ -344,28 +488,27 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 				// safe opportunity - if that point is not ahead of the next car ahead
 				// in this lane (or past the end of the road), create the opportunity
 				// node
-				System.out
-				    .println(time + " " + t + " " + tp + " / " + a + " " + b + " " + c);
 				if ( road.compareTo(ps,road.getAlong(ahead.getRearBumper(time + t + tp),
 				                                     -World.SPACING)) <= 0 ) {
 					RoadGraphNode safe = new RoadGraphNode(road,p,time + t + tp);
 					targets.add(safe);
-					world_.debugPoint(World.DEBUG_GRAPHGEN,safe.getPosition(),
-					                  world_.getApplet().color(0,255,0),8);
-					world_.debugPoint(World.DEBUG_GRAPHGEN,
-					                  road.getLaneChangeTarget(safe.getPosition(),newlane,
-					                                           car_.LANE_CHANGE_ANGLE),
-					                  world_.getApplet().color(255,0,0),6);
-					world_.debugCircle(World.DEBUG_GRAPHGEN,
-					                   road.getAlong(adjacent.getCenter(time + t + tp),0),
-					                   ahead.getLength() / 2,ahead.getColor());
-					System.out.println("safe: " + safe);
+					if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+						world_.debugPoint(World.DEBUG_GRAPHGEN,safe.getPosition(),
+						                  World.color(0,255,0),8);
+						world_.debugPoint(World.DEBUG_GRAPHGEN,
+						                  road.getLaneChangeTarget(safe.getPosition(),newlane,
+						                                           Car.LANE_CHANGE_ANGLE),
+						                  World.color(255,0,0),6);
+						world_.debugCircle(World.DEBUG_GRAPHGEN,
+						                   road.getAlong(adjacent.getCenter(time + t + tp),0),
+						                   ahead.getLength() / 2,ahead.getColor());
+					}
 				}
 			}
 		}
 	}
 
-	private void addBoundary ( RoadGraphNode node, Car ahead,
+	private void addBoundary ( RoadGraphNode node, CarState ahead,
 	                           List<RoadGraphNode> targets ) {
 		Road road = node.getRoad();
 		int lane = road.getLane(node.getPosition());
@@ -413,15 +556,16 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 		RoadGraphNode boundary = new RoadGraphNode(road,road
 		    .getAlong(ahead.getRearBumper(time + t),-World.SPACING),time + t);
 		targets.add(boundary);
-		world_.debugPoint(World.DEBUG_GRAPHGEN,boundary.getPosition(),
-		                  world_.getApplet().color(255,0,255),8);
-		world_.debugCircle(World.DEBUG_GRAPHGEN,
-		                   road.getAlong(ahead.getCenter(time + t),0),
-		                   ahead.getLength() / 2,ahead.getColor());
-		System.out.println("boundary node: (b) " + boundary);
+		if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+			world_.debugPoint(World.DEBUG_GRAPHGEN,boundary.getPosition(),
+			                  World.color(255,0,255),8);
+			world_.debugCircle(World.DEBUG_GRAPHGEN,
+			                   road.getAlong(ahead.getCenter(time + t),0),
+			                   ahead.getLength() / 2,ahead.getColor());
+		}
 	}
 
-	private void addGoal ( RoadGraphNode node, Car ahead,
+	private void addGoal ( RoadGraphNode node, CarState ahead,
 	                       List<RoadGraphNode> targets ) {
 		// add goal if reachable - in the current lane and nothing in the way
 
@@ -439,15 +583,17 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 		if ( ahead == null || t <= getTimeToCatch(node,ahead,true) ) {
 			RoadGraphNode goal = new RoadGraphNode(road,goal_.getPoint(),time + t);
 			targets.add(goal);
-			world_.debugPoint(World.DEBUG_GRAPHGEN,goal.getPosition(),
-			                  world_.getApplet().color(0,255,0),8);
-			System.out.println("goal node: " + goal);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugPoint(World.DEBUG_GRAPHGEN,goal.getPosition(),
+				                  World.color(0,255,0),8);
+			}
 		}
 
 	}
 
 	@Override
-	public List<RoadGraphNode> getNextLocations ( RoadGraphNode node ) {
+	protected List<RoadGraphNode>
+	    generateNextLocations ( RoadGraphNode node, PlannerStats stats ) {
 		List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
 		Road road = node.getRoad();
 		int lane = road.getLane(node.getPosition());
@@ -455,42 +601,139 @@ public class DynamicPathfinderGraph extends PathfinderGraph {
 
 		// can't plan how other cars will change lanes, so expect next car ahead
 		// to always be the one that is currently ahead
-		Car ahead = world_.getNextCarInLane(road,node.getPosition());
+		stats.countQuery();
+		CarState ahead = snapshot_.getNextCarInLane(road,node.getPosition());
 		// System.out.println("ahead: " + ahead);
+		if ( snapshot_.getNumCars() >= PARALLEL_CARS
+		    && ForkJoinTask.inForkJoinPool() ) {
+			return generateInParallel(node,ahead,stats);
+		}
 
 		// System.out.println("getNextLocations(): "+node);
 
+		addNearby(node,ahead,targets,stats);
+
+		// opportunity nodes - in current lane, immediately after passing each
+		// neighboring car, until next car in current lane
+		long start = System.nanoTime();
+		int count = targets.size();
+		if ( lane > 0 ) {
+			addOpportunity(node,lane - 1,ahead,targets,stats);
+		}
+		if ( lane < road.getNumLanes() - 1 ) {
+			addOpportunity(node,lane + 1,ahead,targets,stats);
+		}
+		stats.addGenerated(PlannerStats.OPPORTUNITY,targets.size() - count,start);
+
+		// System.out.println(" ---------------- " + location + " " + car_);
+		return targets;
+	}
+
+	/**
+	 * Generate the successor nodes for the specified node, deferring the
+	 * opportunity nodes: finding the passing points is cheap, but checking the
+	 * traffic around each one takes a pass over all the cars, and a search
+	 * rarely needs more than the best few.
+	 */
+	@Override
+	protected Successors
+	    generateSuccessors ( RoadGraphNode node, PlannerStats stats ) {
+		List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
+		Road road = node.getRoad();
+		int lane = road.getLane(node.getPosition());
+
+		stats.countQuery();
+		CarState ahead = snapshot_.getNextCarInLane(road,node.getPosition());
+		addNearby(node,ahead,targets,stats);
+		Successors succs = new Successors(this,node,targets);
+
+		long start = System.nanoTime();
+		List<Opportunity> opportunities = new ArrayList<Opportunity>();
+		if ( lane > 0 ) {
+			findOpportunities(node,lane - 1,ahead,opportunities);
+		}
+		if ( lane < road.getNumLanes() - 1 ) {
+			findOpportunities(node,lane + 1,ahead,opportunities);
+		}
+		stats.addGenerated(PlannerStats.OPPORTUNITY,0,start);
+		for ( Opportunity opportunity : opportunities ) {
+			succs.defer(next -> {
+				long begin = System.nanoTime();
+				int count = next.size();
+				addOpportunity(opportunity,next,stats);
+				stats.addGenerated(PlannerStats.OPPORTUNITY,next.size() - count,begin);
+			},getBound(opportunity));
+		}
+		return succs;
+	}
+
+	/**
+	 * Add the goal, boundary, and lane change successors of the specified node
+	 * to targets.
+	 */
+	private void addNearby ( RoadGraphNode node, CarState ahead,
+	                         List<RoadGraphNode> targets, PlannerStats stats ) {
+		Road road = node.getRoad();
+		int lane = road.getLane(node.getPosition());
+
 		// goal node
+		long start = System.nanoTime();
+		int count = targets.size();
 		addGoal(node,ahead,targets);
+		stats.addGenerated(PlannerStats.GOAL,targets.size() - count,start);
 
 		// boundary node - only add if there's a car ahead
+		start = System.nanoTime();
+		count = targets.size();
 		if ( ahead != null ) {
 			addBoundary(node,ahead,targets);
 		}
+		stats.addGenerated(PlannerStats.BOUNDARY,targets.size() - count,start);
 
 		// lane change nodes
+		start = System.nanoTime();
+		count = targets.size();
 		if ( lane > 0 ) {
-			addLaneChange(node,lane - 1,targets);
+			addLaneChange(node,lane - 1,targets,stats);
 		}
 		if ( lane < road.getNumLanes() - 1 ) {
-			addLaneChange(node,lane + 1,targets);
+			addLaneChange(node,lane + 1,targets,stats);
 		}
+		stats.addGenerated(PlannerStats.LANE_CHANGE,targets.size() - count,start);
+	}
 
-		// opportunity nodes - in current lane, immediately after passing each
-		// neighboring car, until next car in current lane
+	/**
+	 * Generate the successor nodes for the specified node, scanning for
+	 * opportunities on each side as parallel tasks; the other successors are
+	 * generated directly. The successors are returned in the same order as if
+	 * they were generated one kind at a time.
+	 */
+	private List<RoadGraphNode> generateInParallel ( RoadGraphNode node,
+	                                                 CarState ahead,
+	                                                 PlannerStats stats ) {
+		List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
+		addNearby(node,ahead,targets,stats);
+
+		int lane = node.getLane();
+		List<Generator> generators = new ArrayList<Generator>(2);
 		if ( lane > 0 ) {
-			addOpportunity(node,lane - 1,ahead,targets);
+			generators.add(new Generator(node,ahead,lane - 1));
 		}
-		if ( lane < road.getNumLanes() - 1 ) {
-			addOpportunity(node,lane + 1,ahead,targets);
+		if ( lane < node.getRoad().getNumLanes() - 1 ) {
+			generators.add(new Generator(node,ahead,lane + 1));
+		}
+		// (invokeAll() runs one of the tasks in this thread)
+		List<ForkJoinTask<List<RoadGraphNode>>> tasks =
+		    new ArrayList<ForkJoinTask<List<RoadGraphNode>>>(generators.size());
+		for ( Generator generator : generators ) {
+			tasks.add(ForkJoinTask.adapt(generator));
 		}
+		ForkJoinTask.invokeAll(tasks);
 
-		// System.out.println(" ---------------- " + location + " " + car_);
-		for ( RoadGraphNode target : targets ) {
-			addEdge(new RoadGraphNode[] { node, target });
-			// System.out.println("neighbors: " + edges_.get(edges_.size() - 1)[1]);
+		for ( int i = 0 ; i < tasks.size() ; i++ ) {
+			targets.addAll(tasks.get(i).join());
+			stats.add(generators.get(i).taskstats_);
 		}
 		return targets;
 	}
-
 }
\ No newline at end of file
@@ -0,0 +1,129 @@
+package pathfinding;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import core.Car;
+import core.Goal;
+import core.Road;
+import core.World;
+import processing.core.PVector;
+
+/**
+ * Precomputed lower bounds on the distance a car must travel to reach a goal,
+ * for each lane of the goal's road and each BUCKET-long stretch of the lane.
+ * 
+ * A car changes lanes by heading off at Car.LANE_CHANGE_ANGLE to the road (see
+ * Road.getLaneChangeTarget()), so moving sideways by some distance takes at
+ * least that distance / sin(LANE_CHANGE_ANGLE) of travel, and at least that
+ * distance / tan(LANE_CHANGE_ANGLE) of progress along the road. Stretches which
+ * are too close to (or past) the goal to get over to its lane in time can't
+ * reach the goal at all. This is a much tighter bound than the straight-line
+ * distance whenever the goal is in another lane.
+ * 
+ * Only the road the goal is on is covered; nodes elsewhere get no bound beyond
+ * 0. Nodes are assumed to be on the center stripe of their lane, as the
+ * pathfinder graphs generate them.
+ * 
+ * There is one table per goal, built the first time it is asked for and shared
+ * by every graph aiming at that goal.
+ */
+public class HeuristicTable {
+
+	/**
+	 * Length of a stretch of lane sharing an entry in the table.
+	 */
+	public static final float BUCKET = 5;
+
+	// tables built so far, by goal (identity)
+	private static Map<Goal,HeuristicTable> tables_ =
+	    Collections.synchronizedMap(new WeakHashMap<Goal,HeuristicTable>());
+
+	/**
+	 * Get the table for the specified goal, building it if this is the first
+	 * time it is asked for.
+	 * 
+	 * @param world
+	 *          the world the goal is in
+	 * @param goal
+	 *          the goal
+	 * @return the table for the goal
+	 */
+	public static HeuristicTable get ( World world, Goal goal ) {
+		return tables_.computeIfAbsent(goal,g -> new HeuristicTable(world,g));
+	}
+
+	private Road road_; // road the goal is on; null if none
+	private float[][] dist_; // lower bound for each lane and bucket
+
+	/**
+	 * Build the table for the specified goal.
+	 * 
+	 * @param world
+	 *          the world the goal is in
+	 * @param goal
+	 *          the goal
+	 */
+	private HeuristicTable ( World world, Goal goal ) {
+		PVector p = goal.getPoint();
+		for ( Road road : world.getRoads() ) {
+			if ( road.getLane(p) != -1 ) {
+				road_ = road;
+				break;
+			}
+		}
+		if ( road_ == null ) {
+			return;
+		}
+
+		float width = road_.getLaneWidth(), radius = goal.getRadius();
+		float goals = road_.getDistanceAlong(p);
+		float goaly =
+		    (road_.getLane(p) + .5f) * width + road_.getLateralOffset(p);
+		float sin = (float) Math.sin(Car.LANE_CHANGE_ANGLE),
+		    tan = (float) Math.tan(Car.LANE_CHANGE_ANGLE);
+
+		int buckets = (int) Math.ceil(road_.getLength() / BUCKET) + 1;
+		dist_ = new float[road_.getNumLanes()][buckets];
+		for ( int lane = 0 ; lane < dist_.length ; lane++ ) {
+			float y = (lane + .5f) * width;
+			// sideways distance to cover to get within the goal's radius
+			float dy = Math.max(Math.abs(goaly - y) - radius,0);
+			for ( int b = 0 ; b < buckets ; b++ ) {
+				float s0 = b * BUCKET, s1 = s0 + BUCKET;
+				if ( goals + radius - s0 < dy / tan ) {
+					// not enough road left to get over to the goal
+					dist_[lane][b] = Float.POSITIVE_INFINITY;
+					continue;
+				}
+				// closest the bucket gets to the goal in a straight line
+				float ds = goals - Math.min(Math.max(goals,s0),s1);
+				float straight =
+				    (float) Math.sqrt(ds * ds + (goaly - y) * (goaly - y)) - radius;
+				dist_[lane][b] = Math.max(Math.max(straight,dy / sin),0);
+			}
+		}
+	}
+
+	/**
+	 * Get a lower bound on the distance from the specified node to the goal.
+	 * 
+	 * @param node
+	 *          the node
+	 * @return lower bound on the distance to travel to reach the goal
+	 *         (POSITIVE_INFINITY if the goal can't be reached from node), or 0 if
+	 *         node is not on the goal's road
+	 */
+	public float getDistanceToGoal ( RoadGraphNode node ) {
+		if ( node.getRoad() != road_ ) {
+			return 0;
+		}
+		int lane = node.getLane();
+		if ( lane < 0 || lane >= dist_.length ) {
+			return 0;
+		}
+		int b = (int) (node.getDistanceAlong() / BUCKET);
+		return dist_[lane][Math.min(Math.max(b,0),dist_[lane].length - 1)];
+	}
+}
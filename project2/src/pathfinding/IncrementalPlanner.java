@@ -0,0 +1,888 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import core.Road;
+import core.World;
+
+/**
+ * Plans paths through a pathfinder graph, keeping the generated graph and the
+ * search state from one plan to the next (Lifelong Planning A*). Node times are
+ * measured from a fixed origin tick rather than from the time of planning, so
+ * nodes stay meaningful as time passes.
+ * 
+ * Each node's successors depend on the predicted traffic in its lane and the
+ * adjacent lanes, so they are tagged with the traffic version for those lanes
+ * in the snapshot they were generated from (not the world's current version -
+ * the world may have moved on while a plan is made in the background). When
+ * planning again, the nodes in lanes whose traffic changed are marked stale,
+ * and only their successors are regenerated - lazily, as part of the search,
+ * so the regeneration counts against the plan's budget like any expansion.
+ * A stale node is regenerated when it is expanded, and a stale node already
+ * reached goes back on the open list keyed on its time alone, so that every
+ * node on a path is up to date before a goal reached after it is accepted.
+ * Only the search values affected by the edges which actually changed are
+ * then repaired. When the car has moved
+ * (the start node is different), the graph is re-rooted at the new start and
+ * anything no longer reachable is discarded.
+ * 
+ * In a time-expanded graph the cost to reach a node is the node's own time, so
+ * g(s) and rhs(s) are either the node's time (reached) or infinity
+ * (unreachable).
+ * 
+ * The planner can also run as an anytime search, for when a plan has to fit
+ * into a fixed amount of time per tick. The heuristic is inflated by epsilon
+ * (as in weighted A*), so a goal is found sooner but its path may take up to
+ * epsilon times longer than the best one. Each plan stops when its budget runs
+ * out and returns the best path found so far, or a partial path if no goal has
+ * been reached yet. The search carries on from there with the next plan. Each
+ * time a search finishes within its budget, epsilon is lowered, until the
+ * search is plain LPA* and the path is optimal. Because a node's cost doesn't
+ * depend on the path to it, lowering epsilon only reorders the open list; no
+ * reached node needs to be expanded again.
+ * 
+ * Search states are kept in a NodePool and referred to by handle, with the
+ * search values in parallel arrays indexed by handle and the edges as arrays
+ * of handles, so the graph kept between plans is primitives rather than an
+ * object (and two lists) per state. Node objects are only made to generate a
+ * state's successors and for the path returned. Re-rooting renumbers the
+ * states kept so that handles stay dense.
+ */
+public class IncrementalPlanner {
+
+	/**
+	 * If the graph grows beyond this many nodes, planning starts over from
+	 * scratch.
+	 */
+	public static final int MAX_STATES = 20000;
+
+	/**
+	 * How much epsilon is lowered after each search which finishes within its
+	 * budget.
+	 */
+	public static final float EPSILON_STEP = .5f;
+
+	private static final float INFINITY = Float.POSITIVE_INFINITY;
+
+	private static final int NONE = NodePool.NONE;
+
+	/**
+	 * The nodes in one lane whose successors have been generated.
+	 */
+	private static class LaneGroup {
+		Road road_;
+		int lane_;
+		int version_; // traffic version all of the successors are up to date for
+		int[] states_; // handles; the first size_ are in use
+		int size_;
+
+		LaneGroup ( Road road, int lane ) {
+			road_ = road;
+			lane_ = lane;
+			version_ = -1;
+			states_ = new int[16];
+			size_ = 0;
+		}
+
+		void add ( int state ) {
+			if ( size_ == states_.length ) {
+				states_ = Arrays.copyOf(states_,size_ * 2);
+			}
+			states_[size_] = state;
+			size_++;
+		}
+	}
+
+	private PathfinderGraph graph_;
+	private int maxexpansions_; // limit on nodes expanded per plan
+	private long budget_; // limit on time (ns) spent per plan; 0 if none
+	private float initialepsilon_; // heuristic inflation after a reset
+	private float epsilon_; // current heuristic inflation (>= 1)
+	private boolean complete_; // true if the last plan's search finished with
+	                           // epsilon 1
+
+	private int origin_; // tick node times are measured from
+	private float elapsed_; // ticks from the origin to the current plan
+
+	// search states, indexed by handle in pool_ (times relative to the origin)
+	private NodePool pool_;
+	private float[] g_, rhs_; // LPA* values
+	private float[] h_; // lower bound on the time to the goal
+	private float[] k1_, k2_; // key, while in the heap
+	private int[] heapindex_; // position in the heap; -1 if not in the heap
+	private boolean[] goal_; // true if the node satisfies the goal
+	private int[][] succs_; // successors; null if not generated yet
+	private int[] version_; // traffic version the successors were generated for
+	private boolean[] stale_; // true if the successors are out of date
+	private int[][] preds_; // nodes this is a successor of; null if none yet
+	private int[] numpreds_; // number of entries of preds_ in use
+	private boolean[] marked_; // reachability, while re-rooting
+
+	private Map<Long,LaneGroup> groups_; // keyed on road ID and lane
+	private int[] goals_;
+	private int numgoals_;
+	private int root_; // start node; NONE if none yet
+
+	// open list - binary min-heap on key
+	private int[] heap_;
+	private int heapsize_;
+
+	private int expanded_; // nodes expanded by the last plan
+	private int generated_; // successor lists generated by the last plan
+
+	/**
+	 * Create a planner.
+	 * 
+	 * @param graph
+	 *          the graph to plan in (the planner takes over managing its edges)
+	 * @param maxexpansions
+	 *          limit on the number of nodes expanded per plan (> 0)
+	 */
+	public IncrementalPlanner ( PathfinderGraph graph, int maxexpansions ) {
+		this(graph,maxexpansions,0,1);
+	}
+
+	/**
+	 * Create an anytime planner.
+	 * 
+	 * @param graph
+	 *          the graph to plan in (the planner takes over managing its edges)
+	 * @param maxexpansions
+	 *          limit on the number of nodes expanded per plan (> 0)
+	 * @param budget
+	 *          limit on the wall-clock time spent per plan, in nanoseconds (0
+	 *          for no limit)
+	 * @param epsilon
+	 *          initial heuristic inflation (>= 1; 1 for no inflation)
+	 */
+	public IncrementalPlanner ( PathfinderGraph graph, int maxexpansions,
+	                            long budget, float epsilon ) {
+		if ( maxexpansions <= 0 ) {
+			throw new IllegalArgumentException("maxexpansions must be > 0; got "
+			    + maxexpansions);
+		}
+		if ( budget < 0 ) {
+			throw new IllegalArgumentException("budget must be >= 0; got "
+			    + budget);
+		}
+		if ( epsilon < 1 ) {
+			throw new IllegalArgumentException("epsilon must be >= 1; got "
+			    + epsilon);
+		}
+		graph_ = graph;
+		maxexpansions_ = maxexpansions;
+		budget_ = budget;
+		initialepsilon_ = epsilon;
+		pool_ = new NodePool();
+		g_ = new float[64];
+		rhs_ = new float[64];
+		h_ = new float[64];
+		k1_ = new float[64];
+		k2_ = new float[64];
+		heapindex_ = new int[64];
+		goal_ = new boolean[64];
+		succs_ = new int[64][];
+		version_ = new int[64];
+		stale_ = new boolean[64];
+		preds_ = new int[64][];
+		numpreds_ = new int[64];
+		marked_ = new boolean[64];
+		groups_ = new HashMap<Long,LaneGroup>();
+		goals_ = new int[16];
+		heap_ = new int[64];
+		reset(0);
+	}
+
+	/**
+	 * Get the current heuristic inflation - the last plan's path takes at most
+	 * this many times as long as the best path (if the search finished).
+	 * 
+	 * @return current epsilon
+	 */
+	public float getEpsilon () {
+		return epsilon_;
+	}
+
+	/**
+	 * Get the number of nodes expanded by the last plan.
+	 * 
+	 * @return number of nodes expanded
+	 */
+	public int getExpanded () {
+		return expanded_;
+	}
+
+	/**
+	 * Get the number of nodes whose successors were generated or regenerated by
+	 * the last plan.
+	 * 
+	 * @return number of successor lists generated
+	 */
+	public int getGenerated () {
+		return generated_;
+	}
+
+	/**
+	 * Get the graph being planned in.
+	 * 
+	 * @return the graph
+	 */
+	public PathfinderGraph getGraph () {
+		return graph_;
+	}
+
+	/**
+	 * Get the tick node times are measured from.
+	 * 
+	 * @return the origin tick
+	 */
+	public int getOrigin () {
+		return origin_;
+	}
+
+	/**
+	 * Determine if the last plan's search finished with no heuristic inflation,
+	 * so that planning again (without changes in traffic) won't improve the
+	 * path.
+	 * 
+	 * @return true if the last plan is as good as it will get, false if not
+	 */
+	public boolean isComplete () {
+		return complete_;
+	}
+
+	/**
+	 * Plan a path from the car's current position to the goal, reusing as much
+	 * of the previous plan's work as is still valid.
+	 * 
+	 * If the budget runs out before a goal is reached, the path ends at the
+	 * reached node closest to the goal instead.
+	 * 
+	 * @param tick
+	 *          the current tick
+	 * @return the path (start node first; times relative to getOrigin()), or
+	 *         null if no path was found
+	 */
+	public List<RoadGraphNode> plan ( int tick ) {
+		long deadline = System.nanoTime() + budget_;
+		if ( pool_.size() > MAX_STATES ) {
+			reset(tick);
+		}
+		elapsed_ = tick - origin_;
+		expanded_ = 0;
+		generated_ = 0;
+
+		RoadGraphNode start = graph_.getStart();
+		reroot(getState(shift(start,elapsed_)));
+		repair();
+		boolean finished = computeShortestPath(deadline);
+		complete_ = finished && epsilon_ == 1;
+		if ( finished && epsilon_ > 1 ) {
+			// improve on this path next time
+			setEpsilon(Math.max(epsilon_ - EPSILON_STEP,1));
+		}
+
+		if ( graph_.world_.getDebug(World.DEBUG_GRAPH) ) {
+			graph_.clear();
+			for ( int state = 0 ; state < pool_.size() ; state++ ) {
+				if ( succs_[state] != null ) {
+					for ( int succ : succs_[state] ) {
+						graph_.addEdge(new RoadGraphNode[] { pool_.getNode(state),
+						                                     pool_.getNode(succ) });
+					}
+				}
+			}
+		}
+
+		return getPath();
+	}
+
+	/**
+	 * Discard the graph and all search state, and measure times from the
+	 * specified tick.
+	 * 
+	 * @param tick
+	 *          new origin
+	 */
+	public void reset ( int tick ) {
+		int size = pool_.size();
+		Arrays.fill(succs_,0,size,null);
+		Arrays.fill(preds_,0,size,null);
+		pool_.clear();
+		groups_.clear();
+		numgoals_ = 0;
+		root_ = NONE;
+		heapsize_ = 0;
+		graph_.clear();
+		origin_ = tick;
+		epsilon_ = initialepsilon_;
+		complete_ = false;
+	}
+
+	/**
+	 * Make the specified state the start, discarding everything which can't be
+	 * reached from it.
+	 */
+	private void reroot ( int start ) {
+		if ( start == root_ ) {
+			return;
+		}
+
+		// the start is usually a new node part way along an edge of the previous
+		// plan, but its successors (where the car next has to brake or can
+		// change lanes) are mostly nodes the previous plan already has
+		if ( succs_[start] == null && !goal_[start] ) {
+			LaneGroup group = getGroup(start);
+			generate(start,group,getVersion(group));
+			for ( int succ : succs_[start] ) {
+				addPred(succ,start);
+			}
+		}
+
+		// mark what's reachable from the new start (each state is pushed at most
+		// once)
+		int size = pool_.size();
+		int[] stack = new int[size];
+		int top = 0;
+		marked_[start] = true;
+		stack[top++] = start;
+		while ( top > 0 ) {
+			int state = stack[--top];
+			if ( succs_[state] != null ) {
+				for ( int succ : succs_[state] ) {
+					if ( !marked_[succ] ) {
+						marked_[succ] = true;
+						stack[top++] = succ;
+					}
+				}
+			}
+		}
+
+		// sweep the rest, numbering the states kept in order
+		int[] renumber = new int[size];
+		int count = 0;
+		for ( int state = 0 ; state < size ; state++ ) {
+			if ( marked_[state] ) {
+				renumber[state] = count;
+				count++;
+			} else {
+				renumber[state] = NONE;
+				if ( heapindex_[state] != -1 ) {
+					remove(heapindex_[state]);
+				}
+			}
+		}
+
+		// move the kept states down to their new handles - a state never moves
+		// up, so nothing is overwritten before it is moved
+		root_ = renumber[start];
+		pool_.renumber(renumber);
+		int[] changed = stack; // kept nodes which lost predecessors
+		int numchanged = 0;
+		for ( int state = 0 ; state < size ; state++ ) {
+			int kept = renumber[state];
+			if ( kept == NONE ) {
+				continue;
+			}
+			move(state,kept);
+			if ( succs_[kept] != null ) {
+				// everything reachable from a kept state is kept
+				for ( int i = 0 ; i < succs_[kept].length ; i++ ) {
+					succs_[kept][i] = renumber[succs_[kept][i]];
+				}
+			}
+			int preds = numpreds_[kept];
+			numpreds_[kept] = renumber(preds_[kept],preds,renumber);
+			if ( numpreds_[kept] != preds || kept == root_ ) {
+				changed[numchanged] = kept;
+				numchanged++;
+			}
+		}
+		Arrays.fill(succs_,count,size,null);
+		Arrays.fill(preds_,count,size,null);
+		Arrays.fill(marked_,0,size,false);
+		for ( int i = 0 ; i < heapsize_ ; i++ ) {
+			heap_[i] = renumber[heap_[i]];
+		}
+		for ( LaneGroup group : groups_.values() ) {
+			group.size_ = renumber(group.states_,group.size_,renumber);
+		}
+		numgoals_ = renumber(goals_,numgoals_,renumber);
+
+		for ( int i = 0 ; i < numchanged ; i++ ) {
+			updateState(changed[i]);
+		}
+	}
+
+	/**
+	 * Move a state to a new handle.
+	 */
+	private void move ( int from, int to ) {
+		if ( from == to ) {
+			return;
+		}
+		g_[to] = g_[from];
+		rhs_[to] = rhs_[from];
+		h_[to] = h_[from];
+		k1_[to] = k1_[from];
+		k2_[to] = k2_[from];
+		heapindex_[to] = heapindex_[from];
+		goal_[to] = goal_[from];
+		succs_[to] = succs_[from];
+		version_[to] = version_[from];
+		stale_[to] = stale_[from];
+		preds_[to] = preds_[from];
+		numpreds_[to] = numpreds_[from];
+	}
+
+	/**
+	 * Renumber the first count handles in the array, dropping those which
+	 * weren't kept.
+	 * 
+	 * @return the number of handles left
+	 */
+	private static int renumber ( int[] states, int count, int[] renumber ) {
+		int left = 0;
+		for ( int i = 0 ; i < count ; i++ ) {
+			int state = renumber[states[i]];
+			if ( state != NONE ) {
+				states[left] = state;
+				left++;
+			}
+		}
+		return left;
+	}
+
+	/**
+	 * Mark the nodes whose traffic has changed since their successors were
+	 * generated as stale, and put those already reached back on the open list
+	 * so they are brought up to date by the search.
+	 */
+	private void repair () {
+		for ( LaneGroup group : groups_.values() ) {
+			int version = getVersion(group);
+			if ( version == group.version_ ) {
+				continue;
+			}
+			group.version_ = version;
+			for ( int i = 0 ; i < group.size_ ; i++ ) {
+				int state = group.states_[i];
+				if ( version_[state] != version && !stale_[state] ) {
+					stale_[state] = true;
+					if ( g_[state] < INFINITY ) {
+						updateState(state);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Regenerate a stale node's successors, and update the nodes whose edges
+	 * from it changed.
+	 */
+	private void refresh ( int state ) {
+		stale_[state] = false;
+		LaneGroup group = getGroup(state);
+		int[] old = succs_[state];
+		generate(state,group,getVersion(group));
+		int[] succs = succs_[state];
+		// removed edges
+		for ( int succ : old ) {
+			if ( !contains(succs,succs.length,succ) ) {
+				removePred(succ,state);
+				updateState(succ);
+			}
+		}
+		// added edges
+		for ( int succ : succs ) {
+			if ( !contains(old,old.length,succ) ) {
+				addPred(succ,state);
+				updateState(succ);
+			}
+		}
+	}
+
+	/**
+	 * Expand inconsistent nodes until the best path to the goal is known to
+	 * within epsilon, or the budget runs out.
+	 * 
+	 * @return true if the search finished, false if it was cut off
+	 */
+	private boolean computeShortestPath ( long deadline ) {
+		while ( heapsize_ > 0 ) {
+			float best = getBestGoalTime();
+			int top = heap_[0];
+			if ( k1_[top] > best || (k1_[top] == best && k2_[top] >= best) ) {
+				break; // nothing left can lead to a better goal
+			}
+			if ( expanded_ >= maxexpansions_
+			    || (budget_ > 0 && System.nanoTime() >= deadline) ) {
+				return false;
+			}
+
+			int state = pop();
+			expanded_++;
+			if ( stale_[state] ) {
+				refresh(state);
+				if ( g_[state] == rhs_[state] ) {
+					continue; // only out of date
+				}
+			}
+			if ( g_[state] > rhs_[state] ) {
+				// newly reached
+				g_[state] = rhs_[state];
+				if ( goal_[state] ) {
+					continue; // paths end at the goal
+				}
+				if ( succs_[state] == null ) {
+					LaneGroup group = getGroup(state);
+					generate(state,group,getVersion(group));
+					for ( int succ : succs_[state] ) {
+						addPred(succ,state);
+					}
+				}
+				for ( int succ : succs_[state] ) {
+					updateState(succ);
+				}
+			} else {
+				// no longer reachable
+				g_[state] = INFINITY;
+				updateState(state);
+				if ( succs_[state] != null ) {
+					for ( int succ : succs_[state] ) {
+						updateState(succ);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Generate (or regenerate) a node's successors from the current world
+	 * state. Predecessor lists are left to the caller.
+	 */
+	private void generate ( int state, LaneGroup group, int version ) {
+		if ( succs_[state] == null ) {
+			group.add(state);
+		}
+		version_[state] = version;
+		generated_++;
+
+		// the graph measures time from now
+		List<RoadGraphNode> next =
+		    graph_.getNextLocations(shift(pool_.getNode(state),-elapsed_));
+		int[] succs = new int[next.size()];
+		int count = 0;
+		for ( RoadGraphNode node : next ) {
+			int succ = getState(shift(node,elapsed_));
+			if ( succ != state && !contains(succs,count,succ) ) {
+				succs[count] = succ;
+				count++;
+			}
+		}
+		succs_[state] = count == succs.length ? succs : Arrays.copyOf(succs,count);
+	}
+
+	private static boolean contains ( int[] states, int count, int state ) {
+		for ( int i = 0 ; i < count ; i++ ) {
+			if ( states[i] == state ) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void addPred ( int state, int pred ) {
+		int[] preds = preds_[state];
+		if ( preds == null ) {
+			preds = new int[2];
+			preds_[state] = preds;
+		} else if ( numpreds_[state] == preds.length ) {
+			preds = Arrays.copyOf(preds,preds.length * 2);
+			preds_[state] = preds;
+		}
+		preds[numpreds_[state]] = pred;
+		numpreds_[state]++;
+	}
+
+	private void removePred ( int state, int pred ) {
+		int[] preds = preds_[state];
+		for ( int i = 0 ; i < numpreds_[state] ; i++ ) {
+			if ( preds[i] == pred ) {
+				numpreds_[state]--;
+				System.arraycopy(preds,i + 1,preds,i,numpreds_[state] - i);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Get the earliest time a goal node is (consistently) reached.
+	 */
+	private float getBestGoalTime () {
+		float best = INFINITY;
+		for ( int i = 0 ; i < numgoals_ ; i++ ) {
+			int goal = goals_[i];
+			if ( g_[goal] == rhs_[goal] && g_[goal] < best ) {
+				best = g_[goal];
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Get the traffic version of the lane group's lanes in the snapshot being
+	 * planned in.
+	 */
+	private int getVersion ( LaneGroup group ) {
+		return graph_.snapshot_.getNeighborhoodVersion(group.road_,group.lane_);
+	}
+
+	private LaneGroup getGroup ( int state ) {
+		Road road = pool_.getRoad(state);
+		int lane = pool_.getLane(state);
+		long key = ((long) road.getID() << 32) | (lane & 0xffffffffL);
+		LaneGroup group = groups_.get(key);
+		if ( group == null ) {
+			group = new LaneGroup(road,lane);
+			groups_.put(key,group);
+		}
+		return group;
+	}
+
+	/**
+	 * Get the path to the earliest reached goal node, or if no goal has been
+	 * reached, to the reached node closest to the goal.
+	 */
+	private List<RoadGraphNode> getPath () {
+		int last = NONE;
+		float best = getBestGoalTime();
+		if ( best < INFINITY ) {
+			for ( int i = 0 ; i < numgoals_ ; i++ ) {
+				int state = goals_[i];
+				if ( g_[state] == rhs_[state] && g_[state] == best ) {
+					last = state;
+					break;
+				}
+			}
+		} else {
+			for ( int state = 0 ; state < pool_.size() ; state++ ) {
+				if ( g_[state] < INFINITY && g_[state] == rhs_[state]
+				    && (last == NONE || h_[state] < h_[last]
+				        || (h_[state] == h_[last] && g_[state] < g_[last])) ) {
+					last = state;
+				}
+			}
+			if ( last == NONE ) {
+				return null;
+			}
+		}
+
+		// follow reached predecessors back to the start
+		List<RoadGraphNode> path = new ArrayList<RoadGraphNode>();
+		int state = last;
+		while ( state != root_ ) {
+			path.add(pool_.getNode(state));
+			if ( path.size() > pool_.size() ) {
+				return null;
+			}
+			int prev = NONE;
+			for ( int i = 0 ; i < numpreds_[state] ; i++ ) {
+				int pred = preds_[state][i];
+				if ( g_[pred] < INFINITY && g_[pred] == rhs_[pred]
+				    && (prev == NONE || g_[pred] < g_[prev]) ) {
+					prev = pred;
+				}
+			}
+			if ( prev == NONE ) {
+				return null;
+			}
+			state = prev;
+		}
+		path.add(pool_.getNode(root_));
+		Collections.reverse(path);
+		return path;
+	}
+
+	private int getState ( RoadGraphNode node ) {
+		int state = pool_.find(node);
+		if ( state == NONE ) {
+			state = pool_.add(node,NONE);
+			if ( state == g_.length ) {
+				grow(state * 2);
+			}
+			g_[state] = INFINITY;
+			rhs_[state] = INFINITY;
+			h_[state] = graph_.getTimeToGoal(node);
+			heapindex_[state] = -1;
+			goal_[state] = graph_.goalReached(node);
+			succs_[state] = null;
+			stale_[state] = false;
+			preds_[state] = null;
+			numpreds_[state] = 0;
+			marked_[state] = false;
+			if ( goal_[state] ) {
+				if ( numgoals_ == goals_.length ) {
+					goals_ = Arrays.copyOf(goals_,numgoals_ * 2);
+				}
+				goals_[numgoals_] = state;
+				numgoals_++;
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Make room for the specified number of states.
+	 */
+	private void grow ( int capacity ) {
+		g_ = Arrays.copyOf(g_,capacity);
+		rhs_ = Arrays.copyOf(rhs_,capacity);
+		h_ = Arrays.copyOf(h_,capacity);
+		k1_ = Arrays.copyOf(k1_,capacity);
+		k2_ = Arrays.copyOf(k2_,capacity);
+		heapindex_ = Arrays.copyOf(heapindex_,capacity);
+		goal_ = Arrays.copyOf(goal_,capacity);
+		succs_ = Arrays.copyOf(succs_,capacity);
+		version_ = Arrays.copyOf(version_,capacity);
+		stale_ = Arrays.copyOf(stale_,capacity);
+		preds_ = Arrays.copyOf(preds_,capacity);
+		numpreds_ = Arrays.copyOf(numpreds_,capacity);
+		marked_ = Arrays.copyOf(marked_,capacity);
+	}
+
+	/**
+	 * Change the heuristic inflation, updating the keys of open nodes.
+	 */
+	private void setEpsilon ( float epsilon ) {
+		epsilon_ = epsilon;
+		for ( int i = 0 ; i < heapsize_ ; i++ ) {
+			int state = heap_[i];
+			k1_[state] = getKey(state,k2_[state]);
+		}
+		for ( int i = heapsize_ / 2 - 1 ; i >= 0 ; i-- ) {
+			siftDown(i);
+		}
+	}
+
+	private static RoadGraphNode shift ( RoadGraphNode node, float dt ) {
+		return node.getShifted(dt);
+	}
+
+	/**
+	 * Get the primary key for the specified node in the heap, given its
+	 * secondary key. A reached stale node has no heuristic, so it comes off the
+	 * heap before any goal reached after it.
+	 */
+	private float getKey ( int state, float k2 ) {
+		if ( stale_[state] && g_[state] < INFINITY ) {
+			return k2;
+		}
+		return k2 + epsilon_ * h_[state];
+	}
+
+	/**
+	 * Recompute rhs for the specified node, and put it in the heap if (and only
+	 * if) it is inconsistent or is a reached stale node.
+	 */
+	private void updateState ( int state ) {
+		if ( state == root_ ) {
+			rhs_[state] = pool_.getTime(state);
+		} else {
+			rhs_[state] = INFINITY;
+			for ( int i = 0 ; i < numpreds_[state] ; i++ ) {
+				if ( g_[preds_[state][i]] < INFINITY ) {
+					rhs_[state] = pool_.getTime(state);
+					break;
+				}
+			}
+		}
+		if ( heapindex_[state] != -1 ) {
+			remove(heapindex_[state]);
+		}
+		if ( g_[state] != rhs_[state]
+		    || (stale_[state] && g_[state] < INFINITY) ) {
+			float k2 = Math.min(g_[state],rhs_[state]);
+			k1_[state] = getKey(state,k2);
+			k2_[state] = k2;
+			push(state);
+		}
+	}
+
+	// heap operations
+
+	private boolean before ( int a, int b ) {
+		return k1_[a] < k1_[b] || (k1_[a] == k1_[b] && k2_[a] < k2_[b]);
+	}
+
+	private void push ( int state ) {
+		if ( heapsize_ == heap_.length ) {
+			heap_ = Arrays.copyOf(heap_,heap_.length * 2);
+		}
+		heap_[heapsize_] = state;
+		heapindex_[state] = heapsize_;
+		heapsize_++;
+		siftUp(heapsize_ - 1);
+	}
+
+	private int pop () {
+		int top = heap_[0];
+		remove(0);
+		return top;
+	}
+
+	private void remove ( int i ) {
+		int removed = heap_[i];
+		heapsize_--;
+		if ( i < heapsize_ ) {
+			heap_[i] = heap_[heapsize_];
+			heapindex_[heap_[i]] = i;
+			siftDown(i);
+			siftUp(heapindex_[heap_[i]]);
+		}
+		heapindex_[removed] = -1;
+	}
+
+	private void siftUp ( int i ) {
+		int state = heap_[i];
+		while ( i > 0 ) {
+			int parent = (i - 1) / 2;
+			if ( !before(state,heap_[parent]) ) {
+				break;
+			}
+			heap_[i] = heap_[parent];
+			heapindex_[heap_[i]] = i;
+			i = parent;
+		}
+		heap_[i] = state;
+		heapindex_[state] = i;
+	}
+
+	private void siftDown ( int i ) {
+		int state = heap_[i];
+		while ( true ) {
+			int child = 2 * i + 1;
+			if ( child >= heapsize_ ) {
+				break;
+			}
+			if ( child + 1 < heapsize_ && before(heap_[child + 1],heap_[child]) ) {
+				child++;
+			}
+			if ( !before(heap_[child],state) ) {
+				break;
+			}
+			heap_[i] = heap_[child];
+			heapindex_[heap_[i]] = i;
+			i = child;
+		}
+		heap_[i] = state;
+		heapindex_[state] = i;
+	}
+}
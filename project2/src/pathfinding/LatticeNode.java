@@ -0,0 +1,77 @@
+package pathfinding;
+
+import core.Road;
+import processing.core.PVector;
+
+/**
+ * A node in a LatticePathfinderGraph: a position and time, as for any
+ * RoadGraphNode, plus the car's speed there (as a MotionPrimitives speed
+ * level). Nodes at different speeds are different states.
+ */
+public class LatticeNode extends RoadGraphNode {
+
+	private int level_; // speed level
+
+	/**
+	 * Create a node.
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          position (of the car's front bumper)
+	 * @param time
+	 *          time
+	 * @param level
+	 *          speed level (see MotionPrimitives.getSpeed())
+	 */
+	public LatticeNode ( Road road, PVector p, float time, int level ) {
+		super(road,p,time);
+		level_ = level;
+	}
+
+	/**
+	 * Two nodes are equal if they are the same state - as for RoadGraphNode,
+	 * and at the same speed level.
+	 */
+	@Override
+	public boolean equals ( Object obj ) {
+		return obj instanceof LatticeNode && super.equals(obj);
+	}
+
+	/**
+	 * Get the quantized state of the node, packed into a long: road ID (12
+	 * bits), lane (8 bits), speed level (6 bits), distance along the road (19
+	 * bits), and time (19 bits), with distance and time in units of the
+	 * quantum.
+	 * 
+	 * @return the node's state key
+	 */
+	@Override
+	public long getKey () {
+		long s = Math.round(getDistanceAlong() / POSITION_QUANTUM);
+		long t = Math.round(getTime() / TIME_QUANTUM);
+		return ((long) (getRoad().getID() & 0xfff) << 52)
+		    | ((long) (getLane() & 0xff) << 44) | ((long) (level_ & 0x3f) << 38)
+		    | ((s & 0x7ffff) << 19) | (t & 0x7ffff);
+	}
+
+	/**
+	 * Get the car's speed level at the node.
+	 * 
+	 * @return speed level
+	 */
+	public int getLevel () {
+		return level_;
+	}
+
+	@Override
+	public RoadGraphNode getShifted ( float dt ) {
+		return new LatticeNode(getRoad(),getPosition(),getTime() + dt,level_);
+	}
+
+	@Override
+	public String toString () {
+		return "LatticeNode [p_=" + getPosition() + ", time_=" + getTime()
+		    + ", level_=" + level_ + "]";
+	}
+}
@@ -0,0 +1,187 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import core.Car;
+import core.Goal;
+import core.Road;
+import core.World;
+import processing.core.PVector;
+
+/**
+ * A pathfinding graph over a lattice of states - lane, distance along the
+ * road, time, and speed (see LatticeNode) - whose edges are the car's
+ * precomputed motion primitives (see MotionPrimitives). Unlike the opportunity
+ * graphs, the successors of a node don't depend on where the other cars are,
+ * only on whether there is room for the car along each primitive, so the work
+ * per expansion is fixed: at most five primitives, each checked at
+ * MotionPrimitives.SAMPLES points (in both lanes partway through a lane
+ * change). The plans found also respect the car's acceleration and braking,
+ * rather than assuming it can drive at max speed between nodes.
+ */
+public class LatticePathfinderGraph extends PathfinderGraph {
+
+	public LatticePathfinderGraph ( Car car, World world, Goal goal ) {
+		super(car,world,goal);
+	}
+
+	/**
+	 * Get the start node for the graph: where the car is, at the speed level
+	 * closest to its current speed.
+	 * 
+	 * @return start node
+	 */
+	@Override
+	public RoadGraphNode getStart () {
+		Road road = car_.getRoad();
+		MotionPrimitives motions = MotionPrimitives.get(car_,road.getLaneWidth());
+		return new LatticeNode(road,road.getOnCenterStripe(car_.getFrontBumper()),
+		                       0,motions.getLevel(car_.getSpeed()));
+	}
+
+	/**
+	 * Get the speed the car is planned to be going at the specified node: the
+	 * speed of the node's level.
+	 */
+	@Override
+	public float getSpeed ( RoadGraphNode node ) {
+		if ( !(node instanceof LatticeNode) ) {
+			throw new IllegalArgumentException("expected a LatticeNode; got "
+			    + node);
+		}
+		MotionPrimitives motions =
+		    MotionPrimitives.get(car_,node.getRoad().getLaneWidth());
+		return motions.getSpeed(((LatticeNode) node).getLevel());
+	}
+
+	/**
+	 * Add the goal, if it is in the current lane and no further than the car
+	 * can get with one step forward.
+	 */
+	private void addGoal ( LatticeNode node, MotionPrimitives motions,
+	                       List<RoadGraphNode> targets, PlannerStats stats ) {
+		Road road = node.getRoad();
+		if ( node.getLane() != road.getLane(goal_.getPoint()) ) {
+			return;
+		}
+
+		int level = node.getLevel();
+		int primitive = (motions.isValid(level,MotionPrimitives.ACCELERATE)
+		    ? MotionPrimitives.ACCELERATE : MotionPrimitives.KEEP);
+		float reach = motions.getDistance(level,primitive);
+		float dist = road.getDistanceAlong(goal_.getPoint())
+		    - node.getDistanceAlong();
+		if ( reach <= 0 || dist < 0 || dist > reach ) {
+			return;
+		}
+
+		float time = node.getTime()
+		    + motions.getDuration(level,primitive) * dist / reach;
+		if ( !isVacant(road,goal_.getPoint(),time,stats) ) {
+			return;
+		}
+		LatticeNode goal = new LatticeNode(road,goal_.getPoint(),time,
+		                                   motions.getNewLevel(level,primitive));
+		targets.add(goal);
+		if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+			world_.debugPoint(World.DEBUG_GRAPHGEN,goal.getPosition(),
+			                  World.color(0,255,0),8);
+		}
+	}
+
+	/**
+	 * Add the end of the specified primitive, if the car stays on the road and
+	 * there is room for it at each sample point along the way. For a lane
+	 * change, the samples before the last are checked in the origin lane as
+	 * well as the target lane.
+	 */
+	private void addMotion ( LatticeNode node, MotionPrimitives motions,
+	                         int primitive, List<RoadGraphNode> targets,
+	                         PlannerStats stats ) {
+		Road road = node.getRoad();
+		int level = node.getLevel();
+		int newlane = node.getLane() + motions.getLaneChange(level,primitive);
+		if ( newlane < 0 || newlane >= road.getNumLanes() ) {
+			return;
+		}
+		if ( node.getDistanceAlong() + motions.getDistance(level,primitive) > road
+		    .getLength() ) {
+			return;
+		}
+
+		PVector p = null;
+		for ( int i = 0 ; i < MotionPrimitives.SAMPLES ; i++ ) {
+			float ds = motions.getSampleDistance(level,primitive,i);
+			float dt = motions.getSampleTime(level,primitive,i);
+			PVector along = road.getAlong(node.getPosition(),ds);
+			p = road.getOnCenterStripe(along,newlane);
+			if ( !isVacant(road,p,node.getTime() + dt,stats) ) {
+				return;
+			}
+			// partway through a lane change the car still straddles the lane it
+			// is leaving, so the earlier samples need room there too
+			if ( newlane != node.getLane() && i < MotionPrimitives.SAMPLES - 1
+			    && !isVacant(road,road.getOnCenterStripe(along,node.getLane()),
+			                 node.getTime() + dt,stats) ) {
+				return;
+			}
+		}
+
+		LatticeNode next =
+		    new LatticeNode(road,p,
+		                    node.getTime() + motions.getDuration(level,primitive),
+		                    motions.getNewLevel(level,primitive));
+		targets.add(next);
+		if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+			world_.debugPoint(World.DEBUG_GRAPHGEN,next.getPosition(),
+			                  (next.getLane() == node.getLane()
+			                      ? World.color(0,0,255) : World.color(0,255,255)),
+			                  5);
+		}
+	}
+
+	@Override
+	protected List<RoadGraphNode>
+	    generateNextLocations ( RoadGraphNode node, PlannerStats stats ) {
+		if ( !(node instanceof LatticeNode) ) {
+			throw new IllegalArgumentException("expected a LatticeNode; got "
+			    + node);
+		}
+		LatticeNode current = (LatticeNode) node;
+		MotionPrimitives motions =
+		    MotionPrimitives.get(car_,node.getRoad().getLaneWidth());
+		List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
+
+		// goal node
+		long start = System.nanoTime();
+		int count = targets.size();
+		addGoal(current,motions,targets,stats);
+		stats.addGenerated(PlannerStats.GOAL,targets.size() - count,start);
+
+		// staying in the lane
+		start = System.nanoTime();
+		count = targets.size();
+		for ( int primitive : new int[] { MotionPrimitives.KEEP,
+		                                  MotionPrimitives.ACCELERATE,
+		                                  MotionPrimitives.BRAKE } ) {
+			if ( motions.isValid(current.getLevel(),primitive) ) {
+				addMotion(current,motions,primitive,targets,stats);
+			}
+		}
+		stats.addGenerated(PlannerStats.MOTION,targets.size() - count,start);
+
+		// lane changes
+		start = System.nanoTime();
+		count = targets.size();
+		for ( int primitive : new int[] { MotionPrimitives.CHANGE_DOWN,
+		                                  MotionPrimitives.CHANGE_UP } ) {
+			if ( motions.isValid(current.getLevel(),primitive) ) {
+				addMotion(current,motions,primitive,targets,stats);
+			}
+		}
+		stats.addGenerated(PlannerStats.LANE_CHANGE,targets.size() - count,start);
+
+		return targets;
+	}
+}
@@ -0,0 +1,329 @@
+package pathfinding;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import core.Car;
+import core.CarState;
+
+/**
+ * Precomputed motions for a LatticePathfinderGraph, for one kind of car (max
+ * speed, acceleration, and braking) on roads with one lane width.
+ * 
+ * Speeds are discretized into levels DT * max acceleration apart, from 0 up to
+ * the max speed (the top level is clamped to it). From each level there are up
+ * to five primitives:
+ * <ul>
+ * <li>KEEP - hold the speed for DT ticks (at level 0, wait in place)
+ * <li>ACCELERATE - speed up one level over DT ticks
+ * <li>BRAKE - slow down as many levels as max braking allows over DT ticks
+ * <li>CHANGE_DOWN, CHANGE_UP - move to the next lower or higher numbered lane
+ * at Car.LANE_CHANGE_ANGLE to the road, holding the speed (not at level 0)
+ * </ul>
+ * For each primitive, the table holds the change in distance along the road,
+ * time, lane, and speed level, and SAMPLES points along the way (distance and
+ * time from the start) where the car must have room.
+ * 
+ * There is one table per kind of car and lane width, built the first time it
+ * is asked for and shared by every graph which needs it.
+ */
+public class MotionPrimitives {
+
+	/**
+	 * Duration of the KEEP, ACCELERATE, and BRAKE primitives, in ticks.
+	 */
+	public static final float DT = 10;
+
+	/**
+	 * Number of points along each primitive checked for room.
+	 */
+	public static final int SAMPLES = 2;
+
+	/**
+	 * Primitives.
+	 */
+	public static final int KEEP = 0, ACCELERATE = 1, BRAKE = 2,
+	    CHANGE_DOWN = 3, CHANGE_UP = 4;
+
+	private static final int PRIMITIVES = 5;
+
+	/**
+	 * What a table is built for.
+	 */
+	private static class Key {
+		float maxspeed_, maxaccel_, maxbrake_, lanewidth_;
+
+		Key ( CarState car, float lanewidth ) {
+			maxspeed_ = car.getMaxSpeed();
+			maxaccel_ = car.getMaxAccel();
+			maxbrake_ = car.getMaxBrake();
+			lanewidth_ = lanewidth;
+		}
+
+		@Override
+		public boolean equals ( Object obj ) {
+			if ( !(obj instanceof Key) ) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return maxspeed_ == other.maxspeed_ && maxaccel_ == other.maxaccel_
+			    && maxbrake_ == other.maxbrake_ && lanewidth_ == other.lanewidth_;
+		}
+
+		@Override
+		public int hashCode () {
+			int hash = Float.floatToIntBits(maxspeed_);
+			hash = 31 * hash + Float.floatToIntBits(maxaccel_);
+			hash = 31 * hash + Float.floatToIntBits(maxbrake_);
+			hash = 31 * hash + Float.floatToIntBits(lanewidth_);
+			return hash;
+		}
+	}
+
+	// tables built so far
+	private static Map<Key,MotionPrimitives> tables_ =
+	    Collections.synchronizedMap(new HashMap<Key,MotionPrimitives>());
+
+	/**
+	 * Get the table for the specified car and lane width, building it if this
+	 * is the first time it is asked for.
+	 * 
+	 * @param car
+	 *          the car
+	 * @param lanewidth
+	 *          width of the lanes
+	 * @return the table
+	 */
+	public static MotionPrimitives get ( CarState car, float lanewidth ) {
+		return tables_.computeIfAbsent(new Key(car,lanewidth),
+		                               k -> new MotionPrimitives(k));
+	}
+
+	private float[] speed_; // speed at each level
+
+	// for each level and primitive
+	private boolean[][] valid_;
+	private float[][] ds_, dt_; // change in distance along the road and time
+	private int[][] dlane_, level_; // change in lane, and new speed level
+	private float[][][] sampleds_, sampledt_; // sample points (from the start)
+
+	/**
+	 * Build the table.
+	 */
+	private MotionPrimitives ( Key key ) {
+		float dv = key.maxaccel_ * DT;
+		int levels = (int) Math.ceil(key.maxspeed_ / dv) + 1;
+		speed_ = new float[levels];
+		for ( int level = 0 ; level < levels ; level++ ) {
+			speed_[level] = Math.min(level * dv,key.maxspeed_);
+		}
+		// levels lost braking for DT
+		int brake = Math.max((int) Math.floor(key.maxbrake_ * DT / dv),1);
+		// a lane change covers one lane width sideways
+		float along =
+		    key.lanewidth_ / (float) Math.tan(Car.LANE_CHANGE_ANGLE);
+		float length =
+		    key.lanewidth_ / (float) Math.sin(Car.LANE_CHANGE_ANGLE);
+
+		valid_ = new boolean[levels][PRIMITIVES];
+		ds_ = new float[levels][PRIMITIVES];
+		dt_ = new float[levels][PRIMITIVES];
+		dlane_ = new int[levels][PRIMITIVES];
+		level_ = new int[levels][PRIMITIVES];
+		sampleds_ = new float[levels][PRIMITIVES][SAMPLES];
+		sampledt_ = new float[levels][PRIMITIVES][SAMPLES];
+		for ( int level = 0 ; level < levels ; level++ ) {
+			setSpeedChange(level,KEEP,level);
+			if ( level + 1 < levels ) {
+				setSpeedChange(level,ACCELERATE,level + 1);
+			}
+			if ( level > 0 ) {
+				setSpeedChange(level,BRAKE,Math.max(level - brake,0));
+				setLaneChange(level,CHANGE_DOWN,-1,along,length);
+				setLaneChange(level,CHANGE_UP,1,along,length);
+			}
+		}
+	}
+
+	/**
+	 * Set up a primitive which stays in the lane, changing speed evenly from
+	 * level to newlevel over DT.
+	 */
+	private void setSpeedChange ( int level, int primitive, int newlevel ) {
+		float v0 = speed_[level], v1 = speed_[newlevel];
+		float a = (v1 - v0) / DT;
+		valid_[level][primitive] = true;
+		ds_[level][primitive] = (v0 + v1) / 2 * DT;
+		dt_[level][primitive] = DT;
+		dlane_[level][primitive] = 0;
+		level_[level][primitive] = newlevel;
+		for ( int i = 0 ; i < SAMPLES ; i++ ) {
+			float t = DT * (i + 1) / SAMPLES;
+			sampleds_[level][primitive][i] = v0 * t + a / 2 * t * t;
+			sampledt_[level][primitive][i] = t;
+		}
+	}
+
+	/**
+	 * Set up a lane change at a steady speed, covering along distance along
+	 * the road and length distance in all.
+	 */
+	private void setLaneChange ( int level, int primitive, int dlane,
+	                             float along, float length ) {
+		float t = length / speed_[level];
+		valid_[level][primitive] = true;
+		ds_[level][primitive] = along;
+		dt_[level][primitive] = t;
+		dlane_[level][primitive] = dlane;
+		level_[level][primitive] = level;
+		for ( int i = 0 ; i < SAMPLES ; i++ ) {
+			sampleds_[level][primitive][i] = along * (i + 1) / SAMPLES;
+			sampledt_[level][primitive][i] = t * (i + 1) / SAMPLES;
+		}
+	}
+
+	/**
+	 * Get the change in distance along the road over a primitive.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @return change in distance along the road
+	 */
+	public float getDistance ( int level, int primitive ) {
+		return ds_[level][primitive];
+	}
+
+	/**
+	 * Get the duration of a primitive.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @return duration (ticks)
+	 */
+	public float getDuration ( int level, int primitive ) {
+		return dt_[level][primitive];
+	}
+
+	/**
+	 * Get the change in lane over a primitive.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @return change in lane (-1, 0, or 1)
+	 */
+	public int getLaneChange ( int level, int primitive ) {
+		return dlane_[level][primitive];
+	}
+
+	/**
+	 * Get the number of speed levels.
+	 * 
+	 * @return number of levels
+	 */
+	public int getLevels () {
+		return speed_.length;
+	}
+
+	/**
+	 * Get the speed level closest to the specified speed.
+	 * 
+	 * @param speed
+	 *          the speed
+	 * @return the closest level
+	 */
+	public int getLevel ( float speed ) {
+		int closest = 0;
+		for ( int level = 1 ; level < speed_.length ; level++ ) {
+			if ( Math.abs(speed_[level] - speed) < Math
+			    .abs(speed_[closest] - speed) ) {
+				closest = level;
+			}
+		}
+		return closest;
+	}
+
+	/**
+	 * Get the speed level at the end of a primitive.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @return ending speed level
+	 */
+	public int getNewLevel ( int level, int primitive ) {
+		return level_[level][primitive];
+	}
+
+	/**
+	 * Get the distance along the road from the start of a primitive to one of
+	 * its sample points.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @param sample
+	 *          the sample point (0 to SAMPLES-1; the last is the end)
+	 * @return distance along the road
+	 */
+	public float getSampleDistance ( int level, int primitive, int sample ) {
+		return sampleds_[level][primitive][sample];
+	}
+
+	/**
+	 * Get the time from the start of a primitive to one of its sample points.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @param sample
+	 *          the sample point (0 to SAMPLES-1; the last is the end)
+	 * @return time (ticks)
+	 */
+	public float getSampleTime ( int level, int primitive, int sample ) {
+		return sampledt_[level][primitive][sample];
+	}
+
+	/**
+	 * Get the speed for a speed level.
+	 * 
+	 * @param level
+	 *          the level
+	 * @return the speed
+	 */
+	public float getSpeed ( int level ) {
+		return speed_[level];
+	}
+
+	/**
+	 * Determine if a primitive can be used from a speed level.
+	 * 
+	 * @param level
+	 *          starting speed level
+	 * @param primitive
+	 *          the primitive
+	 * @return true if the primitive can be used, false if not
+	 */
+	public boolean isValid ( int level, int primitive ) {
+		return valid_[level][primitive];
+	}
+
+	/**
+	 * Get the number of primitives from each level (some of which may not be
+	 * valid).
+	 * 
+	 * @return number of primitives
+	 */
+	public int getPrimitives () {
+		return PRIMITIVES;
+	}
+}
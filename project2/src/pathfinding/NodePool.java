@@ -0,0 +1,290 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import core.Road;
+import processing.core.PVector;
+
+/**
+ * Graph nodes stored as parallel arrays of primitives and addressed by int
+ * handles, for searches which keep many nodes around. Each node is a road,
+ * position (and its lane and distance along the road), time, speed level (for
+ * a LatticeNode), and parent node - enough to make the same RoadGraphNode
+ * again with getNode(), so a search only needs node objects for the nodes it
+ * is working on. Nodes are indexed on their state (as in
+ * RoadGraphNode.equals()), so a node can be looked up by state without
+ * creating any objects.
+ * 
+ * Handles are assigned in order from 0, and stay valid until the pool is
+ * cleared or renumbered.
+ */
+public class NodePool {
+
+	/**
+	 * Handle meaning "no node".
+	 */
+	public static final int NONE = -1;
+
+	private List<Road> roads_; // roads referred to by index
+
+	// per-node state, indexed by handle
+	private int[] road_; // index in roads_
+	private float[] x_, y_; // position
+	private int[] lane_;
+	private float[] s_; // distance along the road
+	private int[] level_; // speed level (LatticeNode); -1 for a RoadGraphNode
+	private float[] t_; // time
+	private int[] parent_;
+	private long[] key_; // state key (RoadGraphNode.getKey())
+	private int size_;
+
+	// open-addressed hash index from state key to handle; NONE for empty slots
+	private int[] index_;
+
+	/**
+	 * Create an empty pool.
+	 */
+	public NodePool () {
+		roads_ = new ArrayList<Road>();
+		road_ = new int[64];
+		x_ = new float[64];
+		y_ = new float[64];
+		lane_ = new int[64];
+		s_ = new float[64];
+		level_ = new int[64];
+		t_ = new float[64];
+		parent_ = new int[64];
+		key_ = new long[64];
+		index_ = new int[128];
+		Arrays.fill(index_,NONE);
+		size_ = 0;
+	}
+
+	/**
+	 * Add a node. (there must not already be a node with the same state)
+	 * 
+	 * @param node
+	 *          the node
+	 * @param parent
+	 *          handle of the node's parent, or NONE
+	 * @return the new node's handle
+	 */
+	public int add ( RoadGraphNode node, int parent ) {
+		if ( size_ == road_.length ) {
+			int n = size_ * 2;
+			road_ = Arrays.copyOf(road_,n);
+			x_ = Arrays.copyOf(x_,n);
+			y_ = Arrays.copyOf(y_,n);
+			lane_ = Arrays.copyOf(lane_,n);
+			s_ = Arrays.copyOf(s_,n);
+			level_ = Arrays.copyOf(level_,n);
+			t_ = Arrays.copyOf(t_,n);
+			parent_ = Arrays.copyOf(parent_,n);
+			key_ = Arrays.copyOf(key_,n);
+		}
+		if ( 2 * (size_ + 1) > index_.length ) {
+			rehash(index_.length * 2);
+		}
+
+		int handle = size_;
+		size_++;
+		road_[handle] = getRoadIndex(node.getRoad());
+		key_[handle] = node.getKey();
+		set(handle,node,parent);
+		index_[findSlot(key_[handle])] = handle;
+		return handle;
+	}
+
+	/**
+	 * Remove all nodes. The arrays are kept for reuse.
+	 */
+	public void clear () {
+		Arrays.fill(index_,NONE);
+		roads_.clear();
+		size_ = 0;
+	}
+
+	/**
+	 * Find the node with the same state as the specified node.
+	 * 
+	 * @param node
+	 *          the node
+	 * @return the handle of the node with the same state, or NONE if there is
+	 *         none
+	 */
+	public int find ( RoadGraphNode node ) {
+		return index_[findSlot(node.getKey())];
+	}
+
+	/**
+	 * Get the node's distance along its road.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @return distance along the road
+	 */
+	public float getDistanceAlong ( int handle ) {
+		return s_[handle];
+	}
+
+	/**
+	 * Get the node's lane.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @return the lane
+	 */
+	public int getLane ( int handle ) {
+		return lane_[handle];
+	}
+
+	/**
+	 * Make the node with the specified handle as a RoadGraphNode (a LatticeNode
+	 * if it was added as one), equal to the node last added or set for it.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @return the node
+	 */
+	public RoadGraphNode getNode ( int handle ) {
+		Road road = roads_.get(road_[handle]);
+		PVector p = new PVector(x_[handle],y_[handle]);
+		if ( level_[handle] >= 0 ) {
+			return new LatticeNode(road,p,t_[handle],level_[handle]);
+		}
+		return new RoadGraphNode(road,p,t_[handle]);
+	}
+
+	/**
+	 * Get the node's parent.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @return handle of the parent, or NONE
+	 */
+	public int getParent ( int handle ) {
+		return parent_[handle];
+	}
+
+	/**
+	 * Get the node's road.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @return the road
+	 */
+	public Road getRoad ( int handle ) {
+		return roads_.get(road_[handle]);
+	}
+
+	/**
+	 * Get the node's time.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @return the time
+	 */
+	public float getTime ( int handle ) {
+		return t_[handle];
+	}
+
+	/**
+	 * Replace the specified node's position, time, and parent - e.g. when a
+	 * better path to the same state is found.
+	 * 
+	 * @param handle
+	 *          the node's handle
+	 * @param node
+	 *          new position and time (must be the same state)
+	 * @param parent
+	 *          handle of the node's new parent, or NONE
+	 */
+	public void set ( int handle, RoadGraphNode node, int parent ) {
+		PVector p = node.getPosition();
+		x_[handle] = p.x;
+		y_[handle] = p.y;
+		lane_[handle] = node.getLane();
+		s_[handle] = node.getDistanceAlong();
+		level_[handle] =
+		    (node instanceof LatticeNode ? ((LatticeNode) node).getLevel() : -1);
+		t_[handle] = node.getTime();
+		parent_[handle] = parent;
+	}
+
+	/**
+	 * Give the nodes new handles, dropping some - e.g. to discard the nodes a
+	 * search no longer needs while keeping the handles dense. The nodes kept
+	 * must keep their order: the nth node kept (in order of its current
+	 * handle) gets handle n. Parents which are dropped become NONE.
+	 * 
+	 * @param renumber
+	 *          new handle of each node (indexed by current handle), or NONE to
+	 *          drop the node
+	 * @return number of nodes left
+	 */
+	public int renumber ( int[] renumber ) {
+		int count = 0;
+		for ( int handle = 0 ; handle < size_ ; handle++ ) {
+			int to = renumber[handle];
+			if ( to == NONE ) {
+				continue;
+			}
+			road_[to] = road_[handle];
+			x_[to] = x_[handle];
+			y_[to] = y_[handle];
+			lane_[to] = lane_[handle];
+			s_[to] = s_[handle];
+			level_[to] = level_[handle];
+			t_[to] = t_[handle];
+			parent_[to] = (parent_[handle] == NONE ? NONE
+			    : renumber[parent_[handle]]);
+			key_[to] = key_[handle];
+			count++;
+		}
+		size_ = count;
+		rehash(index_.length);
+		return count;
+	}
+
+	/**
+	 * Get the number of nodes in the pool.
+	 * 
+	 * @return number of nodes
+	 */
+	public int size () {
+		return size_;
+	}
+
+	/**
+	 * Find the index slot for the specified key - the slot holding the node
+	 * with that key, or the empty slot where it would go.
+	 */
+	private int findSlot ( long key ) {
+		int mask = index_.length - 1;
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while ( index_[slot] != NONE && key_[index_[slot]] != key ) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int getRoadIndex ( Road road ) {
+		// there are only ever a few roads, so a linear search is fine
+		int index = roads_.indexOf(road);
+		if ( index == -1 ) {
+			index = roads_.size();
+			roads_.add(road);
+		}
+		return index;
+	}
+
+	private void rehash ( int capacity ) {
+		index_ = new int[capacity];
+		Arrays.fill(index_,NONE);
+		for ( int handle = 0 ; handle < size_ ; handle++ ) {
+			index_[findSlot(key_[handle])] = handle;
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A* search over a pathfinder graph spread over several threads, for plans too
+ * big to search quickly on one (hash-distributed A*). Each search state belongs
+ * to one of several partitions, chosen by hashing the state's key (see
+ * RoadGraphNode.getKey()), and each partition keeps its own open and closed
+ * lists, so no list is ever shared between threads.
+ * 
+ * The search runs in rounds. In each round every partition expands its BATCH
+ * best open nodes, and sorts their successors by the partition they belong to;
+ * then every partition takes in the successors sent to it. The partitions run
+ * in parallel within each half of a round, so threads only wait for each other
+ * at the end of each half, and the search can be run from a ForkJoinPool
+ * thread (or on a pool busy with other work) without tying up threads waiting
+ * for messages. It runs on the current pool, or the common pool if not called
+ * from a pool thread.
+ * 
+ * Since the partitions expand nodes side by side rather than strictly in order
+ * of f, the first goal reached isn't necessarily the best. The search keeps
+ * going until no open node could lead to a faster goal than the best found so
+ * far, and a closed state reached again sooner is opened again, so the path
+ * found is the fastest one (as the heuristic is admissible).
+ * 
+ * The graph is expanded from several threads at once, each partition recording
+ * its work in its own PlannerStats; they are added to the graph's stats at the
+ * end of the search.
+ */
+public class ParallelAStarSearch {
+
+	/**
+	 * Number of nodes each partition expands per round.
+	 */
+	public static final int BATCH = 4;
+
+	private static final float INFINITY = Float.POSITIVE_INFINITY;
+
+	/**
+	 * A search state.
+	 */
+	private static class State {
+		RoadGraphNode node_; // best node found for the state
+		State parent_; // (may belong to another partition)
+		float h_; // estimated remaining cost
+		boolean closed_; // true if expanded (since last reached sooner)
+
+		State ( RoadGraphNode node, State parent, float h ) {
+			node_ = node;
+			parent_ = parent;
+			h_ = h;
+			closed_ = false;
+		}
+	}
+
+	/**
+	 * An entry in an open list. A state reached sooner is added again rather
+	 * than updated in place; the old entry is skipped when it comes up.
+	 */
+	private static class Open {
+		State state_;
+		float time_; // state's time when added
+		float f_; // estimated total cost (arrival time at goal)
+
+		Open ( State state ) {
+			state_ = state;
+			time_ = state.node_.getTime();
+			f_ = time_ + state.h_;
+		}
+
+		boolean isCurrent () {
+			return !state_.closed_ && state_.node_.getTime() == time_;
+		}
+	}
+
+	/**
+	 * A successor on its way to the partition it belongs to.
+	 */
+	private static class Successor {
+		RoadGraphNode node_;
+		State parent_;
+
+		Successor ( RoadGraphNode node, State parent ) {
+			node_ = node;
+			parent_ = parent;
+		}
+	}
+
+	// ordering: lower f first; among equal f, the one closer to the goal
+	private static final Comparator<Open> ORDER = (a,b) -> a.f_ != b.f_
+	    ? Float.compare(a.f_,b.f_) : Float.compare(a.state_.h_,b.state_.h_);
+
+	/**
+	 * The states belonging to one partition.
+	 */
+	private class Partition {
+		Map<RoadGraphNode,State> states_;
+		PriorityQueue<Open> open_;
+		List<List<Successor>> outbox_; // successors for each partition
+		List<State> goals_; // goal states reached in the current round
+		int expanded_; // nodes expanded in the current round
+		PlannerStats stats_;
+
+		Partition () {
+			states_ = new HashMap<RoadGraphNode,State>();
+			open_ = new PriorityQueue<Open>(64,ORDER);
+			outbox_ = new ArrayList<List<Successor>>(partitions_);
+			for ( int i = 0 ; i < partitions_ ; i++ ) {
+				outbox_.add(new ArrayList<Successor>());
+			}
+			goals_ = new ArrayList<State>();
+			stats_ = new PlannerStats();
+		}
+
+		/**
+		 * Expand up to BATCH of the best open nodes which could lead to a goal
+		 * sooner than bound, sending their successors to their partitions.
+		 */
+		void expand ( PathfinderGraph graph, float bound ) {
+			for ( List<Successor> out : outbox_ ) {
+				out.clear();
+			}
+			goals_.clear();
+			expanded_ = 0;
+
+			int popped = 0;
+			while ( popped < BATCH && hasOpen(bound) ) {
+				State state = open_.poll().state_;
+				state.closed_ = true;
+				popped++;
+				if ( graph.goalReached(state.node_) ) {
+					goals_.add(state);
+					continue;
+				}
+
+				expanded_++;
+				for ( RoadGraphNode next : graph.getNextLocations(state.node_,
+				                                                  stats_) ) {
+					outbox_.get(getPartition(next)).add(new Successor(next,state));
+				}
+			}
+		}
+
+		/**
+		 * Take in the successors the partitions sent this one.
+		 */
+		void receive ( PathfinderGraph graph, List<Partition> partitions,
+		               int self ) {
+			for ( Partition from : partitions ) {
+				for ( Successor succ : from.outbox_.get(self) ) {
+					add(graph,succ.node_,succ.parent_);
+				}
+			}
+		}
+
+		/**
+		 * Add a state, or update it if it has been reached sooner.
+		 */
+		void add ( PathfinderGraph graph, RoadGraphNode node, State parent ) {
+			State state = states_.get(node);
+			if ( state == null ) {
+				state = new State(node,parent,graph.getTimeToGoal(node));
+				states_.put(node,state);
+			} else if ( node.getTime() < state.node_.getTime() ) {
+				state.node_ = node;
+				state.parent_ = parent;
+				state.closed_ = false;
+			} else {
+				return;
+			}
+			open_.add(new Open(state));
+		}
+
+		/**
+		 * Determine if there is an open node which could lead to a goal sooner
+		 * than bound, dropping any entries which are out of date or can't.
+		 */
+		boolean hasOpen ( float bound ) {
+			while ( !open_.isEmpty() ) {
+				Open top = open_.peek();
+				if ( top.f_ >= bound ) {
+					// nothing after it can do better either
+					open_.clear();
+				} else if ( !top.isCurrent() ) {
+					open_.poll();
+				} else {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private int partitions_; // number of partitions
+	private int maxexpansions_; // limit on nodes expanded per search
+	private int expanded_; // nodes expanded by the last search
+
+	/**
+	 * Create a search.
+	 * 
+	 * @param partitions
+	 *          number of partitions to spread the search over (> 0) - about the
+	 *          number of threads it should use
+	 * @param maxexpansions
+	 *          limit on the number of nodes expanded per search (> 0); checked
+	 *          between rounds, so a search may go over by up to partitions *
+	 *          BATCH
+	 */
+	public ParallelAStarSearch ( int partitions, int maxexpansions ) {
+		if ( partitions <= 0 ) {
+			throw new IllegalArgumentException("partitions must be > 0; got "
+			    + partitions);
+		}
+		if ( maxexpansions <= 0 ) {
+			throw new IllegalArgumentException("maxexpansions must be > 0; got "
+			    + maxexpansions);
+		}
+		partitions_ = partitions;
+		maxexpansions_ = maxexpansions;
+	}
+
+	/**
+	 * Get the number of nodes expanded by the last search.
+	 * 
+	 * @return number of nodes expanded
+	 */
+	public int getExpanded () {
+		return expanded_;
+	}
+
+	/**
+	 * Find the fastest path from the graph's start node to a goal node.
+	 * 
+	 * @param graph
+	 *          the graph to search
+	 * @return the path (start node first, goal node last), or null if no path
+	 *         was found; if the expansion limit is reached, the fastest path
+	 *         found so far (which may not be the fastest path)
+	 */
+	public List<RoadGraphNode> search ( PathfinderGraph graph ) {
+		List<Partition> partitions = new ArrayList<Partition>(partitions_);
+		for ( int i = 0 ; i < partitions_ ; i++ ) {
+			partitions.add(new Partition());
+		}
+		expanded_ = 0;
+
+		RoadGraphNode start = graph.getStart();
+		partitions.get(getPartition(start)).add(graph,start,null);
+
+		State best = null;
+		float bound = INFINITY; // time the best goal is reached
+		List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>(partitions_);
+		while ( expanded_ < maxexpansions_ ) {
+			boolean open = false;
+			for ( Partition partition : partitions ) {
+				open |= partition.hasOpen(bound);
+			}
+			if ( !open ) {
+				break;
+			}
+
+			// expand
+			float limit = bound;
+			tasks.clear();
+			for ( Partition partition : partitions ) {
+				tasks.add(ForkJoinTask.adapt(() -> partition.expand(graph,limit)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+			for ( Partition partition : partitions ) {
+				expanded_ += partition.expanded_;
+				for ( State goal : partition.goals_ ) {
+					if ( goal.node_.getTime() < bound ) {
+						best = goal;
+						bound = goal.node_.getTime();
+					}
+				}
+			}
+
+			// pass on successors
+			tasks.clear();
+			for ( int i = 0 ; i < partitions_ ; i++ ) {
+				Partition partition = partitions.get(i);
+				int self = i;
+				tasks.add(ForkJoinTask
+				    .adapt(() -> partition.receive(graph,partitions,self)));
+			}
+			ForkJoinTask.invokeAll(tasks);
+		}
+
+		for ( Partition partition : partitions ) {
+			graph.getStats().add(partition.stats_);
+		}
+		return (best == null ? null : getPath(best));
+	}
+
+	/**
+	 * Get the partition the specified node's state belongs to.
+	 */
+	private int getPartition ( RoadGraphNode node ) {
+		return (int) (((node.getKey() * 0x9E3779B97F4A7C15L) >>> 33)
+		    % partitions_);
+	}
+
+	private static List<RoadGraphNode> getPath ( State last ) {
+		List<RoadGraphNode> path = new ArrayList<RoadGraphNode>();
+		for ( State state = last ; state != null ; state = state.parent_ ) {
+			path.add(state.node_);
+		}
+		Collections.reverse(path);
+		return path;
+	}
+}
@@ -1,34 +1,108 @@
 package pathfinding;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import core.Car;
+import core.CarState;
 import core.Goal;
+import core.ReservationTable;
+import core.Road;
 import core.World;
-import processing.core.PApplet;
+import core.WorldSnapshot;
 import processing.core.PVector;
 
 /***
  * The pathfinding graph. The graph is generated lazily - nodes are added by
  * calling getNextLocations().
+ * 
+ * The graph is generated from a snapshot of the world rather than the world
+ * itself, so several graphs can be generated at once on different threads.
+ * The world is only used for debugging output, which is safe to record from
+ * any thread. One graph can also be expanded from several threads at once (see
+ * ParallelAStarSearch), as long as each thread records its work in its own
+ * PlannerStats.
+ * 
+ * Generated successors are cached, keyed on the node's state (as in
+ * RoadGraphNode.equals(), but with times measured from tick 0 so the entries
+ * stay meaningful from one snapshot to the next). A cached entry is used as long
+ * as the traffic version of the node's lane and its neighbors is unchanged;
+ * only the CACHE_SIZE most recently used entries are kept. Versions are those
+ * captured in the snapshot, since the world (and its traffic monitor) may
+ * have moved on by the time the graph is expanded.
+ * 
+ * While the graph is being displayed, the most recent MAX_EDGES edges
+ * generated are kept for display, in a ring buffer which is only allocated
+ * while displaying. A graph thus takes a bounded amount of memory however long
+ * it is used for.
  */
 public abstract class PathfinderGraph {
 
-	protected Car car_;
+	/**
+	 * Maximum number of nodes whose successors are cached.
+	 */
+	public static final int CACHE_SIZE = 4096;
+
+	/**
+	 * Maximum number of edges kept for display.
+	 */
+	public static final int MAX_EDGES = 4096;
+
+	// how far (along the road) a node may be past World.SPACING behind the car
+	// ahead and still count as not having caught up with it - nodes generated
+	// right behind the car ahead are exactly there, give or take rounding
+	private static final float CATCH_TOLERANCE = .01f;
+
+	/**
+	 * Cached successors of a node.
+	 */
+	private static class CacheEntry {
+		List<RoadGraphNode> next_; // successors (times measured from tick 0)
+		int version_; // traffic version the successors were generated for
+
+		CacheEntry ( List<RoadGraphNode> next, int version ) {
+			next_ = next;
+			version_ = version;
+		}
+	}
+
+	private Car owner_; // the car the graph is for
+	protected CarState car_; // owner_'s state in snapshot_
+	protected WorldSnapshot snapshot_; // traffic the graph is generated from
+	protected ReservationTable reservations_; // space other cars have claimed
 	protected World world_;
 	protected Goal goal_;
-	
-	protected List<RoadGraphNode[]> edges_;  // the generated graph
+	private HeuristicTable heuristic_; // bounds on the distance to goal_
+	protected PlannerStats stats_; // what generating the graph has cost
+
+	// the generated graph (for display) - a ring buffer of the last MAX_EDGES
+	// edges, only allocated while the graph is being displayed; for each edge,
+	// the from and to state keys in consecutive slots of edgekeys_ and the
+	// from and to positions (x1, y1, x2, y2) in edgepoints_
+	private long[] edgekeys_; // null if not displaying
+	private float[] edgepoints_;
+	private int nextedge_; // slot the next edge goes in
+	private int numedges_;
+	private Map<Long,Integer> edgeslots_; // slot of each edge, by edge hash
+
+	// successors of recently expanded nodes, least recently used first
+	private LinkedHashMap<RoadGraphNode,CacheEntry> cache_;
 
 	/**
-	 * Generate the successor nodes for the specified node.
+	 * Generate the successor nodes for the specified node from the current
+	 * snapshot.
 	 * 
 	 * @param node
 	 *          current node
+	 * @param stats
+	 *          stats to record the work done in
 	 * @return the successor nodes for the specified node
 	 */
-	public abstract List<RoadGraphNode> getNextLocations ( RoadGraphNode node );
+	protected abstract List<RoadGraphNode>
+	    generateNextLocations ( RoadGraphNode node, PlannerStats stats );
 
 	/**
 	 * Create a new (empty) pathfinding graph for the specified car, world, and
@@ -39,10 +113,59 @@ public abstract class PathfinderGraph {
 	 * @param goal
 	 */
 	public PathfinderGraph ( Car car, World world, Goal goal ) {
-		car_ = car;
+		owner_ = car;
 		world_ = world;
 		goal_ = goal;
-		edges_ = new ArrayList<RoadGraphNode[]>();
+		heuristic_ = (goal == null ? null : HeuristicTable.get(world,goal));
+		reservations_ = world.getReservations();
+		stats_ = new PlannerStats();
+		edgekeys_ = null;
+		edgepoints_ = null;
+		nextedge_ = 0;
+		numedges_ = 0;
+		edgeslots_ = new HashMap<Long,Integer>();
+		cache_ = new LinkedHashMap<RoadGraphNode,CacheEntry>(16,.75f,true) {
+			@Override
+			protected boolean
+			    removeEldestEntry ( Map.Entry<RoadGraphNode,CacheEntry> eldest ) {
+				return size() > CACHE_SIZE;
+			}
+		};
+		setSnapshot(new WorldSnapshot(world));
+	}
+
+	/**
+	 * Discard the generated graph (as displayed), and the space for it if the
+	 * graph is no longer being displayed. Cached successors are kept, since
+	 * they are checked against the current traffic whenever they are used.
+	 */
+	public synchronized void clear () {
+		nextedge_ = 0;
+		numedges_ = 0;
+		edgeslots_.clear();
+		if ( !world_.getDebug(World.DEBUG_GRAPH) ) {
+			edgekeys_ = null;
+			edgepoints_ = null;
+		}
+	}
+
+	/**
+	 * Get the counters and timers for work done by the graph. They accumulate
+	 * until cleared.
+	 * 
+	 * @return the graph's stats
+	 */
+	public PlannerStats getStats () {
+		return stats_;
+	}
+
+	/**
+	 * Get the world the graph is for.
+	 * 
+	 * @return the world
+	 */
+	public World getWorld () {
+		return world_;
 	}
 
 	/**
@@ -54,6 +177,167 @@ public abstract class PathfinderGraph {
 		    .getOnCenterStripe(car_.getFrontBumper()),0);
 	}
 
+	/**
+	 * Get the successor nodes for the specified node, generating them only if
+	 * they aren't cached or the traffic around the node has changed since they
+	 * were.
+	 * 
+	 * @param node
+	 *          current node (time relative to the snapshot)
+	 * @return the successor nodes for the specified node (times relative to the
+	 *         snapshot)
+	 */
+	public List<RoadGraphNode> getNextLocations ( RoadGraphNode node ) {
+		return getNextLocations(node,stats_);
+	}
+
+	/**
+	 * Get the successor nodes for the specified node, as getNextLocations(node),
+	 * recording the work done in the specified stats rather than the graph's.
+	 * This is for expanding the graph from several threads at once - stats can't
+	 * be shared between threads, so each brings its own.
+	 * 
+	 * @param node
+	 *          current node (time relative to the snapshot)
+	 * @param stats
+	 *          stats to record the work done in
+	 * @return the successor nodes for the specified node (times relative to the
+	 *         snapshot)
+	 */
+	public List<RoadGraphNode> getNextLocations ( RoadGraphNode node,
+	                                              PlannerStats stats ) {
+		int tick = snapshot_.getTick();
+		int version =
+		    snapshot_.getNeighborhoodVersion(node.getRoad(),node.getLane());
+		RoadGraphNode key = shift(node,tick);
+		stats.countExpansion();
+
+		CacheEntry entry;
+		synchronized ( cache_ ) {
+			entry = cache_.get(key);
+		}
+		if ( entry != null && entry.version_ == version ) {
+			stats.countCacheHit();
+			List<RoadGraphNode> next =
+			    new ArrayList<RoadGraphNode>(entry.next_.size());
+			for ( RoadGraphNode succ : entry.next_ ) {
+				next.add(shift(succ,-tick));
+			}
+			return next;
+		}
+
+		List<RoadGraphNode> next = generateNextLocations(node,stats);
+		cache(key,version,next);
+		for ( RoadGraphNode succ : next ) {
+			addEdge(new RoadGraphNode[] { node, succ });
+		}
+		return next;
+	}
+
+	/**
+	 * Get the successor nodes for the specified node in order of f, generating
+	 * only as many as are asked for (see Successors). Successors are taken from
+	 * the cache as in getNextLocations(), and once all have been generated they
+	 * are cached. The Successors are only good for the current snapshot.
+	 * 
+	 * @param node
+	 *          current node (time relative to the snapshot)
+	 * @return the successors of the specified node (times relative to the
+	 *         snapshot)
+	 */
+	public Successors getSuccessors ( RoadGraphNode node ) {
+		int tick = snapshot_.getTick();
+		int version =
+		    snapshot_.getNeighborhoodVersion(node.getRoad(),node.getLane());
+		RoadGraphNode key = shift(node,tick);
+		stats_.countExpansion();
+
+		CacheEntry entry;
+		synchronized ( cache_ ) {
+			entry = cache_.get(key);
+		}
+		if ( entry != null && entry.version_ == version ) {
+			stats_.countCacheHit();
+			List<RoadGraphNode> next =
+			    new ArrayList<RoadGraphNode>(entry.next_.size());
+			for ( RoadGraphNode succ : entry.next_ ) {
+				next.add(shift(succ,-tick));
+			}
+			return new Successors(this,node,next);
+		}
+
+		Successors succs = generateSuccessors(node,stats_);
+		succs.cacheWhenComplete(key,version);
+		return succs;
+	}
+
+	/**
+	 * Generate the successors of the specified node from the current snapshot,
+	 * deferring any which are expensive to generate. By default, all are
+	 * generated (with generateNextLocations()) right away.
+	 * 
+	 * @param node
+	 *          current node
+	 * @param stats
+	 *          stats to record the work done in
+	 * @return the successors of the specified node
+	 */
+	protected Successors generateSuccessors ( RoadGraphNode node,
+	                                          PlannerStats stats ) {
+		return new Successors(this,node,generateNextLocations(node,stats));
+	}
+
+	/**
+	 * Cache the successors of the node with the specified cache key.
+	 * 
+	 * @param key
+	 *          the node, with time measured from tick 0
+	 * @param version
+	 *          traffic version the successors were generated for
+	 * @param next
+	 *          the successors (times relative to the snapshot)
+	 */
+	void cache ( RoadGraphNode key, int version, List<RoadGraphNode> next ) {
+		int tick = snapshot_.getTick();
+		List<RoadGraphNode> cached = new ArrayList<RoadGraphNode>(next.size());
+		for ( RoadGraphNode succ : next ) {
+			cached.add(shift(succ,tick));
+		}
+		synchronized ( cache_ ) {
+			cache_.put(key,new CacheEntry(cached,version));
+		}
+	}
+
+	/**
+	 * Get a lower bound on the time to reach the goal from the specified node:
+	 * the distance to the edge of the goal, covered at the car's max speed. The
+	 * distance is the straight-line distance, or the goal's HeuristicTable bound
+	 * (which allows for changing lanes) if that is longer.
+	 * 
+	 * @param node
+	 *          the node
+	 * @return lower bound on the time from node to the goal (POSITIVE_INFINITY
+	 *         if the goal can't be reached from node)
+	 */
+	public float getTimeToGoal ( RoadGraphNode node ) {
+		float dist = PVector.dist(node.getPosition(),goal_.getPoint())
+		    - goal_.getRadius();
+		dist = Math.max(dist,heuristic_.getDistanceToGoal(node));
+		return Math.max(dist,0) / car_.getMaxSpeed();
+	}
+
+	/**
+	 * Get the speed the car is planned to be going at the specified node. Plans
+	 * are made at the car's max speed unless the graph tracks speed itself.
+	 * 
+	 * @param node
+	 *          the node
+	 * @return the car's planned speed at node
+	 */
+	public float getSpeed ( RoadGraphNode node ) {
+		return car_.getMaxSpeed();
+	}
+
 	/**
 	 * Determine if the specified node is a goal.
 	 * @param node
@@ -63,44 +347,211 @@ public abstract class PathfinderGraph {
 		return goal_.matches(node.getPosition());
 	}
 
+	/**
+	 * Determine if another car has reserved the space the car would take up
+	 * with its front bumper at the specified point and time.
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          the point
+	 * @param time
+	 *          the time (relative to the snapshot)
+	 * @param stats
+	 *          stats to record the query in
+	 * @return true if the space is reserved for another car, false if not
+	 */
+	protected boolean isReserved ( Road road, PVector p, float time,
+	                               PlannerStats stats ) {
+		stats.countQuery();
+		return reservations_.isReserved(road,p,car_.getLength(),
+		                                snapshot_.getTick() + time,car_.getCar());
+	}
+
+	/**
+	 * Determine if there is room for the car at the specified node: no other
+	 * car (in the snapshot) is within World.SPACING of the space the car would
+	 * take up with its front bumper at the node, and no other car has reserved
+	 * the space.
+	 * 
+	 * @param node
+	 *          the node (time relative to the snapshot)
+	 * @return true if there is room for the car, false if not
+	 */
+	public boolean isVacant ( RoadGraphNode node ) {
+		return isVacant(node.getRoad(),node.getPosition(),node.getTime(),stats_);
+	}
+
+	/**
+	 * Determine if there is room for the car with its front bumper at the
+	 * specified point and time. (as isVacant(RoadGraphNode))
+	 * 
+	 * @param road
+	 *          the road
+	 * @param p
+	 *          the point
+	 * @param time
+	 *          the time (relative to the snapshot)
+	 * @param stats
+	 *          stats to record the queries in
+	 * @return true if there is room for the car, false if not
+	 */
+	protected boolean isVacant ( Road road, PVector p, float time,
+	                             PlannerStats stats ) {
+		stats.countQuery();
+		for ( CarState other : snapshot_
+		    .getCarsInInterval(road,p,-car_.getLength() - World.SPACING,
+		                       World.SPACING,time) ) {
+			if ( other.getCar() != car_.getCar() ) {
+				return false;
+			}
+		}
+		return !isReserved(road,p,time,stats);
+	}
+
+	/**
+	 * Determine if the car can still get from one node to the next as the
+	 * graph would have it, in the current snapshot - e.g. for a plan made from
+	 * another snapshot. There must be room for the car at the end of the edge
+	 * (see isVacant()), which for a lane change is the check made when the edge
+	 * was generated; along a lane, the car also mustn't catch up with the next
+	 * car ahead, which needn't have been there when the edge was generated.
+	 * 
+	 * @param from
+	 *          the edge's start node (time relative to the snapshot)
+	 * @param to
+	 *          the edge's end node (time relative to the snapshot)
+	 * @return true if the car can follow the edge, false if not
+	 */
+	public boolean isReachable ( RoadGraphNode from, RoadGraphNode to ) {
+		if ( !isVacant(to) ) {
+			return false;
+		}
+		if ( from.getRoad() != to.getRoad() || from.getLane() != to.getLane() ) {
+			return true;
+		}
+
+		// (as the graphs do, the car ahead is whichever is ahead now)
+		Road road = from.getRoad();
+		stats_.countQuery();
+		CarState ahead = snapshot_.getNextCarInLane(road,from.getPosition());
+		if ( ahead == null || ahead.getCar() == car_.getCar() ) {
+			return true;
+		}
+		PVector limit =
+		    road.getAlong(ahead.getRearBumper(to.getTime()),-World.SPACING);
+		return road.getDistanceAlong(to.getPosition()) <= road
+		    .getDistanceAlong(limit) + CATCH_TOLERANCE;
+	}
+
+	/**
+	 * Generate the graph from the specified snapshot from now on. Nodes already
+	 * generated are not affected.
+	 * 
+	 * @param snapshot
+	 *          snapshot of the world (must contain the graph's car)
+	 */
+	public void setSnapshot ( WorldSnapshot snapshot ) {
+		CarState car = snapshot.getState(owner_);
+		if ( car == null ) {
+			throw new IllegalArgumentException("snapshot doesn't contain car "
+			    + owner_.getID());
+		}
+		snapshot_ = snapshot;
+		car_ = car;
+	}
+
 	/**
 	 * Display the generated graph.
 	 */
-	public void debug () {
+	public synchronized void debug () {
 		if ( !world_.getDebug(World.DEBUG_GRAPH) ) {
 			return;
 		}
 	
-		PApplet applet = world_.getApplet();
-	
 		if ( goal_ != null ) {
-			applet.noFill();
-			applet.strokeWeight(3);
-			applet.stroke(car_.getColor());
-			applet.ellipseMode(PApplet.CENTER);
-			applet.ellipse(goal_.getPoint().x,goal_.getPoint().y,
-			               2 * goal_.getRadius(),2 * goal_.getRadius());
-			applet.strokeWeight(1);
+			world_.debugCircle(World.DEBUG_GRAPH,goal_.getPoint(),goal_.getRadius(),
+			                   car_.getColor(),3);
 		}
 	
-		applet.ellipseMode(PApplet.CENTER);
-		applet.stroke(car_.getColor());
-		applet.fill(0);
-		for ( RoadGraphNode[] edge : edges_ ) {
-			PVector p1 = edge[0].getPosition(), p2 = edge[1].getPosition();
+		for ( int i = 0 ; i < numedges_ ; i++ ) {
+			PVector p1 = new PVector(edgepoints_[4 * i],edgepoints_[4 * i + 1]);
+			PVector p2 =
+			    new PVector(edgepoints_[4 * i + 2],edgepoints_[4 * i + 3]);
 			// System.out.println("drawing "+p1+" "+p2);
-			applet.line(p1.x,p1.y,p2.x,p2.y);
+			world_.debugLine(World.DEBUG_GRAPH,p1,p2,car_.getColor(),1);
 		}
-		for ( RoadGraphNode[] edge : edges_ ) {
-			PVector p2 = edge[1].getPosition();
+		for ( int i = 0 ; i < numedges_ ; i++ ) {
+			PVector p2 =
+			    new PVector(edgepoints_[4 * i + 2],edgepoints_[4 * i + 3]);
 			// System.out.println("drawing "+p2);
-			applet.ellipse(p2.x,p2.y,10,10);
+			world_.debugPoint(World.DEBUG_GRAPH,p2,car_.getColor(),
+			                  World.color(0,0,0),10);
 		}
 	
 	}
 
-	protected void addEdge ( RoadGraphNode[] nodes ) {
-		edges_.add(nodes);
+	/**
+	 * Add an edge to the generated graph (as displayed), unless it is already
+	 * there. If MAX_EDGES edges are already displayed, the oldest is dropped.
+	 * Nothing is recorded if the graph isn't being displayed.
+	 * 
+	 * @param nodes
+	 *          the edge's start and end nodes
+	 */
+	protected synchronized void addEdge ( RoadGraphNode[] nodes ) {
+		if ( !world_.getDebug(World.DEBUG_GRAPH) ) {
+			return;
+		}
+		if ( edgekeys_ == null ) {
+			edgekeys_ = new long[2 * MAX_EDGES];
+			edgepoints_ = new float[4 * MAX_EDGES];
+		}
+		long from = nodes[0].getKey(), to = nodes[1].getKey();
+		Long hash = getEdgeHash(from,to);
+		Integer slot = edgeslots_.get(hash);
+		if ( slot != null && edgekeys_[2 * slot] == from
+		    && edgekeys_[2 * slot + 1] == to ) {
+			return;
+		}
+
+		int edge = nextedge_;
+		if ( numedges_ == MAX_EDGES ) {
+			// drop the oldest edge (unless another edge with the same hash has
+			// the map entry)
+			Long old = getEdgeHash(edgekeys_[2 * edge],edgekeys_[2 * edge + 1]);
+			edgeslots_.remove(old,edge);
+		} else {
+			numedges_++;
+		}
+		nextedge_ = (edge + 1) % MAX_EDGES;
+
+		edgekeys_[2 * edge] = from;
+		edgekeys_[2 * edge + 1] = to;
+		PVector p1 = nodes[0].getPosition(), p2 = nodes[1].getPosition();
+		edgepoints_[4 * edge] = p1.x;
+		edgepoints_[4 * edge + 1] = p1.y;
+		edgepoints_[4 * edge + 2] = p2.x;
+		edgepoints_[4 * edge + 3] = p2.y;
+		// (on a hash collision the edge just isn't checked for duplicates)
+		edgeslots_.putIfAbsent(hash,edge);
+	}
+
+	/**
+	 * Get the number of edges kept for display.
+	 * 
+	 * @return number of edges (at most MAX_EDGES)
+	 */
+	public synchronized int getNumEdges () {
+		return numedges_;
+	}
+
+	private static long getEdgeHash ( long from, long to ) {
+		return from * 0x9E3779B97F4A7C15L + to;
+	}
+
+	private static RoadGraphNode shift ( RoadGraphNode node, float dt ) {
+		return node.getShifted(dt);
 	}
 
 }
\ No newline at end of file
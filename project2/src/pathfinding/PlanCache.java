@@ -0,0 +1,273 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import core.CarState;
+import core.Goal;
+import core.Road;
+import core.World;
+import processing.core.PVector;
+
+/**
+ * Finished plans shared between cars, so that a car starting from nearly the
+ * same state as another car did - same kind of graph, same road and lane,
+ * within S_BUCKET along the road, same speed level (for lattice plans), same
+ * goal, and same driving abilities - can reuse that car's plan instead of
+ * planning from scratch.
+ * 
+ * A plan made from a different start, and usually at a different tick, can run
+ * into cars which weren't in the way when it was made, so every edge of a
+ * cached plan is checked against the car's snapshot and the reservations before
+ * the plan is reused (see PathfinderGraph.isReachable()).
+ * 
+ * At most CAPACITY plans are kept. Each plan's priority is its cost to make
+ * plus the priority of the last plan evicted, and a reused plan's priority is
+ * raised again the same way. Plans made before the current traffic epoch (see
+ * TrafficMonitor) are evicted before any made since, as they are the ones
+ * likely to have been invalidated; otherwise the lowest priority plan is
+ * evicted first. Plans which were expensive to make are thus kept longer than
+ * cheap ones, but plans which stop being used eventually go.
+ * 
+ * Each world has its own cache, which goes when the world does. Lookups may be
+ * made from several threads at once.
+ */
+public class PlanCache {
+
+	/**
+	 * Maximum number of plans kept.
+	 */
+	public static final int CAPACITY = 256;
+
+	/**
+	 * Length of a stretch of lane whose start states share plans.
+	 */
+	public static final float S_BUCKET = 5;
+
+	// caches made so far, by world (identity)
+	private static Map<World,PlanCache> caches_ =
+	    Collections.synchronizedMap(new WeakHashMap<World,PlanCache>());
+
+	/**
+	 * Get the cache shared by all planners in the specified world, making it if
+	 * this is the first time it is asked for.
+	 * 
+	 * @param world
+	 *          the world
+	 * @return the world's cache
+	 */
+	public static PlanCache getCache ( World world ) {
+		return caches_.computeIfAbsent(world,w -> new PlanCache());
+	}
+
+	/**
+	 * Discretized start state a plan was made from.
+	 */
+	private static class Key {
+		Class<?> graph_; // kind of graph - plans from different kinds differ
+		Road road_;
+		int lane_;
+		int s_; // bucket along the road
+		int level_; // speed level (lattice plans only; -1 otherwise)
+		Goal goal_;
+		// the car's abilities, which the plan's times depend on
+		float length_, maxspeed_, maxaccel_, maxbrake_;
+
+		Key ( PathfinderGraph graph, RoadGraphNode start ) {
+			CarState car = graph.car_;
+			graph_ = graph.getClass();
+			road_ = start.getRoad();
+			lane_ = start.getLane();
+			s_ = (int) Math.floor(start.getDistanceAlong() / S_BUCKET);
+			level_ = (start instanceof LatticeNode
+			    ? ((LatticeNode) start).getLevel() : -1);
+			goal_ = graph.goal_;
+			length_ = car.getLength();
+			maxspeed_ = car.getMaxSpeed();
+			maxaccel_ = car.getMaxAccel();
+			maxbrake_ = car.getMaxBrake();
+		}
+
+		@Override
+		public boolean equals ( Object obj ) {
+			if ( !(obj instanceof Key) ) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return graph_ == other.graph_ && road_ == other.road_
+			    && lane_ == other.lane_ && s_ == other.s_ && level_ == other.level_
+			    && goal_ == other.goal_
+			    && length_ == other.length_ && maxspeed_ == other.maxspeed_
+			    && maxaccel_ == other.maxaccel_ && maxbrake_ == other.maxbrake_;
+		}
+
+		@Override
+		public int hashCode () {
+			int hash = System.identityHashCode(road_);
+			hash = 31 * hash + lane_;
+			hash = 31 * hash + s_;
+			hash = 31 * hash + level_;
+			hash = 31 * hash + System.identityHashCode(goal_);
+			hash = 31 * hash + Float.floatToIntBits(maxspeed_);
+			return hash;
+		}
+	}
+
+	/**
+	 * A cached plan.
+	 */
+	private static class Entry {
+		List<RoadGraphNode> path_; // times relative to the first node
+		float cost_; // cost to make the plan
+		int epoch_; // traffic epoch the plan was made in
+		volatile float priority_; // eviction priority (lowest goes first)
+
+		Entry ( List<RoadGraphNode> path, float cost, int epoch,
+		        float priority ) {
+			path_ = path;
+			cost_ = cost;
+			epoch_ = epoch;
+			priority_ = priority;
+		}
+	}
+
+	private Map<Key,Entry> plans_;
+	private volatile float floor_; // priority of the last plan evicted
+
+	/**
+	 * Create an empty cache.
+	 */
+	public PlanCache () {
+		plans_ = new ConcurrentHashMap<Key,Entry>();
+		floor_ = 0;
+	}
+
+	/**
+	 * Look for a plan for the graph's car from its current start node which is
+	 * still good in the graph's snapshot.
+	 * 
+	 * @param graph
+	 *          the graph the car is planning in
+	 * @return the plan, starting at the graph's start node (times relative to
+	 *         the snapshot), or null if there is no usable plan
+	 */
+	public List<RoadGraphNode> get ( PathfinderGraph graph ) {
+		RoadGraphNode start = graph.getStart();
+		Entry entry = plans_.get(new Key(graph,start));
+		if ( entry == null ) {
+			return null;
+		}
+
+		// the rest of the plan is the same, but reaching its second node may take
+		// a little more or less time from here
+		List<RoadGraphNode> cached = entry.path_;
+		Road road = start.getRoad();
+		PVector first = cached.get(1).getPosition();
+		if ( road.compareTo(start.getPosition(),first) >= 0 ) {
+			return null;
+		}
+		// a lane change from further along would be sharper than a car can make
+		if ( cached.get(1).getLane() != start.getLane() && road
+		    .compareTo(start.getPosition(),cached.get(0).getPosition()) > 0 ) {
+			return null;
+		}
+		// the start and the cached start share a speed level (if any), so cover
+		// the difference at the speed planned for the start
+		float ds = PVector.dist(start.getPosition(),first)
+		    - PVector.dist(cached.get(0).getPosition(),first);
+		float speed = graph.getSpeed(start);
+		if ( speed <= 0 && ds != 0 ) {
+			return null;
+		}
+		float dt = (ds == 0 ? 0 : ds / speed);
+
+		List<RoadGraphNode> path = new ArrayList<RoadGraphNode>(cached.size());
+		path.add(start);
+		for ( int i = 1 ; i < cached.size() ; i++ ) {
+			RoadGraphNode node = cached.get(i).getShifted(dt);
+			if ( !graph.isReachable(path.get(i - 1),node) ) {
+				return null;
+			}
+			path.add(node);
+		}
+
+		entry.priority_ = floor_ + entry.cost_;
+		return path;
+	}
+
+	/**
+	 * Add a plan made for the graph's car from its current start node.
+	 * 
+	 * @param graph
+	 *          the graph the plan was made in
+	 * @param path
+	 *          the plan (first node is the start node)
+	 * @param cost
+	 *          what it cost to make the plan (e.g. time spent)
+	 */
+	public void put ( PathfinderGraph graph, List<RoadGraphNode> path,
+	                  float cost ) {
+		if ( path.size() < 2 ) {
+			throw new IllegalArgumentException("plan must have at least 2 nodes; "
+			    + "got " + path.size());
+		}
+		float t0 = path.get(0).getTime();
+		List<RoadGraphNode> copy = new ArrayList<RoadGraphNode>(path.size());
+		for ( RoadGraphNode node : path ) {
+			copy.add(node.getShifted(-t0));
+		}
+
+		synchronized ( this ) {
+			int epoch = graph.snapshot_.getEpoch();
+			while ( plans_.size() >= CAPACITY ) {
+				evict(epoch);
+			}
+			plans_.put(new Key(graph,path.get(0)),
+			           new Entry(copy,cost,epoch,floor_ + cost));
+		}
+	}
+
+	/**
+	 * Remove all plans.
+	 */
+	public synchronized void clear () {
+		plans_.clear();
+		floor_ = 0;
+	}
+
+	/**
+	 * Get the number of plans in the cache.
+	 * 
+	 * @return number of plans
+	 */
+	public int size () {
+		return plans_.size();
+	}
+
+	/**
+	 * Remove the lowest priority plan made before the specified epoch, or the
+	 * lowest priority plan if all were made in it.
+	 */
+	private void evict ( int epoch ) {
+		Map.Entry<Key,Entry> lowest = null;
+		for ( Map.Entry<Key,Entry> plan : plans_.entrySet() ) {
+			if ( lowest == null || before(plan.getValue(),lowest.getValue(),epoch) ) {
+				lowest = plan;
+			}
+		}
+		plans_.remove(lowest.getKey());
+		floor_ = lowest.getValue().priority_;
+	}
+
+	// eviction order: plans from old epochs first, then by priority
+	private static boolean before ( Entry a, Entry b, int epoch ) {
+		if ( (a.epoch_ == epoch) != (b.epoch_ == epoch) ) {
+			return a.epoch_ != epoch;
+		}
+		return a.priority_ < b.priority_;
+	}
+}
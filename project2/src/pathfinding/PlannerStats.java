@@ -0,0 +1,220 @@
+package pathfinding;
+
+/**
+ * Counters and timers for planning: nodes expanded, successors generated and
+ * time spent generating them (by kind of successor), queries of the world
+ * snapshot, and total planning time. Recording is a few array updates and
+ * System.nanoTime() calls per expansion, so it is always on.
+ * 
+ * Each graph keeps its own stats, so recording needs no synchronization; stats
+ * from several graphs are combined with add().
+ */
+public class PlannerStats {
+
+	/**
+	 * Kinds of successor node.
+	 */
+	public static final int GOAL = 0, BOUNDARY = 1, LANE_CHANGE = 2,
+	    OPPORTUNITY = 3, MOTION = 4;
+
+	private static final String[] KIND_NAMES =
+	    { "goal", "boundary", "lane change", "opportunity", "motion" };
+
+	private int plans_; // plans recorded
+	private long plannanos_; // total time spent planning
+	private int expanded_; // nodes whose successors were asked for
+	private int cachehits_; // expansions answered from the successor cache
+	private int queries_; // snapshot and reservation queries
+	private int reused_; // plans taken from the PlanCache
+	private int[] generated_; // successors generated, by kind
+	private long[] nanos_; // time spent generating successors, by kind
+
+	/**
+	 * Create stats with nothing recorded.
+	 */
+	public PlannerStats () {
+		generated_ = new int[KIND_NAMES.length];
+		nanos_ = new long[KIND_NAMES.length];
+	}
+
+	/**
+	 * Add another set of stats to this one.
+	 * 
+	 * @param stats
+	 *          the stats to add
+	 */
+	public void add ( PlannerStats stats ) {
+		plans_ += stats.plans_;
+		plannanos_ += stats.plannanos_;
+		expanded_ += stats.expanded_;
+		cachehits_ += stats.cachehits_;
+		queries_ += stats.queries_;
+		reused_ += stats.reused_;
+		for ( int kind = 0 ; kind < generated_.length ; kind++ ) {
+			generated_[kind] += stats.generated_[kind];
+			nanos_[kind] += stats.nanos_[kind];
+		}
+	}
+
+	/**
+	 * Record successors generated.
+	 * 
+	 * @param kind
+	 *          kind of successor (GOAL, BOUNDARY, LANE_CHANGE, OPPORTUNITY, or
+	 *          MOTION)
+	 * @param count
+	 *          number of successors generated
+	 * @param start
+	 *          System.nanoTime() when generating them started
+	 */
+	public void addGenerated ( int kind, int count, long start ) {
+		generated_[kind] += count;
+		nanos_[kind] += System.nanoTime() - start;
+	}
+
+	/**
+	 * Record a finished plan.
+	 * 
+	 * @param start
+	 *          System.nanoTime() when planning started
+	 */
+	public void addPlan ( long start ) {
+		plans_++;
+		plannanos_ += System.nanoTime() - start;
+	}
+
+	/**
+	 * Reset everything to 0.
+	 */
+	public void clear () {
+		plans_ = 0;
+		plannanos_ = 0;
+		expanded_ = 0;
+		cachehits_ = 0;
+		queries_ = 0;
+		reused_ = 0;
+		for ( int kind = 0 ; kind < generated_.length ; kind++ ) {
+			generated_[kind] = 0;
+			nanos_[kind] = 0;
+		}
+	}
+
+	/**
+	 * Record an expansion answered from the successor cache.
+	 */
+	public void countCacheHit () {
+		cachehits_++;
+	}
+
+	/**
+	 * Record a node expansion.
+	 */
+	public void countExpansion () {
+		expanded_++;
+	}
+
+	/**
+	 * Record a query of the world snapshot or the reservations.
+	 */
+	public void countQuery () {
+		queries_++;
+	}
+
+	/**
+	 * Record a plan reused from the PlanCache instead of being made.
+	 */
+	public void countReuse () {
+		reused_++;
+	}
+
+	/**
+	 * Get the number of expansions answered from the successor cache.
+	 * 
+	 * @return number of cache hits
+	 */
+	public int getCacheHits () {
+		return cachehits_;
+	}
+
+	/**
+	 * Get the number of nodes expanded.
+	 * 
+	 * @return number of expansions
+	 */
+	public int getExpanded () {
+		return expanded_;
+	}
+
+	/**
+	 * Get the number of successors generated of the specified kind.
+	 * 
+	 * @param kind
+	 *          kind of successor (GOAL, BOUNDARY, LANE_CHANGE, OPPORTUNITY, or
+	 *          MOTION)
+	 * @return number of successors generated
+	 */
+	public int getGenerated ( int kind ) {
+		return generated_[kind];
+	}
+
+	/**
+	 * Get the time spent generating successors of the specified kind.
+	 * 
+	 * @param kind
+	 *          kind of successor (GOAL, BOUNDARY, LANE_CHANGE, OPPORTUNITY, or
+	 *          MOTION)
+	 * @return time in nanoseconds
+	 */
+	public long getGeneratingTime ( int kind ) {
+		return nanos_[kind];
+	}
+
+	/**
+	 * Get the number of plans recorded.
+	 * 
+	 * @return number of plans
+	 */
+	public int getPlans () {
+		return plans_;
+	}
+
+	/**
+	 * Get the total time spent planning.
+	 * 
+	 * @return time in nanoseconds
+	 */
+	public long getPlanningTime () {
+		return plannanos_;
+	}
+
+	/**
+	 * Get the number of plans reused from the PlanCache.
+	 * 
+	 * @return number of plans reused
+	 */
+	public int getReused () {
+		return reused_;
+	}
+
+	/**
+	 * Get the number of queries of the world snapshot and reservations.
+	 * 
+	 * @return number of queries
+	 */
+	public int getQueries () {
+		return queries_;
+	}
+
+	@Override
+	public String toString () {
+		StringBuilder str = new StringBuilder();
+		str.append(plans_ + " plans (" + reused_ + " reused), "
+		    + (plannanos_ / 1000) + "us; " + expanded_
+		    + " expanded (" + cachehits_ + " cached), " + queries_ + " queries;");
+		for ( int kind = 0 ; kind < generated_.length ; kind++ ) {
+			str.append(" " + KIND_NAMES[kind] + " " + generated_[kind] + "/"
+			    + (nanos_[kind] / 1000) + "us");
+		}
+		return str.toString();
+	}
+}
@@ -4,19 +4,85 @@ import core.Road;
 import processing.core.PVector;
 
 public class RoadGraphNode {
+
+	/**
+	 * Resolution of node states: nodes on the same road and lane whose distances
+	 * along the road and times fall into the same buckets are the same state.
+	 */
+	public static final float POSITION_QUANTUM = 1, TIME_QUANTUM = 1;
+
 	private Road road_;
 	private PVector p_;
 	private float time_;
 
+	// p_ projected onto the road, computed once since it is needed often
+	private int lane_;
+	private float s_; // distance along the road
+
 	public RoadGraphNode ( Road road, PVector p, float time ) {
 		super();
 		road_ = road;
 		p_ = p;
 		time_ = time;
+		lane_ = road.getLane(p);
+		s_ = road.getDistanceAlong(p);
+	}
+
+	/**
+	 * Two nodes are equal if they are the same state - same road, lane, and
+	 * distance along the road and time to within POSITION_QUANTUM and
+	 * TIME_QUANTUM.
+	 */
+	@Override
+	public boolean equals ( Object obj ) {
+		if ( this == obj ) {
+			return true;
+		}
+		if ( !(obj instanceof RoadGraphNode) ) {
+			return false;
+		}
+		RoadGraphNode other = (RoadGraphNode) obj;
+		return road_ == other.road_ && getKey() == other.getKey();
+	}
+
+	/**
+	 * Get the quantized state of the node, packed into a long: road ID (12
+	 * bits), lane (8 bits), distance along the road (22 bits), and time (22
+	 * bits), each in units of the quantum.
+	 * 
+	 * @return the node's state key
+	 */
+	public long getKey () {
+		long s = Math.round(s_ / POSITION_QUANTUM);
+		long t = Math.round(time_ / TIME_QUANTUM);
+		return ((long) (road_.getID() & 0xfff) << 52)
+		    | ((long) (lane_ & 0xff) << 44) | ((s & 0x3fffff) << 22)
+		    | (t & 0x3fffff);
+	}
+
+	/**
+	 * Get the node's distance along its road.
+	 * 
+	 * @return distance along the road (0 = at start, getLength() = at end)
+	 */
+	public float getDistanceAlong () {
+		return s_;
 	}
 
 	public int getLane () {
-		return road_.getLane(p_);
+		return lane_;
+	}
+
+	/**
+	 * Get the same node at a different time.
+	 * 
+	 * @param dt
+	 *          change in time
+	 * @return a node at the same position (and otherwise the same state) at
+	 *         time getTime() + dt
+	 */
+	public RoadGraphNode getShifted ( float dt ) {
+		return new RoadGraphNode(road_,p_,time_ + dt);
 	}
 
 	public PVector getPosition () {
@@ -31,6 +97,11 @@ public class RoadGraphNode {
 		return time_;
 	}
 
+	@Override
+	public int hashCode () {
+		return Long.hashCode(getKey());
+	}
+
 	@Override
 	public String toString () {
 		return "RoadGraphNode [p_=" + p_ + ", time_=" + time_ + "]";
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import core.Car;
+import core.CarState;
 import core.Goal;
 import core.Road;
 import core.World;
@@ -16,7 +17,8 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 	}
 
 	private void addLaneChange ( RoadGraphNode node, int newlane,
-	                             List<RoadGraphNode> targets ) {
+	                             List<RoadGraphNode> targets,
+	                             PlannerStats stats ) {
 		Road road = node.getRoad();
 
 		// compute the target location in the new lane
@@ -25,22 +27,27 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 
 		// check that there is room in the new lane for the car - one car length
 		// back from target, with spacing on either end
-		if ( world_.isIntervalVacant(road,target,-car_.getLength() - World.SPACING,
-		                             World.SPACING) ) {
+		stats.countQuery();
+		if ( snapshot_.isIntervalVacant(road,target,
+		                                -car_.getLength() - World.SPACING,
+		                                World.SPACING) ) {
 			float dist = PVector.dist(car_.getFrontBumper(),target);
 			RoadGraphNode newnode =
 			    new RoadGraphNode(road,target,
 			                      node.getTime() + dist / car_.getMaxSpeed());
 			targets.add(newnode);
-			world_.debugPoint(World.DEBUG_GRAPHGEN,target,
-			                  world_.getApplet().color(0,255,255),8);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugPoint(World.DEBUG_GRAPHGEN,target,
+				                  World.color(0,255,255),8);
+			}
 			// System.out.println("lane change node (" + newlane + "): " + newnode);
 		}
 
 	}
 
-	private void addOpportunity ( RoadGraphNode node, int newlane, Car ahead,
-	                              List<RoadGraphNode> targets ) {
+	private void addOpportunity ( RoadGraphNode node, int newlane,
+	                              CarState ahead, List<RoadGraphNode> targets,
+	                              PlannerStats stats ) {
 		// in the current lane, immediately after passing each car in the adjacent
 		// lane, until reaching the next car in the current lane
 		// safe opportunity - car travels at max speed until braking just before
@@ -62,7 +69,8 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 		PVector adjstart = road.getOnCenterStripe(node.getPosition(),newlane);
 		PVector adjend = road.getOnCenterStripe(end,newlane);
 
-		for ( Car adjacent : world_
+		stats.countQuery();
+		for ( CarState adjacent : snapshot_
 		    .getCarsInInterval(road,adjstart,0,PVector.dist(adjstart,adjend)) ) {
 			// (unsafe) opportunity point is the front of the adjacent car + spacing
 			// + length of this car
@@ -92,13 +100,13 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 			RoadGraphNode unsafe = new RoadGraphNode(road,p,time
 			    + PVector.dist(node.getPosition(),p) / car_.getMaxSpeed());
 			targets.add(unsafe);
-			world_.debugPoint(World.DEBUG_GRAPHGEN,unsafe.getPosition(),
-			                  world_.getApplet().color(255,0,0),8);
-			{
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugPoint(World.DEBUG_GRAPHGEN,unsafe.getPosition(),
+				                  World.color(255,0,0),8);
 				PVector target2 = road.getLaneChangeTarget(unsafe.getPosition(),newlane,
 				                                           Car.LANE_CHANGE_ANGLE);
 				world_.debugPoint(World.DEBUG_GRAPHGEN,target2,
-				                  world_.getApplet().color(255,0,0),5);
+				                  World.color(255,0,0),5);
 			}
 			// System.out
 			// .println("unsafe opportunity node (" + newlane + "): " + unsafe);
@@ -121,14 +129,14 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 					    + PVector.dist(node.getPosition(),brakestart) / car_.getMaxSpeed()
 					    + addlt);
 					targets.add(safe);
-					world_.debugPoint(World.DEBUG_GRAPHGEN,safe.getPosition(),
-					                  world_.getApplet().color(0,255,0),8);
-					{
+					if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+						world_.debugPoint(World.DEBUG_GRAPHGEN,safe.getPosition(),
+						                  World.color(0,255,0),8);
 						PVector target2 =
 						    road.getLaneChangeTarget(safe.getPosition(),newlane,
 						                             Car.LANE_CHANGE_ANGLE);
 						world_.debugPoint(World.DEBUG_GRAPHGEN,target2,
-						                  world_.getApplet().color(0,255,0),5);
+						                  World.color(0,255,0),5);
 					}
 					// System.out
 					// .println("safe opportunity node (" + newlane + "): " + safe);
@@ -137,7 +145,7 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 		}
 	}
 
-	private void addBoundary ( RoadGraphNode node, Car ahead,
+	private void addBoundary ( RoadGraphNode node, CarState ahead,
 	                           List<RoadGraphNode> targets ) {
 		Road road = node.getRoad();
 		int lane = road.getLane(node.getPosition());
@@ -168,14 +176,16 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 				    .getRearBumper(),-World.SPACING),time
 				        + (availdist - brakedist) / car_.getMaxSpeed() + braketime);
 				targets.add(boundary);
-				world_.debugPoint(World.DEBUG_GRAPHGEN,boundary.getPosition(),
-				                  world_.getApplet().color(0,0,255),8);
+				if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+					world_.debugPoint(World.DEBUG_GRAPHGEN,boundary.getPosition(),
+					                  World.color(0,0,255),8);
+				}
 				// System.out.println("boundary node: (b) " + boundary);
 			}
 	//	}
 	}
 
-	private void addGoal ( RoadGraphNode node, Car ahead,
+	private void addGoal ( RoadGraphNode node, CarState ahead,
 	                       List<RoadGraphNode> targets ) {
 		// add goal if reachable - in the current lane and nothing in the way
 
@@ -193,15 +203,17 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 		if ( ahead == null ) {
 			RoadGraphNode goal = new RoadGraphNode(road,goal_.getPoint(),time + t);
 			targets.add(goal);
-			world_.debugPoint(World.DEBUG_GRAPHGEN,goal.getPosition(),
-			                  world_.getApplet().color(0,255,0),8);
-			System.out.println("goal node: " + goal);
+			if ( world_.getDebug(World.DEBUG_GRAPHGEN) ) {
+				world_.debugPoint(World.DEBUG_GRAPHGEN,goal.getPosition(),
+				                  World.color(0,255,0),8);
+			}
 		}
 
 	}
 
 	@Override
-	public List<RoadGraphNode> getNextLocations ( RoadGraphNode node ) {
+	protected List<RoadGraphNode>
+	    generateNextLocations ( RoadGraphNode node, PlannerStats stats ) {
 		List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
 		Road road = node.getRoad();
 		int lane = road.getLane(node.getPosition());
@@ -209,41 +221,50 @@ public class StaticPathfinderGraph extends PathfinderGraph {
 
 		// can't plan how other cars will change lanes, so expect next car ahead
 		// to always be the one that is currently ahead
-		Car ahead = world_.getNextCarInLane(road,node.getPosition());
+		stats.countQuery();
+		CarState ahead = snapshot_.getNextCarInLane(road,node.getPosition());
 		// System.out.println("ahead: " + ahead);
 
 		// System.out.println("getNextLocations(): "+node);
 
 		// goal node
+		long start = System.nanoTime();
+		int count = targets.size();
 		addGoal(node,ahead,targets);
+		stats.addGenerated(PlannerStats.GOAL,targets.size() - count,start);
 
 		// boundary node - only add if there's a car ahead
+		start = System.nanoTime();
+		count = targets.size();
 		if ( ahead != null ) {
 			addBoundary(node,ahead,targets);
 		}
+		stats.addGenerated(PlannerStats.BOUNDARY,targets.size() - count,start);
 
 		// lane change nodes
+		start = System.nanoTime();
+		count = targets.size();
 		if ( lane > 0 ) {
-			addLaneChange(node,lane - 1,targets);
+			addLaneChange(node,lane - 1,targets,stats);
 		}
 		if ( lane < road.getNumLanes() - 1 ) {
-			addLaneChange(node,lane + 1,targets);
+			addLaneChange(node,lane + 1,targets,stats);
 		}
+		stats.addGenerated(PlannerStats.LANE_CHANGE,targets.size() - count,start);
 
 		// opportunity nodes - in current lane, immediately after passing each
 		// neighboring car, until next car in current lane
+		start = System.nanoTime();
+		count = targets.size();
 		if ( lane > 0 ) {
-			addOpportunity(node,lane - 1,ahead,targets);
+			addOpportunity(node,lane - 1,ahead,targets,stats);
 		}
 		if ( lane < road.getNumLanes() - 1 ) {
-			addOpportunity(node,lane + 1,ahead,targets);
+			addOpportunity(node,lane + 1,ahead,targets,stats);
 		}
+		stats.addGenerated(PlannerStats.OPPORTUNITY,targets.size() - count,start);
 
 		// System.out.println(" ---------------- " + location + " " + car_);
-		for ( RoadGraphNode target : targets ) {
-			addEdge(new RoadGraphNode[] { node, target });
-			// System.out.println("neighbors: " + edges_.get(edges_.size() - 1)[1]);
-		}
 		return targets;
 	}
 
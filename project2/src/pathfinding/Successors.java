@@ -0,0 +1,172 @@
+package pathfinding;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * The successors of one node, handed out one at a time in order of f (the
+ * node's time plus the graph's lower bound on the time from it to the goal).
+ * 
+ * Successors which are expensive to generate can be deferred: a deferred
+ * generator comes with a lower bound on the f of anything it generates, and is
+ * only run once a successor that good is asked for. A search which only needs
+ * the best few successors of a node (see AStarSearch) thus never pays for
+ * generating the rest.
+ * 
+ * Once every deferred generator has been run, the successors generated are
+ * cached by the graph as if they had come from getNextLocations(). Edges are
+ * added to the displayed graph as successors are handed out.
+ */
+public class Successors {
+
+	/**
+	 * Generates some of a node's successors.
+	 */
+	public interface Generator {
+		/**
+		 * Generate the successors, adding them to targets.
+		 * 
+		 * @param targets
+		 *          list to add the successors to
+		 */
+		public void generate ( List<RoadGraphNode> targets );
+	}
+
+	/**
+	 * A generated successor, or a deferred generator, and its f (or lower bound
+	 * on f).
+	 */
+	private static class Entry implements Comparable<Entry> {
+		RoadGraphNode node_; // null for a generator
+		Generator generator_;
+		float f_;
+
+		Entry ( RoadGraphNode node, Generator generator, float f ) {
+			node_ = node;
+			generator_ = generator;
+			f_ = f;
+		}
+
+		@Override
+		public int compareTo ( Entry other ) {
+			return Float.compare(f_,other.f_);
+		}
+	}
+
+	private PathfinderGraph graph_;
+	private RoadGraphNode node_; // the node these are the successors of
+	private PriorityQueue<Entry> ready_; // successors generated, not handed out
+	private PriorityQueue<Entry> deferred_; // generators not run yet
+	private List<RoadGraphNode> generated_; // every successor generated
+	private RoadGraphNode key_; // cache key, while not all generated; or null
+	private int version_; // traffic version for the cache entry
+
+	/**
+	 * Create the successors of a node.
+	 * 
+	 * @param graph
+	 *          the graph the node is in
+	 * @param node
+	 *          the node
+	 * @param nodes
+	 *          the successors already generated
+	 */
+	public Successors ( PathfinderGraph graph, RoadGraphNode node,
+	                    List<RoadGraphNode> nodes ) {
+		graph_ = graph;
+		node_ = node;
+		ready_ = new PriorityQueue<Entry>(Math.max(nodes.size(),1));
+		deferred_ = new PriorityQueue<Entry>();
+		generated_ = new ArrayList<RoadGraphNode>(nodes.size());
+		add(nodes);
+		key_ = null;
+	}
+
+	/**
+	 * Add a generator to run when successors with f of at least bound are
+	 * needed.
+	 * 
+	 * @param generator
+	 *          the generator
+	 * @param bound
+	 *          lower bound on the f of every successor the generator adds
+	 */
+	public void defer ( Generator generator, float bound ) {
+		deferred_.add(new Entry(null,generator,bound));
+	}
+
+	/**
+	 * Get a lower bound on the f of the next successor.
+	 * 
+	 * @return lower bound on f (POSITIVE_INFINITY if there are no more
+	 *         successors)
+	 */
+	public float getBound () {
+		float bound = Float.POSITIVE_INFINITY;
+		if ( !ready_.isEmpty() ) {
+			bound = ready_.peek().f_;
+		}
+		if ( !deferred_.isEmpty() ) {
+			bound = Math.min(bound,deferred_.peek().f_);
+		}
+		return bound;
+	}
+
+	/**
+	 * Determine if every successor has been handed out.
+	 * 
+	 * @return true if there are no more successors, false if there may be
+	 */
+	public boolean isEmpty () {
+		return ready_.isEmpty() && deferred_.isEmpty();
+	}
+
+	/**
+	 * Get the successor with the lowest f, if its f is no more than limit. Only
+	 * the deferred generators needed to find out are run.
+	 * 
+	 * @param limit
+	 *          highest f wanted
+	 * @return the successor with the lowest f, or null if there is none with f
+	 *         of at most limit
+	 */
+	public RoadGraphNode next ( float limit ) {
+		while ( !deferred_.isEmpty() && deferred_.peek().f_ <= limit
+		    && (ready_.isEmpty() || deferred_.peek().f_ < ready_.peek().f_) ) {
+			List<RoadGraphNode> targets = new ArrayList<RoadGraphNode>();
+			deferred_.poll().generator_.generate(targets);
+			add(targets);
+			if ( deferred_.isEmpty() && key_ != null ) {
+				graph_.cache(key_,version_,generated_);
+				key_ = null;
+			}
+		}
+		if ( ready_.isEmpty() || ready_.peek().f_ > limit ) {
+			return null;
+		}
+		RoadGraphNode next = ready_.poll().node_;
+		graph_.addEdge(new RoadGraphNode[] { node_, next });
+		return next;
+	}
+
+	/**
+	 * Have the successors cached once all have been generated.
+	 */
+	void cacheWhenComplete ( RoadGraphNode key, int version ) {
+		if ( deferred_.isEmpty() ) {
+			graph_.cache(key,version,generated_);
+		} else {
+			key_ = key;
+			version_ = version;
+		}
+	}
+
+	private void add ( List<RoadGraphNode> nodes ) {
+		for ( RoadGraphNode node : nodes ) {
+			ready_.add(new Entry(node,null,
+			                     node.getTime() + graph_.getTimeToGoal(node)));
+			generated_.add(node);
+		}
+	}
+}